@@ -25,7 +25,6 @@ import appFX.framework.gateModels.CircuitBoardModel;
 import appFX.framework.gateModels.CircuitBoardModel.RowType;
 import appFX.framework.gateModels.GateModel;
 import appFX.framework.gateModels.GateModel.GateComputingType;
-import appFX.framework.simulator.Simulator;
 import appFX.framework.simulator.State;
 import appFX.framework.gateModels.PresetGateType;
 import appFX.framework.solderedGates.SolderedControlPin;
@@ -259,7 +258,7 @@ public enum AppCommand {
 	QUICK_SIM ((commandResponse, parameters) -> {
 		try {
 			getConsole().println("Running Simulation", Color.BLUE);
-			State[] states = Simulator.simulate(getCurrentProject());
+			State[] states = getAppStatus().getQuickSimulator().simulate();
 			for (State state : states)
 				if (state.size() != 0)
 					getConsole().println(state.toString(), Color.BLACK);
@@ -9,6 +9,7 @@ import appFX.appUI.appViews.ConcreteView;
 import appFX.appUI.appViews.ConsoleView;
 import appFX.appUI.utils.AppAlerts;
 import appFX.appUI.utils.AppFileIO;
+import appFX.framework.simulator.CheckpointedSimulator;
 import javafx.event.EventHandler;
 import javafx.scene.control.Alert.AlertType;
 import javafx.scene.control.ButtonType;
@@ -41,6 +42,7 @@ public final class AppStatus implements EventHandler<WindowEvent> {
 	private final Notifier notifierFan;
 	private final Notifier notifier;
 	private boolean isProjectModifed;
+	private CheckpointedSimulator quickSimulator = null;
 	
 	
 	/**
@@ -148,6 +150,10 @@ public final class AppStatus implements EventHandler<WindowEvent> {
 		notifier.sendChange(this, "setFocusedProject", project);
 		this.project = project;
 		this.project.setReceiver(notifier);
+		if(quickSimulator != null) {
+			removeAppChangedListener(quickSimulator);
+			quickSimulator = null;
+		}
 		setProjectSavedFlag();
 		
 		if(project.getTopLevelCircuitLocationString() != null)
@@ -191,6 +197,18 @@ public final class AppStatus implements EventHandler<WindowEvent> {
 		return project;
 	}
 	
+	/**
+	 * @return the simulator the focused project is quickly simulated with, which continues from the states
+	 * it kept before the last edit instead of starting over
+	 */
+	public CheckpointedSimulator getQuickSimulator() {
+		if(quickSimulator == null) {
+			quickSimulator = new CheckpointedSimulator(project);
+			addAppChangedListener(quickSimulator);
+		}
+		return quickSimulator;
+	}
+	
 	
 	public Stage getPrimaryStage() {
 		return primaryStage;
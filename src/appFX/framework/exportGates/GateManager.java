@@ -55,6 +55,16 @@ public class GateManager {
 		return exportGates(p.getTopLevelCircuitLocationString());
 	}
 	
+	/**
+	 * @param p
+	 * @param runtimeVariables the set the parameters of the top level circuit of the project are bound in
+	 * @return
+	 * @throws ExportException
+	 */
+	public static Stream<Exportable> exportGates(Project p, MathSet runtimeVariables) throws ExportException {
+		return exportGates(startScanAndGetExportStream(p.getTopLevelCircuitLocationString(), runtimeVariables));
+	}
+	
 	public static Stream<Exportable> exportGates(String circuitboardName) throws ExportException {
 		return exportGates(startScanAndGetExportStream(circuitboardName, MathDefinitions.GLOBAL_DEFINITIONS));
 	}
@@ -79,6 +89,17 @@ public class GateManager {
 		public Control[] getClassicalControls();
 		public boolean isIdentity();
 		public MathSet getMathSet();
+		/**
+		 * @return whether a parameter of this gate is an expression of the parameters of the circuit board it is placed in
+		 */
+		public boolean hasArgumentParameters();
+		/**
+		 * Evaluates the parameters of this gate again, as they were evaluated when it was exported.
+		 * @param runtimeVariables the set the parameters of the circuit board it is placed in are bound in
+		 * @return the set the parameters of this gate are bound in
+		 * @throws ExportException
+		 */
+		public MathSet bindParameters(MathSet runtimeVariables) throws ExportException;
 	}
 	
 	
@@ -170,6 +191,16 @@ public class GateManager {
 			return n.mathSet;
 		}
 		
+		@Override
+		public boolean hasArgumentParameters() {
+			return GateManager.hasArgumentParameters(n);
+		}
+		
+		@Override
+		public MathSet bindParameters(MathSet runtimeVariables) throws ExportException {
+			return GateManager.bindParameters(n, runtimeVariables);
+		}
+		
 		public LinkedList<RawExportOutputLink> getOutputLinks() {
 			RawExportableGateData rawData = n.rawData;
 			if (rawData == null)
@@ -315,6 +346,16 @@ public class GateManager {
 			return tree.mathSet;
 		}
 		
+		@Override
+		public boolean hasArgumentParameters() {
+			return GateManager.hasArgumentParameters(tree);
+		}
+		
+		@Override
+		public MathSet bindParameters(MathSet runtimeVariables) throws ExportException {
+			return GateManager.bindParameters(tree, runtimeVariables);
+		}
+		
 		public LinkedList<RawExportLink> getInputLinks() {
 			RawExportableGateData rawData = tree.rawData;
 			if (rawData == null)
@@ -528,11 +569,11 @@ public class GateManager {
 		for(int i = 0; i < cb.getRows(); i++)
 			registers.put(i, i);
 		
-		ExportTree base = scanCB(p, cb, GateComputingType.QUANTUM, true, runtimeVariables, null);
+		ExportTree base = scanCB(p, cb, GateComputingType.QUANTUM, true, runtimeVariables, null, null);
 		Queue<ExportNode> nodes = new Queue<ExportNode>();
 		nodes.add(base);
 		ExportTree root = new ExportTree("root", GateComputingType.QUANTUM, true, base.numPrimaryRegs, 
-				base.numSecondaryRegs, nodes, runtimeVariables, null);
+				base.numSecondaryRegs, nodes, runtimeVariables, null, null, null);
 		return root;
 	}
 	
@@ -544,7 +585,7 @@ public class GateManager {
 	
 	
 	private static ExportTree scanCB (Project p, CircuitBoardModel cb, GateComputingType computingType, 
-			boolean placedOnPrimary, MathSet runtimeVariables, RawExportableGateData data) throws ExportException {
+			boolean placedOnPrimary, MathSet runtimeVariables, RawExportableGateData data, String parentLocationString) throws ExportException {
 		
 		Queue<ExportNode> nodes = new Queue<>();
 		
@@ -593,48 +634,15 @@ public class GateManager {
 			}
 			
 			
-			int i = 0;
-			Complex c;
-			
 			ExportNode n = null;
-			MathSet ms = new MathSet(MathDefinitions.GLOBAL_DEFINITIONS);
-			
-			try {
-				if(gm instanceof CircuitBoardModel) {
-					for(MathObject mo : parameters.getMathDefinitions()) {
-						if(mo.isMatrix())
-							throw new ExportException("Gate \"" + sg.getGateModelLocationString() + "\" in \"" 
-									+ cb.getLocationString() + "\" cannot not pass a matrix in parameter " + i, cb.getLocationString(), rawData.getGateRowBodyStart(), rawData.getGateRowBodyEnd(), rawData.getColumn());
-						
-						if(mo.hasArguments())
-							c = (Complex) ((ArgObject) mo).getDefinition().compute(runtimeVariables);
-						else
-							c = (Complex) ((ScalarObject) mo).getScalar();
-						
-						ms.addVariable(new ConcreteVariable(arguments.get(i++), c));
-					}
-					n = scanCB(p, (CircuitBoardModel) gm, childComputingType, childPlacedOnPrimary, ms, rawData);
-				} else {
-					Hashtable<String, Complex> argParamTable = new Hashtable<>();
-					for(MathObject mo : parameters.getMathDefinitions()) {
-						if(mo.isMatrix())
-							throw new ExportException("Gate \"" + sg.getGateModelLocationString() + "\" in \"" 
-									+ cb.getLocationString() + "\" cannot not pass a matrix in parameter " + i, cb.getLocationString(), rawData.getGateRowBodyStart(), rawData.getGateRowBodyEnd(), rawData.getColumn());
-						
-						if(mo.hasArguments())
-							c = (Complex) ((ArgObject) mo).getDefinition().compute(runtimeVariables);
-						else
-							c = (Complex) ((ScalarObject) mo).getScalar();
-						
-						argParamTable.put(arguments.get(i), c);
-						ms.addVariable(new ConcreteVariable(arguments.get(i++), c));
-					}
-					n = new ExportLeaf(childComputingType, childPlacedOnPrimary, argParamTable, gm, ms, rawData);
-				}
-				
-			} catch (EvaluateExpressionException e) {
-				throw new ExportException("Gate \"" + sg.getGateModelLocationString() + "\" in \"" 
-						+ cb.getLocationString() + "\" could not evaluate parameter " + i + " due to: " + e.getMessage(), cb.getLocationString(), rawData.getGateRowBodyStart(), rawData.getGateRowBodyEnd(), rawData.getColumn());
+			String cbName = cb.getLocationString();
+			if(gm instanceof CircuitBoardModel) {
+				MathSet ms = bindParameters(gm, rawData, runtimeVariables, null, cbName);
+				n = scanCB(p, (CircuitBoardModel) gm, childComputingType, childPlacedOnPrimary, ms, rawData, cbName);
+			} else {
+				Hashtable<String, Complex> argParamTable = new Hashtable<>();
+				MathSet ms = bindParameters(gm, rawData, runtimeVariables, argParamTable, cbName);
+				n = new ExportLeaf(childComputingType, childPlacedOnPrimary, argParamTable, gm, ms, rawData, cbName);
 			}
 			
 			
@@ -655,7 +663,67 @@ public class GateManager {
 			break;
 		}
 		
-		return new ExportTree(cb.getName(), computingType, placedOnPrimary, primaryRegs, secondayRegs, nodes, runtimeVariables, data);
+		return new ExportTree(cb.getName(), computingType, placedOnPrimary, primaryRegs, secondayRegs, nodes, runtimeVariables, data, cb, parentLocationString);
+	}
+	
+	
+	
+	
+	/**
+	 * Evaluates the parameters a gate is given where it is placed.
+	 * @param gm the gate
+	 * @param rawData where the gate is placed
+	 * @param runtimeVariables the set the parameters of the circuit board the gate is placed in are bound in
+	 * @param argParamTable receives the value of each parameter if not null
+	 * @param cbName the circuit board the gate is placed in
+	 * @return the set the parameters of the gate are bound in
+	 * @throws ExportException
+	 */
+	private static MathSet bindParameters(GateModel gm, RawExportableGateData rawData, MathSet runtimeVariables,
+			Hashtable<String, Complex> argParamTable, String cbName) throws ExportException {
+		SolderedGate sg = rawData.getSolderedGate();
+		GroupDefinition parameters = sg.getParameterSet();
+		ImmutableArray<String> arguments = gm.getParameters();
+		
+		int i = 0;
+		Complex c;
+		MathSet ms = new MathSet(MathDefinitions.GLOBAL_DEFINITIONS);
+		
+		try {
+			for(MathObject mo : parameters.getMathDefinitions()) {
+				if(mo.isMatrix())
+					throw new ExportException("Gate \"" + sg.getGateModelLocationString() + "\" in \"" 
+							+ cbName + "\" cannot not pass a matrix in parameter " + i, cbName, rawData.getGateRowBodyStart(), rawData.getGateRowBodyEnd(), rawData.getColumn());
+				
+				if(mo.hasArguments())
+					c = (Complex) ((ArgObject) mo).getDefinition().compute(runtimeVariables);
+				else
+					c = (Complex) ((ScalarObject) mo).getScalar();
+				
+				if(argParamTable != null)
+					argParamTable.put(arguments.get(i), c);
+				ms.addVariable(new ConcreteVariable(arguments.get(i++), c));
+			}
+		} catch (EvaluateExpressionException e) {
+			throw new ExportException("Gate \"" + sg.getGateModelLocationString() + "\" in \"" 
+					+ cbName + "\" could not evaluate parameter " + i + " due to: " + e.getMessage(), cbName, rawData.getGateRowBodyStart(), rawData.getGateRowBodyEnd(), rawData.getColumn());
+		}
+		return ms;
+	}
+	
+	private static boolean hasArgumentParameters(ExportNode n) {
+		if(n.rawData == null)
+			return false;
+		for(MathObject mo : n.rawData.getSolderedGate().getParameterSet().getMathDefinitions())
+			if(mo.hasArguments())
+				return true;
+		return false;
+	}
+	
+	private static MathSet bindParameters(ExportNode n, MathSet runtimeVariables) throws ExportException {
+		if(n.rawData == null)
+			return runtimeVariables;
+		return bindParameters(n.gm, n.rawData, runtimeVariables, null, n.parentLocationString);
 	}
 	
 	
@@ -705,12 +773,17 @@ public class GateManager {
 		final GateComputingType computingType;
 		final boolean placedOnPrimary;
 		final MathSet mathSet;
+		final GateModel gm;
+		final String parentLocationString;
 		
-		public ExportNode (GateComputingType computingType, boolean placedOnPrimary, MathSet mathScope, RawExportableGateData rawData) {
+		public ExportNode (GateComputingType computingType, boolean placedOnPrimary, MathSet mathScope, RawExportableGateData rawData,
+				GateModel gm, String parentLocationString) {
 			this.computingType = computingType;
 			this.placedOnPrimary = placedOnPrimary;
 			this.mathSet = mathScope;
 			this.rawData = rawData;
+			this.gm = gm;
+			this.parentLocationString = parentLocationString;
 		}
 		
 		public int getCallingColumn() {
@@ -733,8 +806,9 @@ public class GateManager {
 		
 		
 		public ExportTree(String name, GateComputingType computingType, boolean placedOnPrimary,
-				int numPrimaryRegs, int numSecondaryRegs, Queue<ExportNode> exportStates, MathSet mathSet, RawExportableGateData rawData) {
-			super(computingType, placedOnPrimary, mathSet, rawData);
+				int numPrimaryRegs, int numSecondaryRegs, Queue<ExportNode> exportStates, MathSet mathSet, RawExportableGateData rawData,
+				GateModel gm, String parentLocationString) {
+			super(computingType, placedOnPrimary, mathSet, rawData, gm, parentLocationString);
 			this.name = name;
 			this.numPrimaryRegs = numPrimaryRegs;
 			this.numSecondaryRegs = numSecondaryRegs;
@@ -754,13 +828,11 @@ public class GateManager {
 	
 	private static class ExportLeaf extends ExportNode {
 		final Hashtable<String, Complex> parameters;
-		final GateModel gm;
 		
 		private ExportLeaf(GateComputingType computingType, boolean placedOnPrimary, Hashtable<String, Complex> parameters, 
-				GateModel gm, MathSet mathSet, RawExportableGateData rawData) {
-			super(computingType, placedOnPrimary, mathSet, rawData);
+				GateModel gm, MathSet mathSet, RawExportableGateData rawData, String parentLocationString) {
+			super(computingType, placedOnPrimary, mathSet, rawData, gm, parentLocationString);
 			this.parameters = parameters;
-			this.gm = gm;
 		}
 		
 		@Override
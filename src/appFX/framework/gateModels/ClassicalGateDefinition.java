@@ -8,6 +8,7 @@ import language.compiler.LexicalAnalyzer.LexemeNotRecognizedException;
 import language.compiler.LexicalAnalyzer.LexicalAnaylizerIOException;
 import mathLib.equation.BooleanEquation;
 import mathLib.equation.BooleanEquation.InputBitIndexListener;
+import mathLib.equation.BooleanProgram;
 import mathLib.equation.BooleanEquationParser.BooleanEquationParseException;
 import utils.customCollections.Single;
 import utils.customCollections.immutableLists.ImmutableArray;
@@ -16,6 +17,8 @@ public class ClassicalGateDefinition extends GateDefinition implements Serializa
 	private static final long serialVersionUID = 1082500444022823298L;
 	
 	private ImmutableArray<BooleanEquation> definitions;
+	// compiled again from the definitions rather than saved with them
+	private transient BooleanProgram program;
 	
 	public ClassicalGateDefinition(String ... userStrings) {
 		this.userInput = new ImmutableArray<>(userStrings);
@@ -51,6 +54,7 @@ public class ClassicalGateDefinition extends GateDefinition implements Serializa
 		}
 		
 		this.definitions = new ImmutableArray<BooleanEquation>(definitions);
+		this.program = BooleanProgram.compile(this.definitions);
 		this.latex = new ImmutableArray<>(latexStrings);
 		this.numberOfRegisters = largestInput.first();
 	}
@@ -58,4 +62,14 @@ public class ClassicalGateDefinition extends GateDefinition implements Serializa
 	public ImmutableArray<BooleanEquation> getDefinitions() {
 		return definitions;
 	}
+	
+	/**
+	 * @return the definitions compiled into one program, which is how classical states apply this gate
+	 */
+	public BooleanProgram getProgram() {
+		// the program is not saved, so definitions read back from a file are compiled when they are first run
+		if (program == null)
+			program = BooleanProgram.compile(definitions);
+		return program;
+	}
 }
@@ -0,0 +1,253 @@
+package appFX.framework.simulator;
+
+import appFX.framework.Project;
+import appFX.framework.exportGates.Control;
+import appFX.framework.exportGates.GateManager.ExportException;
+import mathLib.expression.Expression.EvaluateExpressionException;
+
+/**
+ * Computes the gradient of the expectation of an {@link Observable} with respect to every parameter of the top level
+ * circuit of a project, in one forward and one backward pass over the state vector. <br>
+ * The forward pass runs the project. The backward pass undoes one gate at a time on the final state and on the
+ * observable applied to it, and takes the part of the gradient that comes from each gate out of one sum over the
+ * blocks of amplitudes the gate acts on, see {@link GateKernel#crossDensity(Amplitudes, Amplitudes)}, so the cost
+ * does not grow with the number of parameters. <br>
+ * The derivative of a gate's matrix is taken from its matrix evaluated at nearby values of each parameter, which
+ * needs no pass over the state. A gate whose matrix cannot be evaluated at those values has no derivative, and the
+ * gradient throws. <br>
+ * Projects whose state is not a product of unitary gates, such as ones with measurements or classical controls,
+ * fall back on the same five point stencil taken on the expectation, which runs the project four times for each
+ * parameter with every gate bound at the shifted point. Unlike the parameter shift rule, the stencil does not depend
+ * on how a gate's angle scales with the parameter. <br>
+ * Every run of one gradient draws its measurement outcomes from the same seed, so with measurements present the
+ * derivative is taken on that one trajectory of the project rather than on the expectation over all of its outcomes.
+ *
+ * @author quantumresearch
+ *
+ */
+public class AdjointGradient {
+	// the step of the five point stencil the derivatives of gate matrices and of fallback expectations are taken with
+	private static final double STEP = 1e-3;
+	private static final double[] STENCIL_OFFSETS = {-2, -1, 1, 2};
+	private static final double[] STENCIL_WEIGHTS = {1, -8, 8, -1};
+	
+	private final Project p;
+	private final Observable observable;
+	private final SimulatorSettings settings;
+	private final String[] parameterNames;
+	private ExecutionPlan plan = null;
+	private double value = Double.NaN;
+	private boolean adjoint = false;
+	
+	public AdjointGradient(Project p, Observable observable) {
+		this(p, observable, new SimulatorSettings());
+	}
+	
+	public AdjointGradient(Project p, Observable observable, SimulatorSettings settings) {
+		this.p = p;
+		this.observable = observable;
+		this.settings = settings;
+		this.parameterNames = ParameterSweep.parametersOf(p);
+	}
+	
+	/**
+	 * @return the parameters of the top level circuit, in the order the gradient is given in
+	 */
+	public String[] getParameters() {
+		return parameterNames.clone();
+	}
+	
+	/**
+	 * @param point the value of each parameter, as a real number
+	 * @return the derivative of the expectation with respect to each parameter
+	 * @throws ExportException
+	 */
+	public synchronized double[] gradient(double ... point) throws ExportException {
+		// the project is compiled once and bound again for every later point
+		ExecutionPlan bound;
+		if (plan == null)
+			bound = plan = ExecutionPlan.compile(p, ParameterSweep.bindPoint(parameterNames, point));
+		else
+			bound = plan.bind(ParameterSweep.bindPoint(parameterNames, point));
+		
+		SimulatorSettings resolved = settings.copy();
+		resolved.setBackend(SimulatorSettings.Backend.STATE_VECTOR);
+		// every run of a gradient draws the same measurement outcomes
+		resolved.setSeed(settings.newRandom().nextLong());
+		GateMatrixCache matrixCache = new GateMatrixCache(settings.getMatrixCacheSize());
+		adjoint = bound.isUnitary();
+		if (adjoint)
+			return adjointGradient(bound, point, resolved, matrixCache);
+		
+		value = expectation(bound, resolved, matrixCache);
+		double[] gradient = new double[point.length];
+		for (int k = 0; k < point.length; k++) {
+			int parameter = k;
+			gradient[k] = fivePointStencil(offset -> expectation(plan.bind(ParameterSweep.bindPoint(parameterNames, shift(point, parameter, offset))),
+					resolved, matrixCache));
+		}
+		return gradient;
+	}
+	
+	/**
+	 * @return the expectation at the point of the last gradient
+	 */
+	public double getValue() {
+		return value;
+	}
+	
+	/**
+	 * @return whether the last gradient was taken with the backward pass rather than with finite differences of the
+	 * expectation
+	 */
+	public boolean isAdjoint() {
+		return adjoint;
+	}
+	
+	private double[] adjointGradient(ExecutionPlan bound, double[] point, SimulatorSettings resolved, GateMatrixCache matrixCache)
+			throws ExportException {
+		int[] gates = bound.getQuantumGates();
+		// the derivative of the matrix of each gate with respect to each parameter, null where it is zero
+		double[][][][] derivatives = new double[bound.getNumGates()][][][];
+		for (int k = 0; k < point.length; k++)
+			differentiate(bound, point, k, derivatives);
+		
+		QuantumState qs = (QuantumState) bound.run(resolved, false, matrixCache)[0];
+		StateMatrix psi = qs.getStateMatrix();
+		StateMatrix lambda = observable.apply(psi);
+		value = psi.observableProbability(lambda);
+		
+		int numQubits = psi.getNumQubits();
+		GateKernel[] inverses = new GateKernel[gates.length];
+		double[][][][] gateDerivatives = new double[gates.length][][][];
+		for (int i = 0; i < gates.length; i++) {
+			int gate = gates[i];
+			GateMatrixCache.Entry entry = evaluate(matrixCache, bound, gate);
+			int[] targets = bound.getIndexMap(gate).toArray();
+			int dim = 1 << targets.length;
+			inverses[i] = GateKernel.compile(adjointOf(entry.getReal(0), dim), adjointOf(entry.getImag(0), dim, true), targets, bound.getControls(gate), numQubits);
+			gateDerivatives[i] = derivatives[gate];
+		}
+		return backwardPass(psi, lambda, inverses, gateDerivatives, point.length);
+	}
+	
+	/**
+	 * Undoes the gates of a circuit one at a time on its final state and on the observable applied to that state,
+	 * summing the part of the gradient that comes from each gate.
+	 * @param psi the final state, which is left as the initial state
+	 * @param lambda the observable applied to the final state
+	 * @param inverses the inverse of each gate, in the order the circuit applies them
+	 * @param derivatives the derivative of the matrix of each gate with respect to each parameter, as its row major
+	 * real and imaginary components, null where it is zero
+	 * @param numParameters
+	 * @return the derivative of &lt;psi|O|psi&gt; with respect to each parameter
+	 */
+	static double[] backwardPass(StateMatrix psi, StateMatrix lambda, GateKernel[] inverses, double[][][][] derivatives, int numParameters) {
+		double[] gradient = new double[numParameters];
+		for (int i = inverses.length - 1; i >= 0; i--) {
+			psi.apply(inverses[i]);
+			if (derivatives[i] != null) {
+				double[] density = psi.crossDensity(inverses[i], lambda);
+				for (int k = 0; k < numParameters; k++) {
+					double[][] derivative = derivatives[i][k];
+					if (derivative != null)
+						gradient[k] += 2 * QuantumState.povmProbability(derivative[0], derivative[1], density, inverses[i].getDimension());
+				}
+			}
+			lambda.apply(inverses[i]);
+		}
+		return gradient;
+	}
+	
+	/**
+	 * @param f a function of the offset from a point, which it is differentiated at
+	 * @return the derivative of the function at no offset, from its values at two steps either side
+	 * @throws ExportException
+	 */
+	static double fivePointStencil(StencilFunction f) throws ExportException {
+		double derivative = 0;
+		for (int j = 0; j < STENCIL_OFFSETS.length; j++)
+			derivative += STENCIL_WEIGHTS[j] / (12 * STEP) * f.at(STENCIL_OFFSETS[j] * STEP);
+		return derivative;
+	}
+	
+	// adds the derivative of every bound gate with respect to one parameter
+	private void differentiate(ExecutionPlan bound, double[] point, int k, double[][][][] derivatives) throws ExportException {
+		// the matrices at the stencil are only needed once, so they are not kept
+		GateMatrixCache noCache = new GateMatrixCache(0);
+		ExecutionPlan[] stencil = new ExecutionPlan[STENCIL_OFFSETS.length];
+		for (int j = 0; j < stencil.length; j++)
+			stencil[j] = plan.bind(ParameterSweep.bindPoint(parameterNames, shift(point, k, STENCIL_OFFSETS[j] * STEP)));
+		
+		for (int gate = 0; gate < bound.getNumGates(); gate++) {
+			if (!bound.isBound(gate) || bound.getControls(gate) == null)
+				continue;
+			double[] real = null;
+			double[] imag = null;
+			try {
+				for (int j = 0; j < stencil.length; j++) {
+					GateMatrixCache.Entry entry = noCache.get(stencil[j].getGateModel(gate), stencil[j].getMathSet(gate));
+					if (real == null) {
+						real = new double[entry.getReal(0).length];
+						imag = new double[real.length];
+					}
+					double weight = STENCIL_WEIGHTS[j] / (12 * STEP);
+					for (int e = 0; e < real.length; e++) {
+						real[e] += weight * entry.getReal(0)[e];
+						imag[e] += weight * entry.getImag(0)[e];
+					}
+				}
+			} catch (EvaluateExpressionException | RuntimeException e) {
+				throw new UnsupportedOperationException("Gate " + gate + " cannot be evaluated near the point, so it has no derivative: " + e.getMessage());
+			}
+			if (isZero(real) && isZero(imag))
+				continue;
+			if (derivatives[gate] == null)
+				derivatives[gate] = new double[point.length][][];
+			derivatives[gate][k] = new double[][] {real, imag};
+		}
+	}
+	
+	private double expectation(ExecutionPlan bound, SimulatorSettings resolved, GateMatrixCache matrixCache) {
+		QuantumState qs = (QuantumState) bound.run(resolved, false, matrixCache)[0];
+		return observable.expectation(qs.getStateMatrix());
+	}
+	
+	private static GateMatrixCache.Entry evaluate(GateMatrixCache matrixCache, ExecutionPlan bound, int gate) {
+		try {
+			return matrixCache.get(bound.getGateModel(gate), bound.getMathSet(gate));
+		} catch (EvaluateExpressionException e) {
+			throw new RuntimeException(e.getMessage());
+		}
+	}
+	
+	private static double[] adjointOf(double[] matrix, int dim) {
+		return adjointOf(matrix, dim, false);
+	}
+	
+	// the transpose of a row major matrix, negated for the imaginary components
+	private static double[] adjointOf(double[] matrix, int dim, boolean negate) {
+		double[] adjoint = new double[matrix.length];
+		for (int r = 0; r < dim; r++)
+			for (int c = 0; c < dim; c++)
+				adjoint[c * dim + r] = negate ? -matrix[r * dim + c] : matrix[r * dim + c];
+		return adjoint;
+	}
+	
+	private static boolean isZero(double[] values) {
+		for (double v : values)
+			if (v != 0)
+				return false;
+		return true;
+	}
+	
+	private static double[] shift(double[] point, int k, double by) {
+		double[] shifted = point.clone();
+		shifted[k] += by;
+		return shifted;
+	}
+	
+	static interface StencilFunction {
+		public double at(double offset) throws ExportException;
+	}
+}
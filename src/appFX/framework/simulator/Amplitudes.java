@@ -0,0 +1,51 @@
+package appFX.framework.simulator;
+
+/**
+ * Storage for the complex amplitudes of a state vector, addressed by <code>long</code> indices. <br>
+ * Implementations decide where the amplitudes live; the kernels in {@link GateKernel} only read and
+ * write single amplitudes through this class.
+ *
+ * @author quantumresearch
+ *
+ */
+public abstract class Amplitudes {
+	/**
+	 * Largest register that can be held in primitive arrays on the heap.
+	 */
+	public static final int MAX_HEAP_QUBITS = 30;
+	
+	private final long length;
+	
+	protected Amplitudes(long length) {
+		this.length = length;
+	}
+	
+	/**
+	 * Allocates zeroed storage for a register in the precision chosen by the settings, on the heap when
+	 * it fits in an array and off-heap otherwise.
+	 * @param numQubits
+	 * @param settings
+	 * @return
+	 */
+	public static Amplitudes allocate(int numQubits, SimulatorSettings settings) {
+		if (numQubits > 62)
+			throw new IllegalArgumentException("Cannot index " + numQubits + " qubits");
+		long length = 1L << numQubits;
+		boolean single = settings.getPrecision() == SimulatorSettings.Precision.SINGLE;
+		if (settings.isOffHeap() || numQubits > MAX_HEAP_QUBITS)
+			return single ? new OffHeapFloatAmplitudes(length) : new OffHeapAmplitudes(length);
+		return single ? new HeapFloatAmplitudes((int) length) : new HeapAmplitudes((int) length);
+	}
+	
+	public long length() {
+		return length;
+	}
+	
+	public abstract double getReal(long index);
+	
+	public abstract double getImag(long index);
+	
+	public abstract void set(long index, double real, double imag);
+	
+	public abstract Amplitudes copy();
+}
@@ -0,0 +1,95 @@
+package appFX.framework.simulator;
+
+import appFX.framework.gateModels.BasicGateModel;
+import appFX.framework.gateModels.ClassicalGateDefinition;
+import appFX.framework.gateModels.GateModel;
+import mathLib.equation.BooleanProgram;
+import mathLib.expression.MathSet;
+import utils.customMaps.IntIndexMap;
+
+/**
+ * 64 independent values of a classical register, held bit-sliced: the word of bit <code>i</code> holds that bit
+ * for every lane, with lane <code>j</code> at bit <code>j</code> of the word. A classical gate is computed on every
+ * lane at once by its {@link BooleanProgram}. <br>
+ * Gates only write the lanes in {@link #getActiveLanes()}, which is how classical controls that hold in some lanes
+ * and not in others are applied.
+ *
+ * @author quantumresearch
+ *
+ */
+public class BitSlicedClassicalState implements State {
+	public static final int LANES = 64;
+	public static final long ALL_LANES = -1L;
+	
+	private final long[] lanes;
+	private long activeLanes = ALL_LANES;
+	
+	public BitSlicedClassicalState(int numBits) {
+		this.lanes = new long[numBits];
+	}
+	
+	@Override
+	public int apply(GateModel gm, MathSet mathSet, IntIndexMap map, Object ... args) {
+		BasicGateModel bgm = (BasicGateModel) gm;
+		ClassicalGateDefinition cgd = bgm.getClassicalGateDefinition();
+		cgd.getProgram().run(this::get, this::write, map);
+		return 0;
+	}
+	
+	@Override
+	public int size() {
+		return lanes.length;
+	}
+	
+	/**
+	 * @param bit
+	 * @return the value of a bit in every lane
+	 */
+	public long get(int bit) {
+		return lanes[bit];
+	}
+	
+	public boolean get(int bit, int lane) {
+		return (lanes[bit] & (1L << lane)) != 0;
+	}
+	
+	/**
+	 * Sets a bit in every lane, whether or not the lane is active.
+	 * @param bit
+	 * @param values
+	 */
+	public void set(int bit, long values) {
+		lanes[bit] = values;
+	}
+	
+	public long getActiveLanes() {
+		return activeLanes;
+	}
+	
+	public void setActiveLanes(long activeLanes) {
+		this.activeLanes = activeLanes;
+	}
+	
+	/**
+	 * @param lane
+	 * @return the value of the register in one lane, with bit 0 first as in {@link ClassicalState#bitString()}
+	 */
+	public String bitString(int lane) {
+		char[] comps = new char[lanes.length];
+		for (int i = 0; i < lanes.length; i++)
+			comps[i] = get(i, lane) ? '1' : '0';
+		return new String(comps);
+	}
+	
+	private void write(int bit, long values) {
+		lanes[bit] = (lanes[bit] & ~activeLanes) | (values & activeLanes);
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("[Bit Sliced] :");
+		for (int lane = 0; lane < LANES; lane++)
+			sb.append('\n').append(bitString(lane));
+		return sb.toString();
+	}
+}
@@ -0,0 +1,242 @@
+package appFX.framework.simulator;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+
+import appFX.framework.Project;
+import appFX.framework.exportGates.GateManager.ExportException;
+import appFX.framework.gateModels.CircuitBoardModel;
+import utils.Notifier.ReceivedEvent;
+
+/**
+ * Simulates a project again after an edit without starting over from its first column. <br>
+ * While the project runs, a copy of its states is kept every {@link #getCheckpointInterval()} columns of the top
+ * level circuit. This simulator receives the change events of the project, see {@link utils.Notifier}: an edit at a
+ * column of the top level circuit drops the checkpoints after that column, so the next run continues from the
+ * latest checkpoint before it. Any other change, such as an undo or an edit of a sub-circuit, drops every checkpoint.
+ * <br>
+ * Checkpoints are only kept up to the first measurement, channel or classically controlled gate of the top level
+ * circuit. The states after it depend on outcomes that every run has to draw again, so the rest of the project
+ * is always run. <br>
+ * Checkpoints are kept within a memory budget by dropping the least recently used one first. Only state vectors and
+ * classical registers are copied, so projects simulated on another backend start over on every run.
+ *
+ * @author quantumresearch
+ *
+ */
+public class CheckpointedSimulator implements ReceivedEvent {
+	public static final int DEFAULT_CHECKPOINT_INTERVAL = 8;
+	public static final long DEFAULT_MEMORY_BUDGET = 256L << 20;
+	
+	private final Project p;
+	private final SimulatorSettings settings;
+	private GateMatrixCache matrixCache;
+	// the states before the first gate at or after each column, least recently used first
+	private final LinkedHashMap<Integer, Checkpoint> checkpoints = new LinkedHashMap<>(16, 0.75f, true);
+	private SimulatorSettings.Backend checkpointBackend = null;
+	private int checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+	private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+	private long memoryUsed = 0;
+	private int resumedColumn = 0;
+	
+	public CheckpointedSimulator(Project p) {
+		this(p, new SimulatorSettings());
+	}
+	
+	public CheckpointedSimulator(Project p, SimulatorSettings settings) {
+		this.p = p;
+		this.settings = settings;
+		this.matrixCache = new GateMatrixCache(settings.getMatrixCacheSize());
+	}
+	
+	/**
+	 * Runs the project from the latest checkpoint that is still valid.
+	 * @return the states as {@link Simulator#simulate(Project, SimulatorSettings)} returns them
+	 * @throws ExportException
+	 */
+	public synchronized State[] simulate() throws ExportException {
+		ExecutionPlan plan = ExecutionPlan.compile(p);
+		SimulatorSettings.Backend backend = plan.resolveBackend(settings);
+		if (backend != checkpointBackend) {
+			clearCheckpoints();
+			checkpointBackend = backend;
+		}
+		SimulatorSettings resolved = settings.copy();
+		resolved.setBackend(backend);
+		
+		// checkpoints after this column would hold measurement outcomes
+		int firstNonUnitary = plan.getFirstNonUnitaryEntry();
+		int lastColumn = firstNonUnitary < plan.getNumEntries() ? plan.getEntryColumn(firstNonUnitary) : Integer.MAX_VALUE;
+		
+		ExecutionPlan.Run run = null;
+		int entry = 0;
+		int latestColumn = latestCheckpointColumn(lastColumn);
+		if (latestColumn > 0) {
+			while (entry < plan.getNumEntries() && plan.getEntryColumn(entry) < latestColumn)
+				entry++;
+			run = plan.resume(checkpoints.get(latestColumn).run, plan.getEntryStart(entry));
+		}
+		if (run == null) {
+			entry = 0;
+			latestColumn = 0;
+			run = plan.start(resolved, false, matrixCache);
+		}
+		resumedColumn = latestColumn;
+		
+		int previousColumn = latestColumn - 1;
+		for (; entry < plan.getNumEntries(); entry++) {
+			int column = plan.getEntryColumn(entry);
+			int boundary = column - column % checkpointInterval;
+			if (entry <= firstNonUnitary && boundary > previousColumn && boundary > 0 && !checkpoints.containsKey(boundary))
+				addCheckpoint(boundary, plan, run);
+			run.runTo(plan.getEntryStart(entry + 1));
+			previousColumn = column;
+		}
+		return run.getStates();
+	}
+	
+	@Override
+	public synchronized void receive(Object source, String methodName, Object... args) {
+		if (source instanceof CircuitBoardModel
+				&& ((CircuitBoardModel) source).getLocationString().equals(p.getTopLevelCircuitLocationString())) {
+			int column = editedColumn(methodName, args);
+			if (column >= 0) {
+				dropCheckpointsAfter(column);
+				return;
+			}
+		}
+		clearCheckpoints();
+		matrixCache = new GateMatrixCache(settings.getMatrixCacheSize());
+	}
+	
+	/**
+	 * @return the column the last run continued from, or 0 if it started over
+	 */
+	public int getResumedColumn() {
+		return resumedColumn;
+	}
+	
+	public synchronized int getNumCheckpoints() {
+		return checkpoints.size();
+	}
+	
+	/**
+	 * @return the bytes held by checkpoints, as estimated from the size of their states
+	 */
+	public synchronized long getMemoryUsed() {
+		return memoryUsed;
+	}
+	
+	public int getCheckpointInterval() {
+		return checkpointInterval;
+	}
+	
+	/**
+	 * @param checkpointInterval the number of columns between checkpoints
+	 */
+	public synchronized void setCheckpointInterval(int checkpointInterval) {
+		if (checkpointInterval < 1)
+			throw new IllegalArgumentException("Checkpoint interval must be at least 1");
+		this.checkpointInterval = checkpointInterval;
+		clearCheckpoints();
+	}
+	
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+	
+	/**
+	 * @param memoryBudget the bytes checkpoints may hold before the least recently used ones are dropped
+	 */
+	public synchronized void setMemoryBudget(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+		evict();
+	}
+	
+	public synchronized void clearCheckpoints() {
+		checkpoints.clear();
+		memoryUsed = 0;
+	}
+	
+	private void addCheckpoint(int column, ExecutionPlan plan, ExecutionPlan.Run run) {
+		long bytes = bytesOf(run.getStates());
+		if (bytes > memoryBudget)
+			return;
+		ExecutionPlan.Run copy = plan.resume(run, run.getPc());
+		if (copy == null)
+			return;
+		checkpoints.put(column, new Checkpoint(copy, bytes));
+		memoryUsed += bytes;
+		evict();
+	}
+	
+	private void dropCheckpointsAfter(int column) {
+		Iterator<Entry<Integer, Checkpoint>> entries = checkpoints.entrySet().iterator();
+		while (entries.hasNext()) {
+			Entry<Integer, Checkpoint> entry = entries.next();
+			if (entry.getKey() > column) {
+				memoryUsed -= entry.getValue().bytes;
+				entries.remove();
+			}
+		}
+	}
+	
+	private void evict() {
+		Iterator<Checkpoint> leastRecent = checkpoints.values().iterator();
+		while (memoryUsed > memoryBudget && leastRecent.hasNext()) {
+			memoryUsed -= leastRecent.next().bytes;
+			leastRecent.remove();
+		}
+	}
+	
+	private int latestCheckpointColumn(int lastColumn) {
+		int latest = 0;
+		for (int column : checkpoints.keySet())
+			if (column <= lastColumn)
+				latest = Math.max(latest, column);
+		return latest;
+	}
+	
+	private long bytesOf(State[] states) {
+		long bytes = 0;
+		for (State state : states) {
+			if (state instanceof QuantumState)
+				bytes += (1L << state.size()) * (settings.getPrecision() == SimulatorSettings.Precision.SINGLE ? 8 : 16);
+			else
+				bytes += (state.size() + 7) / 8;
+		}
+		return bytes;
+	}
+	
+	// the first column an edit of a circuit board changes, or -1 if it is not known
+	private static int editedColumn(String methodName, Object[] args) {
+		switch (methodName) {
+		case "removeColumns":
+		case "addColumns":
+			return (int) args[0];
+		case "placeGate":
+		case "removeGate":
+		case "removeControl":
+		case "removeLink":
+		case "removeLinksAndControls":
+			return (int) args[1];
+		case "placeControl":
+		case "placeInputLink":
+		case "placeOutputLink":
+			return (int) args[2];
+		default:
+			return -1;
+		}
+	}
+	
+	private static class Checkpoint {
+		private final ExecutionPlan.Run run;
+		private final long bytes;
+		
+		private Checkpoint(ExecutionPlan.Run run, long bytes) {
+			this.run = run;
+			this.bytes = bytes;
+		}
+	}
+}
@@ -1,48 +1,80 @@
 package appFX.framework.simulator;
 
+import java.util.Arrays;
+
 import appFX.framework.gateModels.BasicGateModel;
 import appFX.framework.gateModels.ClassicalGateDefinition;
 import appFX.framework.gateModels.GateModel;
-import mathLib.equation.BooleanEquation;
 import mathLib.expression.MathSet;
 import utils.customCollections.Range;
-import utils.customCollections.immutableLists.ImmutableArray;
-import utils.customMaps.IndexMap;
+import utils.customMaps.IntIndexMap;
 
 public class ClassicalState implements State {
-	private final byte[] bytes;
+	static final int NO_SOURCE = -1;
+	
+	// bit i is bit (i % 64) of word (i / 64)
+	private final long[] words;
 	private final int numBits;
+	private final int[] sources;
 	
 	public ClassicalState(int numBits) {
-		int numBytes = (int) Math.ceil(numBits / 8.0);
-		this.bytes = new byte[numBytes];
+		this(numBits, false);
+	}
+	
+	/**
+	 * @param numBits
+	 * @param traced whether each bit remembers the deferred measurement outcome it holds, see {@link ShotSampler}
+	 */
+	ClassicalState(int numBits, boolean traced) {
+		this.words = new long[(numBits + 63) >>> 6];
 		this.numBits = numBits;
+		if (traced) {
+			this.sources = new int[numBits];
+			Arrays.fill(sources, NO_SOURCE);
+		} else {
+			this.sources = null;
+		}
+	}
+	
+	private ClassicalState(ClassicalState state) {
+		this.words = state.words.clone();
+		this.numBits = state.numBits;
+		this.sources = state.sources == null ? null : state.sources.clone();
 	}
 	
 	@Override
-	public int apply(GateModel gm, MathSet mathSet, IndexMap map, Object ... args) {
+	public int apply(GateModel gm, MathSet mathSet, IntIndexMap map, Object ... args) {
 		BasicGateModel bgm = (BasicGateModel) gm;
 		ClassicalGateDefinition cgd = bgm.getClassicalGateDefinition();
-		ImmutableArray<BooleanEquation> eqs = cgd.getDefinitions();
-		for (BooleanEquation eq : eqs)
-			eq.compute(this::get, this::set, map);
+		cgd.getProgram().run(this::getLanes, this::setLanes, map);
 		return 0;
 	}
 	
+	// a single input of a BooleanProgram, held in lane 0
+	private long getLanes(int bit) {
+		return get(bit) ? -1L : 0;
+	}
+	
+	private void setLanes(int bit, long lanes) {
+		set(bit, (lanes & 1) != 0);
+	}
+	
 	@Override
 	public int size() {
 		return numBits;
 	}
 	
 	public boolean get(int bit) {
-		if ( bit < 0 || bit > numBits )
+		if (sources != null && sources[bit] != NO_SOURCE)
+			throw new ShotSampler.NotTerminalException("Bit " + bit + " holds a deferred measurement outcome");
+		return read(bit);
+	}
+	
+	private boolean read(int bit) {
+		if ( bit < 0 || bit >= numBits )
 			throw new IndexOutOfBoundsException(bit);
 		
-		int byteOffset = (int) Math.floor(bit / 8.0);
-		int bitOffset = bit % 8;
-		int bitMask = 1 << bitOffset;
-		
-		return (bytes[byteOffset] & bitMask) != 0;
+		return (words[bit >>> 6] & (1L << bit)) != 0;
 	}
 	
 	public void set(int bit, int value) {
@@ -50,24 +82,59 @@ public class ClassicalState implements State {
 	}
 	
 	public void set(int bit, boolean value) {
-		if ( bit < 0 || bit > numBits )
+		if ( bit < 0 || bit >= numBits )
 			throw new IndexOutOfBoundsException(bit);
 		
-		int byteOffset = (int) Math.floor(bit / 8.0);
-		int bitOffset = bit % 8;
-		int bitMask = 1 << bitOffset;
-		
 		if (value)
-			bytes[byteOffset] |= (byte) bitMask;
+			words[bit >>> 6] |= 1L << bit;
 		else
-			bytes[byteOffset] &= (byte) ~bitMask;
+			words[bit >>> 6] &= ~(1L << bit);
+		
+		if (sources != null)
+			sources[bit] = NO_SOURCE;
 	}
 	
-	@Override
-	public String toString() {
+	/**
+	 * Copies a bit of another state into this one, along with the deferred outcome it holds if both states are traced.
+	 * @param bit
+	 * @param from
+	 * @param fromBit
+	 */
+	void link(int bit, ClassicalState from, int fromBit) {
+		set(bit, from.read(fromBit));
+		if (sources != null && from.sources != null)
+			sources[bit] = from.sources[fromBit];
+	}
+	
+	void setSource(int bit, int source) {
+		set(bit, false);
+		sources[bit] = source;
+	}
+	
+	int getSource(int bit) {
+		return sources == null ? NO_SOURCE : sources[bit];
+	}
+	
+	boolean isTraced() {
+		return sources != null;
+	}
+	
+	ClassicalState copy() {
+		return new ClassicalState(this);
+	}
+	
+	/**
+	 * @return the bits of this state, with bit 0 first
+	 */
+	public String bitString() {
 		char[] comps = new char[numBits];
 		for (int i : Range.mk(numBits-1, -1, -1))
-			comps[i] = get(i) ? '1' : '0';
-		return "[Classical] : \n" + new String(comps);
+			comps[i] = read(i) ? '1' : '0';
+		return new String(comps);
+	}
+	
+	@Override
+	public String toString() {
+		return "[Classical] : \n" + bitString();
 	}
 }
@@ -0,0 +1,251 @@
+package appFX.framework.simulator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.SplittableRandom;
+
+import appFX.framework.exportGates.Control;
+import appFX.framework.gateModels.GateModel;
+import mathLib.expression.MathSet;
+import utils.customMaps.IntIndexMap;
+
+/**
+ * A pure state held as a tensor product of clusters of qubits, each with a state vector of its own. <br>
+ * Every qubit starts in a cluster of its own. A gate is applied to the cluster holding its targets and quantum
+ * controls, and when those are in more than one cluster the clusters are first merged into the tensor product of
+ * their states. Registers that never interact therefore never share a state vector, so memory grows with the
+ * largest cluster rather than with the whole register. <br>
+ * Clusters are not split again after a measurement, even if it leaves them in a product state.
+ *
+ * @author quantumresearch
+ *
+ */
+public class ClusteredState implements State {
+	private final int numQubits;
+	private final SimulatorSettings settings;
+	private final GateMatrixCache matrixCache;
+	private final SplittableRandom random;
+	// the cluster of each register and the local register it is in that cluster
+	private final Cluster[] clusterOf;
+	private final int[] localOf;
+	
+	public ClusteredState(int numQubits) {
+		this(numQubits, new SimulatorSettings());
+	}
+	
+	public ClusteredState(int numQubits, SimulatorSettings settings) {
+		this(numQubits, settings, new GateMatrixCache(settings.getMatrixCacheSize()));
+	}
+	
+	ClusteredState(int numQubits, SimulatorSettings settings, GateMatrixCache matrixCache) {
+		this.numQubits = numQubits;
+		this.settings = settings;
+		this.matrixCache = matrixCache;
+		this.random = settings.newRandom();
+		this.clusterOf = new Cluster[numQubits];
+		this.localOf = new int[numQubits];
+		for (int reg = 0; reg < numQubits; reg++)
+			new Cluster(new QuantumState(1, seeded(), matrixCache), new int[] {reg});
+	}
+	
+	@Override
+	public int apply(GateModel gm, MathSet mathSet, IntIndexMap map, Object ... args) {
+		Control[] qcs = (Control[]) args[0];
+		int[] targets = map.toArray();
+		Cluster cluster = merge(targets, qcs);
+		return cluster.qs.apply(gm, mathSet, new IntIndexMap(localTargets(targets)), (Object) localControls(qcs));
+	}
+	
+	/**
+	 * @param realMatrix row major real components of the gate
+	 * @param imagMatrix row major imaginary components of the gate
+	 * @param targets
+	 * @param qcs
+	 */
+	public void applyUnitary(double[] realMatrix, double[] imagMatrix, int[] targets, Control[] qcs) {
+		Cluster cluster = merge(targets, qcs);
+		cluster.qs.getStateMatrix().apply(GateKernel.compile(realMatrix, imagMatrix, localTargets(targets), localControls(qcs), cluster.registers.length));
+	}
+	
+	/**
+	 * @return the number of clusters the register is split into
+	 */
+	public int getNumClusters() {
+		return clusters().size();
+	}
+	
+	/**
+	 * @return the number of qubits of the largest cluster
+	 */
+	public int getLargestClusterSize() {
+		int largest = 0;
+		for (Cluster cluster : clusters())
+			largest = Math.max(largest, cluster.registers.length);
+		return largest;
+	}
+	
+	/**
+	 * @param register
+	 * @return the registers of the cluster a register is in, in the order of the registers of its state
+	 */
+	public int[] getClusterRegisters(int register) {
+		return clusterOf[register].registers.clone();
+	}
+	
+	/**
+	 * @param register
+	 * @return the state of the cluster a register is in, see {@link #getClusterRegisters(int)}
+	 */
+	public QuantumState getClusterState(int register) {
+		return clusterOf[register].qs;
+	}
+	
+	/**
+	 * @param basisState an index of an amplitude, see {@link StateMatrix}
+	 * @return the real and imaginary components of the amplitude, the product of the amplitudes of every cluster
+	 */
+	public double[] getAmplitude(long basisState) {
+		if (numQubits > 62)
+			throw new IllegalArgumentException("Cannot index " + numQubits + " qubits");
+		double real = 1;
+		double imag = 0;
+		for (Cluster cluster : clusters()) {
+			long local = 0;
+			for (int reg : cluster.registers)
+				local = (local << 1) | ((basisState >>> (numQubits - 1 - reg)) & 1);
+			Amplitudes amplitudes = cluster.qs.getStateMatrix().getAmplitudes();
+			double clusterReal = amplitudes.getReal(local);
+			double clusterImag = amplitudes.getImag(local);
+			double r = real * clusterReal - imag * clusterImag;
+			imag = real * clusterImag + imag * clusterReal;
+			real = r;
+		}
+		return new double[] {real, imag};
+	}
+	
+	/**
+	 * @param basisState
+	 * @return the probability of measuring the register in a computational basis state
+	 */
+	public double probability(long basisState) {
+		double[] amplitude = getAmplitude(basisState);
+		return amplitude[0] * amplitude[0] + amplitude[1] * amplitude[1];
+	}
+	
+	/**
+	 * Merges every cluster into one state vector over the whole register.
+	 * @return the state, whose registers are in the order of the register of this state
+	 */
+	public QuantumState toQuantumState() {
+		Control[] none = new Control[0];
+		int[] all = new int[numQubits];
+		for (int reg = 0; reg < numQubits; reg++)
+			all[reg] = reg;
+		Cluster cluster = merge(all, none);
+		
+		// the merged cluster holds the registers in the order they were merged in, so they are swapped into place
+		QuantumState qs = cluster.qs;
+		int[] order = cluster.registers.clone();
+		double[] swap = {1, 0, 0, 0, 0, 0, 1, 0, 0, 1, 0, 0, 0, 0, 0, 1};
+		double[] zero = new double[16];
+		for (int local = 0; local < numQubits; local++) {
+			int at = local;
+			while (order[at] != local)
+				at++;
+			if (at == local)
+				continue;
+			qs.getStateMatrix().apply(GateKernel.compile(swap, zero, new int[] {local, at}, none, numQubits));
+			order[at] = order[local];
+			order[local] = local;
+		}
+		cluster.registers = order;
+		for (int reg = 0; reg < numQubits; reg++)
+			localOf[reg] = reg;
+		return qs;
+	}
+	
+	@Override
+	public int size() {
+		return numQubits;
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("[Clustered] : ");
+		ArrayList<Cluster> clusters = clusters();
+		sb.append(clusters.size()).append(" clusters");
+		for (Cluster cluster : clusters) {
+			sb.append("\n").append(Arrays.toString(cluster.registers)).append(" : ");
+			sb.append(cluster.qs.getStateMatrix().toString());
+		}
+		return sb.toString();
+	}
+	
+	// merges the clusters of the targets and controls of a gate into one and returns it
+	private Cluster merge(int[] targets, Control[] qcs) {
+		Cluster merged = clusterOf[targets[0]];
+		for (int reg : targets)
+			merged = merge(merged, clusterOf[reg]);
+		for (Control c : qcs)
+			merged = merge(merged, clusterOf[c.getRegister()]);
+		return merged;
+	}
+	
+	private Cluster merge(Cluster first, Cluster second) {
+		if (first == second)
+			return first;
+		int[] registers = new int[first.registers.length + second.registers.length];
+		System.arraycopy(first.registers, 0, registers, 0, first.registers.length);
+		System.arraycopy(second.registers, 0, registers, first.registers.length, second.registers.length);
+		return new Cluster(first.qs.tensor(second.qs), registers);
+	}
+	
+	// the registers of the targets in the cluster they were merged into
+	private int[] localTargets(int[] targets) {
+		int[] localTargets = new int[targets.length];
+		for (int i = 0; i < targets.length; i++)
+			localTargets[i] = localOf[targets[i]];
+		return localTargets;
+	}
+	
+	private Control[] localControls(Control[] qcs) {
+		Control[] localControls = new Control[qcs.length];
+		for (int i = 0; i < qcs.length; i++)
+			localControls[i] = new Control(localOf[qcs[i].getRegister()], qcs[i].getControlStatus());
+		return localControls;
+	}
+	
+	private ArrayList<Cluster> clusters() {
+		IdentityHashMap<Cluster, Boolean> seen = new IdentityHashMap<>();
+		ArrayList<Cluster> clusters = new ArrayList<>();
+		for (Cluster cluster : clusterOf)
+			if (seen.put(cluster, Boolean.TRUE) == null)
+				clusters.add(cluster);
+		return clusters;
+	}
+	
+	// settings whose seed is split off the random of this state, so every cluster draws different outcomes
+	private SimulatorSettings seeded() {
+		SimulatorSettings seeded = settings.copy();
+		seeded.setSeed(random.nextLong());
+		return seeded;
+	}
+	
+	/**
+	 * The state of some registers, the first being the most significant bit of an amplitude index.
+	 */
+	private class Cluster {
+		private final QuantumState qs;
+		private int[] registers;
+		
+		private Cluster(QuantumState qs, int[] registers) {
+			this.qs = qs;
+			this.registers = registers;
+			for (int local = 0; local < registers.length; local++) {
+				clusterOf[registers[local]] = this;
+				localOf[registers[local]] = local;
+			}
+		}
+	}
+}
@@ -0,0 +1,338 @@
+package appFX.framework.simulator;
+
+import java.util.SplittableRandom;
+
+import appFX.framework.exportGates.Control;
+import appFX.framework.gateModels.BasicGateModel;
+import appFX.framework.gateModels.GateModel;
+import appFX.framework.gateModels.QuantumGateDefinition;
+import appFX.framework.gateModels.QuantumGateDefinition.QuantumGateType;
+import mathLib.expression.Expression.EvaluateExpressionException;
+import mathLib.expression.MathSet;
+import utils.customMaps.IntIndexMap;
+
+/**
+ * A mixed state of a register, held as its density matrix. <br>
+ * The density matrix of <code>n</code> qubits is stored as a {@link StateMatrix} of <code>2n</code> qubits
+ * whose index is <code>row * 2^n + column</code>, so row qubit <code>r</code> is register <code>r</code> and
+ * column qubit <code>r</code> is register <code>n + r</code>. A unitary is then applied as
+ * <code>U</code> on the row registers followed by <code>conj(U)</code> on the column registers, with the
+ * same {@link GateKernel}s a state vector uses.
+ * <p>
+ * Kraus operators and POVMs are applied as a channel on the qubits they touch: the superoperator
+ * <code>sum w_j C_j (x) conj(C_j)</code> over their targets and controls is one local kernel on the
+ * matching row and column registers. By default the channel is non-selective, so the state is the
+ * average over every outcome, while the outcome that is reported to the classical register is still drawn
+ * with its probability. A selective state keeps only the drawn outcome instead.
+ *
+ * @author quantumresearch
+ *
+ */
+public class DensityMatrixState implements State {
+	private final int numQubits;
+	private final StateMatrix vectorized;
+	private final SplittableRandom random;
+	private final GateMatrixCache matrixCache;
+	private boolean selective = false;
+	
+	public DensityMatrixState(int numQubits) {
+		this(numQubits, new SimulatorSettings());
+	}
+	
+	public DensityMatrixState(int numQubits, SimulatorSettings settings) {
+		this(numQubits, settings, new GateMatrixCache(settings.getMatrixCacheSize()));
+	}
+	
+	DensityMatrixState(int numQubits, SimulatorSettings settings, GateMatrixCache matrixCache) {
+		this.numQubits = numQubits;
+		this.vectorized = new StateMatrix(2 * numQubits, settings);
+		this.random = settings.newRandom();
+		this.matrixCache = matrixCache;
+	}
+	
+	@Override
+	public int apply(GateModel gm, MathSet mathSet, IntIndexMap map, Object ... args) {
+		BasicGateModel bgm = (BasicGateModel) gm;
+		QuantumGateDefinition qgd = bgm.getQuantumGateDefinition();
+		GateMatrixCache.Entry entry;
+		try {
+			entry = matrixCache.get(gm, mathSet);
+		} catch (EvaluateExpressionException e) {
+			e.printStackTrace();
+			throw new RuntimeException(e.getMessage());
+		}
+		
+		Control[] qcs = (Control[]) args[0];
+		int[] targets = map.toArray();
+		
+		double[][] realMatrixes = new double[entry.size()][];
+		double[][] imagMatrixes = new double[entry.size()][];
+		for (int j = 0; j < entry.size(); j++) {
+			realMatrixes[j] = entry.getReal(j);
+			imagMatrixes[j] = entry.getImag(j);
+		}
+		
+		switch (qgd.getQuantumGateType()) {
+		case HAMILTONIAN:
+			throw new UnsupportedOperationException("QuaCC does not support Hamiltonian Simulation.");
+		
+		case KRAUS_OPERATORS:
+			return applyChannel(realMatrixes, imagMatrixes, targets, qcs, true);
+		
+		case POVM:
+			applyChannel(realMatrixes, imagMatrixes, targets, qcs, false);
+			break;
+		
+		case UNIVERSAL:
+			applyUnitary(entry.getReal(0), entry.getImag(0), targets, qcs);
+			break;
+		
+		default:
+			break;
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * Applies <code>rho -&gt; U rho U&dagger;</code>.
+	 * @param realMatrix row major real components of <code>U</code>
+	 * @param imagMatrix row major imaginary components of <code>U</code>
+	 * @param targets
+	 * @param qcs
+	 */
+	public void applyUnitary(double[] realMatrix, double[] imagMatrix, int[] targets, Control[] qcs) {
+		vectorized.apply(GateKernel.compile(realMatrix, imagMatrix, targets, qcs, 2 * numQubits));
+		vectorized.apply(GateKernel.compile(realMatrix, negate(imagMatrix), shift(targets), shift(qcs), 2 * numQubits));
+	}
+	
+	/**
+	 * @param realMatrixes row major real components of the operators of the channel
+	 * @param imagMatrixes row major imaginary components of the operators of the channel
+	 * @param targets
+	 * @param qcs
+	 * @param kraus whether the operators are Kraus operators, whose probability is Tr(K rho K&dagger;),
+	 * rather than POVM elements, whose probability is Tr(M rho)
+	 * @return the index of the drawn outcome, or the number of operators if none was drawn
+	 */
+	int applyChannel(double[][] realMatrixes, double[][] imagMatrixes, int[] targets, Control[] qcs, boolean kraus) {
+		int operators = realMatrixes.length;
+		int[] local = GateKernel.localQubits(targets, qcs);
+		int m = local.length;
+		int dim = 1 << m;
+		
+		// the operators over the local qubits, with their controls folded in
+		double[][] realOps = new double[operators][];
+		double[][] imagOps = new double[operators][];
+		for (int j = 0; j < operators; j++) {
+			double[][] comps = GateKernel.localMatrix(realMatrixes[j], imagMatrixes[j], targets, qcs, local);
+			realOps[j] = comps[0];
+			imagOps[j] = comps[1];
+		}
+		
+		double[] reduced = reducedDensity(local);
+		double[] probs = new double[operators];
+		double[] norms = new double[operators];
+		for (int j = 0; j < operators; j++) {
+			norms[j] = QuantumState.krausProbability(realOps[j], imagOps[j], reduced, dim);
+			probs[j] = kraus ? norms[j] : QuantumState.povmProbability(realOps[j], imagOps[j], reduced, dim);
+		}
+		
+		double predictor = random.nextDouble();
+		double probSum = 0;
+		int chosen = 0;
+		for (; chosen < probs.length; chosen++) {
+			probSum += probs[chosen];
+			if (predictor < probSum)
+				break;
+		}
+		
+		double[] weights = new double[operators];
+		double unchanged = 0;
+		if (selective) {
+			if (chosen < probs.length && norms[chosen] != 0)
+				weights[chosen] = 1 / norms[chosen];
+			else
+				unchanged = 1;
+		} else {
+			// each outcome is weighted by the chance it is drawn, which is cut short once the probabilities pass 1
+			unchanged = 1;
+			for (int j = 0; j < probs.length; j++) {
+				double drawn = Math.max(0, Math.min(probs[j], unchanged));
+				if (norms[j] != 0)
+					weights[j] = drawn / norms[j];
+				unchanged -= drawn;
+			}
+		}
+		
+		int superDim = dim * dim;
+		double[] realSuper = new double[superDim * superDim];
+		double[] imagSuper = new double[superDim * superDim];
+		for (int j = 0; j < probs.length; j++)
+			if (weights[j] != 0)
+				addSuperoperator(realSuper, imagSuper, realOps[j], imagOps[j], weights[j], dim);
+		for (int i = 0; i < superDim; i++)
+			realSuper[i * superDim + i] += unchanged;
+		
+		int[] superTargets = new int[2 * m];
+		System.arraycopy(local, 0, superTargets, 0, m);
+		System.arraycopy(shift(local), 0, superTargets, m, m);
+		vectorized.apply(GateKernel.compile(realSuper, imagSuper, superTargets, new Control[0], 2 * numQubits));
+		
+		return chosen;
+	}
+	
+	/**
+	 * @return the real part of the trace
+	 */
+	public double trace() {
+		double trace = 0;
+		Amplitudes amplitudes = vectorized.getAmplitudes();
+		long dim = 1L << numQubits;
+		for (long i = 0; i < dim; i++)
+			trace += amplitudes.getReal(i * dim + i);
+		return trace;
+	}
+	
+	/**
+	 * @return Tr(rho^2), which is 1 for a pure state
+	 */
+	public double purity() {
+		return vectorized.observableProbability();
+	}
+	
+	/**
+	 * @param basisState
+	 * @return the probability of measuring the register in a computational basis state
+	 */
+	public double probability(long basisState) {
+		return vectorized.getAmplitudes().getReal((basisState << numQubits) | basisState);
+	}
+	
+	public double getReal(long row, long column) {
+		return vectorized.getAmplitudes().getReal((row << numQubits) | column);
+	}
+	
+	public double getImag(long row, long column) {
+		return vectorized.getAmplitudes().getImag((row << numQubits) | column);
+	}
+	
+	/**
+	 * @param realMatrix row major real components of an operator
+	 * @param imagMatrix row major imaginary components of an operator
+	 * @param targets the registers the operator acts on, in matrix order
+	 * @return the real part of Tr(O rho)
+	 */
+	public double expectation(double[] realMatrix, double[] imagMatrix, int[] targets) {
+		return QuantumState.povmProbability(realMatrix, imagMatrix, reducedDensity(targets), 1 << targets.length);
+	}
+	
+	/**
+	 * @return whether Kraus operators and POVMs keep only the drawn outcome instead of averaging over every outcome
+	 */
+	public boolean isSelective() {
+		return selective;
+	}
+	
+	public void setSelective(boolean selective) {
+		this.selective = selective;
+	}
+	
+	@Override
+	public int size() {
+		return numQubits;
+	}
+	
+	@Override
+	public String toString() {
+		if (numQubits > 4)
+			return "[Density Matrix] : " + numQubits + " qubits, trace " + trace() + ", purity " + purity();
+		long dim = 1L << numQubits;
+		StringBuilder sb = new StringBuilder("[Density Matrix] :");
+		for (long row = 0; row < dim; row++) {
+			sb.append('\n');
+			for (long column = 0; column < dim; column++) {
+				if (column != 0)
+					sb.append(",\t");
+				double real = getReal(row, column);
+				double imag = getImag(row, column);
+				sb.append(imag == 0 ? Double.toString(real) : real + (imag < 0 ? " - " : " + ") + Math.abs(imag) + "i");
+			}
+		}
+		return sb.toString();
+	}
+	
+	// the partial trace over every qubit not in local, with local[0] as the most significant bit
+	private double[] reducedDensity(int[] local) {
+		int m = local.length;
+		int dim = 1 << m;
+		long[] offsets = new long[dim];
+		long localMask = 0;
+		for (int a = 0; a < dim; a++)
+			for (int i = 0; i < m; i++)
+				if ((a & (1 << (m - 1 - i))) != 0)
+					offsets[a] |= 1L << (numQubits - 1 - local[i]);
+		for (int reg : local)
+			localMask |= 1L << (numQubits - 1 - reg);
+		
+		double[] reduced = new double[2 * dim * dim];
+		Amplitudes amplitudes = vectorized.getAmplitudes();
+		long length = 1L << numQubits;
+		for (long rest = 0; rest < length; rest++) {
+			if ((rest & localMask) != 0)
+				continue;
+			for (int a = 0; a < dim; a++) {
+				long row = (rest | offsets[a]) << numQubits;
+				for (int b = 0; b < dim; b++) {
+					long index = row | rest | offsets[b];
+					reduced[a * dim + b] += amplitudes.getReal(index);
+					reduced[dim * dim + a * dim + b] += amplitudes.getImag(index);
+				}
+			}
+		}
+		return reduced;
+	}
+	
+	// adds w C (x) conj(C), indexed by (row * dim + column) of the density matrix
+	private static void addSuperoperator(double[] realSuper, double[] imagSuper, double[] re, double[] im, double w, int dim) {
+		int superDim = dim * dim;
+		for (int a = 0; a < dim; a++) {
+			for (int a2 = 0; a2 < dim; a2++) {
+				double cr = re[a * dim + a2];
+				double ci = im[a * dim + a2];
+				if (cr == 0 && ci == 0)
+					continue;
+				for (int b = 0; b < dim; b++) {
+					for (int b2 = 0; b2 < dim; b2++) {
+						double dr = re[b * dim + b2];
+						double di = -im[b * dim + b2];
+						int index = (a * dim + b) * superDim + a2 * dim + b2;
+						realSuper[index] += w * (cr * dr - ci * di);
+						imagSuper[index] += w * (cr * di + ci * dr);
+					}
+				}
+			}
+		}
+	}
+	
+	private int[] shift(int[] regs) {
+		int[] shifted = new int[regs.length];
+		for (int i = 0; i < regs.length; i++)
+			shifted[i] = regs[i] + numQubits;
+		return shifted;
+	}
+	
+	private Control[] shift(Control[] qcs) {
+		Control[] shifted = new Control[qcs.length];
+		for (int i = 0; i < qcs.length; i++)
+			shifted[i] = new Control(qcs[i].getRegister() + numQubits, qcs[i].getControlStatus());
+		return shifted;
+	}
+	
+	private static double[] negate(double[] values) {
+		double[] negated = new double[values.length];
+		for (int i = 0; i < values.length; i++)
+			negated[i] = -values[i];
+		return negated;
+	}
+}
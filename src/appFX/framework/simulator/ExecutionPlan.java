@@ -0,0 +1,707 @@
+package appFX.framework.simulator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.stream.Stream;
+
+import appFX.framework.Project;
+import appFX.framework.exportGates.Control;
+import appFX.framework.exportGates.GateManager.ExportCircuit;
+import appFX.framework.exportGates.GateManager.ExportException;
+import appFX.framework.exportGates.GateManager.ExportNotCircuit;
+import appFX.framework.exportGates.GateManager.Exportable;
+import appFX.framework.exportGates.RawExportableGateData.RawExportLink;
+import appFX.framework.exportGates.RawExportableGateData.RawExportOutputLink;
+import appFX.framework.gateModels.BasicGateModel;
+import appFX.framework.gateModels.GateModel;
+import appFX.framework.gateModels.GateModel.GateComputingType;
+import appFX.framework.gateModels.PresetGateType.PresetGateModel;
+import appFX.framework.gateModels.QuantumGateDefinition.QuantumGateType;
+import appFX.framework.solderedGates.SpacePin.OutputLinkType;
+import mathLib.expression.MathSet;
+import utils.customCollections.IterableUtils;
+import utils.customMaps.IntIndexMap;
+
+/**
+ * A project flattened into one array of instructions, so it can be simulated many times, such as once per shot,
+ * while the export tree is only walked once. <br>
+ * Every gate gets a handle to its model, math set, register map and quantum controls, which are bound to global
+ * registers when the plan is compiled. Every circuit board gets its own classical register, called a frame, which
+ * is created when the board is entered, and the links into and out of the board become copies between frames.
+ * Classical controls become a check that jumps past the gate or board when a control does not hold. <br>
+ * A plan can be bound to other values of the parameters of the top level circuit, see {@link #bind(MathSet)}.
+ *
+ * @author quantumresearch
+ *
+ */
+public class ExecutionPlan {
+	// frame, number of bits, whether it is traced when measurements are deferred
+	private static final int NEW_FRAME = 0;
+	// frame to, bit to, frame from, bit from
+	private static final int LINK = 1;
+	// number of controls, instruction to jump to if one fails, then the frame, bit and status of each control
+	private static final int CHECK = 2;
+	private static final int FLUSH = 3;
+	// gate handle, frame of the outputs, number of outputs, then the local and global bit of each output
+	private static final int QUANTUM_GATE = 4;
+	// gate handle, frame
+	private static final int CLASSICAL_GATE = 5;
+	
+	// the classical register of the top level circuit, and the second one of a classical top level circuit
+	private static final int TOP_FRAME = 0;
+	private static final int SECOND_TOP_FRAME = 1;
+	
+	private final GateComputingType computingType;
+	private final int numPrimaryRegs;
+	private final int numSecondaryRegs;
+	private final int[] code;
+	private final int numFrames;
+	private final GateModel[] gateModels;
+	private final MathSet[] mathSets;
+	private final IntIndexMap[] indexMaps;
+	private final Control[][] controls;
+	// the enclosing circuit boards and the gate itself, for gates whose parameters depend on the top level circuit
+	private final Exportable[][] bindings;
+	private final int[] entryStarts;
+	private final int[] entryColumns;
+	
+	private ExecutionPlan(ExportCircuit first, Compiler compiler) {
+		this.computingType = first.getComputingType();
+		this.numPrimaryRegs = first.getNumPrimaryRegs();
+		this.numSecondaryRegs = first.getNumSecondaryRegs();
+		this.code = Arrays.copyOf(compiler.code, compiler.size);
+		this.numFrames = compiler.numFrames;
+		this.gateModels = compiler.gateModels.toArray(new GateModel[0]);
+		this.mathSets = compiler.mathSets.toArray(new MathSet[0]);
+		this.indexMaps = compiler.indexMaps.toArray(new IntIndexMap[0]);
+		this.controls = compiler.controls.toArray(new Control[0][]);
+		this.bindings = compiler.bindings.toArray(new Exportable[0][]);
+		this.entryStarts = Arrays.copyOf(compiler.entryStarts, compiler.numEntries);
+		this.entryColumns = Arrays.copyOf(compiler.entryColumns, compiler.numEntries);
+	}
+	
+	private ExecutionPlan(ExecutionPlan plan, MathSet[] mathSets) {
+		this.computingType = plan.computingType;
+		this.numPrimaryRegs = plan.numPrimaryRegs;
+		this.numSecondaryRegs = plan.numSecondaryRegs;
+		this.code = plan.code;
+		this.numFrames = plan.numFrames;
+		this.gateModels = plan.gateModels;
+		this.mathSets = mathSets;
+		this.indexMaps = plan.indexMaps;
+		this.controls = plan.controls;
+		this.bindings = plan.bindings;
+		this.entryStarts = plan.entryStarts;
+		this.entryColumns = plan.entryColumns;
+	}
+	
+	public static ExecutionPlan compile(Project p) throws ExportException {
+		return compile(Simulator.exportTopLevel(p));
+	}
+	
+	/**
+	 * @param p
+	 * @param runtimeVariables the set the parameters of the top level circuit are bound in
+	 * @return
+	 * @throws ExportException
+	 */
+	public static ExecutionPlan compile(Project p, MathSet runtimeVariables) throws ExportException {
+		return compile(Simulator.exportTopLevel(p, runtimeVariables));
+	}
+	
+	private static ExecutionPlan compile(ExportCircuit first) {
+		Compiler compiler = new Compiler();
+		switch (first.getComputingType()) {
+		case QUANTUM:
+			compiler.numFrames = 1;
+			compiler.walk(first.exportIfCircuitBoard(), true, -1, TOP_FRAME, first.getNumSecondaryRegs(),
+					new Control[0], IntIndexMap.identity(first.getNumPrimaryRegs()));
+			break;
+		case CLASSICAL:
+			compiler.numFrames = 2;
+			compiler.walk(first.exportIfCircuitBoard(), false, TOP_FRAME, SECOND_TOP_FRAME, first.getNumSecondaryRegs(),
+					null, null);
+			break;
+		default:
+			throw new RuntimeException(first.getComputingType().name() + " is not supported.");
+		}
+		return new ExecutionPlan(first, compiler);
+	}
+	
+	public GateComputingType getComputingType() {
+		return computingType;
+	}
+	
+	public int getNumPrimaryRegs() {
+		return numPrimaryRegs;
+	}
+	
+	public int getNumSecondaryRegs() {
+		return numSecondaryRegs;
+	}
+	
+	/**
+	 * @return the number of gates, not counting circuit boards
+	 */
+	public int getNumGates() {
+		return gateModels.length;
+	}
+	
+	/**
+	 * @return the number of gates whose parameters depend on the parameters of the top level circuit
+	 */
+	public int getNumBoundGates() {
+		int count = 0;
+		for (Exportable[] chain : bindings)
+			if (chain != null)
+				count++;
+		return count;
+	}
+	
+	/**
+	 * Evaluates the parameters of the gates that depend on the parameters of the top level circuit again. <br>
+	 * Nothing else is exported or compiled again, so the plan has the structure of this one.
+	 * @param runtimeVariables the set the parameters of the top level circuit are bound in
+	 * @return the plan of the same circuit with its parameters bound in the given set
+	 * @throws ExportException
+	 */
+	public ExecutionPlan bind(MathSet runtimeVariables) throws ExportException {
+		MathSet[] bound = mathSets.clone();
+		// circuit boards are bound once for all the gates placed in them
+		IdentityHashMap<Exportable, MathSet> boards = new IdentityHashMap<>();
+		for (int gate = 0; gate < bindings.length; gate++)
+			if (bindings[gate] != null)
+				bound[gate] = bindGate(gate, runtimeVariables, boards);
+		return new ExecutionPlan(this, bound);
+	}
+	
+	private MathSet bindGate(int gate, MathSet runtimeVariables, IdentityHashMap<Exportable, MathSet> boards) throws ExportException {
+		MathSet ms = runtimeVariables;
+		for (Exportable e : bindings[gate]) {
+			if (!e.hasArgumentParameters()) {
+				ms = e.getMathSet();
+			} else if (boards.containsKey(e)) {
+				ms = boards.get(e);
+			} else {
+				ms = e.bindParameters(ms);
+				if (e.isCircuitBoard())
+					boards.put(e, ms);
+			}
+		}
+		return ms;
+	}
+	
+	/**
+	 * @param gate
+	 * @return whether the parameters of a gate depend on the parameters of the top level circuit
+	 */
+	boolean isBound(int gate) {
+		return bindings[gate] != null;
+	}
+	
+	GateModel getGateModel(int gate) {
+		return gateModels[gate];
+	}
+	
+	MathSet getMathSet(int gate) {
+		return mathSets[gate];
+	}
+	
+	IntIndexMap getIndexMap(int gate) {
+		return indexMaps[gate];
+	}
+	
+	Control[] getControls(int gate) {
+		return controls[gate];
+	}
+	
+	/**
+	 * @return the quantum gates in the order a run applies them, if no gate is skipped
+	 */
+	int[] getQuantumGates() {
+		int[] gates = new int[gateModels.length];
+		int count = 0;
+		for (int pc = 0; pc < code.length; pc = next(pc))
+			if (code[pc] == QUANTUM_GATE)
+				gates[count++] = code[pc + 1];
+		return Arrays.copyOf(gates, count);
+	}
+	
+	/**
+	 * @return whether the quantum state of a run is the product of unitary gates that are always applied,
+	 * so that a run can be undone one gate at a time
+	 */
+	boolean isUnitary() {
+		return computingType == GateComputingType.QUANTUM && firstNonUnitary() == code.length;
+	}
+	
+	/**
+	 * @return the first entry of the top level circuit that holds a measurement, a channel or a classically
+	 * controlled gate, or the number of entries if there is none. The states of a run before it do not depend on
+	 * any measurement outcome.
+	 */
+	int getFirstNonUnitaryEntry() {
+		if (computingType != GateComputingType.QUANTUM)
+			return entryStarts.length;
+		int pc = firstNonUnitary();
+		int entry = 0;
+		while (entry < entryStarts.length && getEntryStart(entry + 1) <= pc)
+			entry++;
+		return entry;
+	}
+	
+	// the first classical control or non unitary quantum gate, or the end of the plan
+	private int firstNonUnitary() {
+		for (int pc = 0; pc < code.length; pc = next(pc)) {
+			if (code[pc] == CHECK)
+				return pc;
+			if (code[pc] == QUANTUM_GATE && ((BasicGateModel) gateModels[code[pc + 1]]).getQuantumGateDefinition()
+					.getQuantumGateType() != QuantumGateType.UNIVERSAL)
+				return pc;
+		}
+		return code.length;
+	}
+	
+	public State[] run(SimulatorSettings settings) {
+		return run(settings, false, new GateMatrixCache(settings.getMatrixCacheSize()));
+	}
+	
+	State[] run(SimulatorSettings settings, boolean deferMeasurements, GateMatrixCache matrixCache) {
+		Run run = start(settings, deferMeasurements, matrixCache);
+		run.runTo(code.length);
+		return run.getStates();
+	}
+	
+	/**
+	 * Runs a classical plan on 64 initial values of its register at once, see {@link BitSlicedClassicalState}.
+	 * A gate or circuit board runs in the lanes whose checks hold, where a {@link Run} would skip it.
+	 * @param inputs the lanes of each bit of the register before the plan runs
+	 * @return the lanes of each bit of the register after the plan ran
+	 */
+	BitSlicedClassicalState runLanes(long[] inputs) {
+		if (computingType != GateComputingType.CLASSICAL)
+			throw new IllegalArgumentException("Only classical circuits can be simulated on lanes");
+		BitSlicedClassicalState[] frames = new BitSlicedClassicalState[numFrames];
+		frames[TOP_FRAME] = new BitSlicedClassicalState(numPrimaryRegs);
+		frames[SECOND_TOP_FRAME] = new BitSlicedClassicalState(numSecondaryRegs);
+		for (int i = 0; i < inputs.length; i++)
+			frames[TOP_FRAME].set(i, inputs[i]);
+		
+		// the lanes of every check the run is inside of, and the instruction its gate or board ends at
+		long[] lanes = new long[code.length + 1];
+		int[] ends = new int[code.length + 1];
+		int depth = 0;
+		lanes[0] = BitSlicedClassicalState.ALL_LANES;
+		int pc = 0;
+		while (pc < code.length) {
+			while (depth > 0 && pc >= ends[depth])
+				depth--;
+			switch (code[pc]) {
+			case NEW_FRAME:
+				frames[code[pc + 1]] = new BitSlicedClassicalState(code[pc + 2]);
+				pc += 4;
+				break;
+			case CHECK:
+				long active = lanes[depth];
+				for (int i = pc + 3; i < pc + 3 + 3 * code[pc + 1]; i += 3) {
+					long values = frames[code[i]].get(code[i + 1]);
+					active &= code[i + 2] != 0 ? values : ~values;
+				}
+				if (active == 0) {
+					pc = code[pc + 2];
+				} else {
+					lanes[++depth] = active;
+					ends[depth] = code[pc + 2];
+					pc = next(pc);
+				}
+				break;
+			case CLASSICAL_GATE:
+				BitSlicedClassicalState cs = frames[code[pc + 2]];
+				cs.setActiveLanes(lanes[depth]);
+				cs.apply(gateModels[code[pc + 1]], mathSets[code[pc + 1]], indexMaps[code[pc + 1]]);
+				cs.setActiveLanes(BitSlicedClassicalState.ALL_LANES);
+				pc += 3;
+				break;
+			default:
+				throw new UnsupportedOperationException("Only classical gates can be simulated on lanes");
+			}
+		}
+		return frames[TOP_FRAME];
+	}
+	
+	/**
+	 * @param settings
+	 * @param deferMeasurements
+	 * @param matrixCache
+	 * @return a run of this plan that has not executed any instruction yet
+	 */
+	Run start(SimulatorSettings settings, boolean deferMeasurements, GateMatrixCache matrixCache) {
+		ClassicalState[] frames = new ClassicalState[numFrames];
+		State qs = null;
+		if (computingType == GateComputingType.QUANTUM) {
+			qs = Simulator.createQuantumState(numPrimaryRegs, resolveBackend(settings, deferMeasurements), settings, matrixCache);
+			frames[TOP_FRAME] = new ClassicalState(numSecondaryRegs, deferMeasurements);
+			if (deferMeasurements) {
+				if (!(qs instanceof QuantumState))
+					throw new ShotSampler.NotTerminalException("Only state vectors defer measurements");
+				((QuantumState) qs).deferMeasurements(new ShotSampler(numPrimaryRegs));
+			}
+		} else {
+			frames[TOP_FRAME] = new ClassicalState(numPrimaryRegs);
+			frames[SECOND_TOP_FRAME] = new ClassicalState(numSecondaryRegs);
+		}
+		return new Run(qs, frames, deferMeasurements, 0);
+	}
+	
+	/**
+	 * @param from a run of a plan of the same project, between two gates of its top level circuit
+	 * @param pc the first instruction of the gate of this plan to continue from
+	 * @return a run of this plan that continues from copies of the states of the given run,
+	 * or null if its states cannot be copied
+	 */
+	Run resume(Run from, int pc) {
+		if (from.deferred || (from.qs != null && !(from.qs instanceof QuantumState)))
+			return null;
+		// between gates of the top level circuit only its own frames are in use
+		ClassicalState[] frames = new ClassicalState[numFrames];
+		frames[TOP_FRAME] = from.frames[TOP_FRAME].copy();
+		if (computingType != GateComputingType.QUANTUM)
+			frames[SECOND_TOP_FRAME] = from.frames[SECOND_TOP_FRAME].copy();
+		State qs = from.qs == null ? null : ((QuantumState) from.qs).copy();
+		return new Run(qs, frames, from.deferMeasurements, pc);
+	}
+	
+	/**
+	 * @return the number of gates and circuit boards of the top level circuit
+	 */
+	int getNumEntries() {
+		return entryStarts.length;
+	}
+	
+	/**
+	 * @param entry
+	 * @return the first instruction of a gate or circuit board of the top level circuit,
+	 * or the end of the plan for the number of entries
+	 */
+	int getEntryStart(int entry) {
+		return entry == entryStarts.length ? code.length : entryStarts[entry];
+	}
+	
+	/**
+	 * @param entry
+	 * @return the column a gate or circuit board of the top level circuit is placed in
+	 */
+	int getEntryColumn(int entry) {
+		return entryColumns[entry];
+	}
+	
+	/**
+	 * The states of one run of a plan and the instruction it is at.
+	 */
+	class Run {
+		private final State qs;
+		private final ClassicalState[] frames;
+		private final boolean deferMeasurements;
+		// classically controlled gates are not fused with their neighbours
+		private final QuantumState barrier;
+		private final boolean deferred;
+		private int pc;
+		
+		private Run(State qs, ClassicalState[] frames, boolean deferMeasurements, int pc) {
+			this.qs = qs;
+			this.frames = frames;
+			this.deferMeasurements = deferMeasurements;
+			this.barrier = qs instanceof QuantumState ? (QuantumState) qs : null;
+			this.deferred = barrier != null && barrier.defersMeasurements();
+			this.pc = pc;
+		}
+		
+		State[] getStates() {
+			if (computingType == GateComputingType.QUANTUM)
+				return new State[] {qs, frames[TOP_FRAME]};
+			return new State[] {frames[TOP_FRAME], frames[SECOND_TOP_FRAME]};
+		}
+		
+		int getPc() {
+			return pc;
+		}
+		
+		/**
+		 * Executes instructions until the given one is reached.
+		 * @param end
+		 */
+		void runTo(int end) {
+			while (pc < end) {
+				switch (code[pc]) {
+				case NEW_FRAME:
+					frames[code[pc + 1]] = new ClassicalState(code[pc + 2], deferMeasurements && code[pc + 3] != 0);
+					pc += 4;
+					break;
+				case LINK:
+					frames[code[pc + 1]].link(code[pc + 2], frames[code[pc + 3]], code[pc + 4]);
+					pc += 5;
+					break;
+				case CHECK:
+					int numControls = code[pc + 1];
+					int next = pc + 3 + 3 * numControls;
+					for (int i = pc + 3; i < pc + 3 + 3 * numControls; i += 3) {
+						if (frames[code[i]].get(code[i + 1]) != (code[i + 2] != 0)) {
+							next = code[pc + 2];
+							break;
+						}
+					}
+					pc = next;
+					break;
+				case FLUSH:
+					if (barrier != null)
+						barrier.flush();
+					pc++;
+					break;
+				case QUANTUM_GATE:
+					int gate = code[pc + 1];
+					ClassicalState cs = frames[code[pc + 2]];
+					int numOutputs = code[pc + 3];
+					int measuredValue = qs.apply(gateModels[gate], mathSets[gate], indexMaps[gate], (Object) controls[gate]);
+					for (int i = pc + 4; i < pc + 4 + 2 * numOutputs; i += 2) {
+						int localReg = code[i];
+						int globalReg = code[i + 1];
+						if (deferred)
+							cs.setSource(globalReg, ShotSampler.source(measuredValue, localReg));
+						else
+							cs.set(globalReg, ((measuredValue >>> localReg) & 1) == 1);
+					}
+					pc += 4 + 2 * numOutputs;
+					break;
+				case CLASSICAL_GATE:
+					frames[code[pc + 2]].apply(gateModels[code[pc + 1]], mathSets[code[pc + 1]], indexMaps[code[pc + 1]]);
+					pc += 3;
+					break;
+				default:
+					throw new IllegalStateException("Unknown instruction " + code[pc]);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @param settings
+	 * @return the backend of the settings, with {@link SimulatorSettings.Backend#AUTO} replaced by the backend it picks for this plan
+	 */
+	SimulatorSettings.Backend resolveBackend(SimulatorSettings settings) {
+		return resolveBackend(settings, false);
+	}
+	
+	/**
+	 * @param settings
+	 * @param deferMeasurements whether the plan will run with its measurements deferred,
+	 * which only a {@link QuantumState} supports
+	 * @return the backend of the settings, with {@link SimulatorSettings.Backend#AUTO} replaced by the backend it picks for this plan
+	 */
+	SimulatorSettings.Backend resolveBackend(SimulatorSettings settings, boolean deferMeasurements) {
+		if (settings.getBackend() != SimulatorSettings.Backend.AUTO)
+			return settings.getBackend();
+		if (deferMeasurements)
+			return SimulatorSettings.Backend.STATE_VECTOR;
+		return computingType == GateComputingType.QUANTUM && isClifford() ? SimulatorSettings.Backend.STABILIZER : SimulatorSettings.Backend.STATE_VECTOR;
+	}
+	
+	// whether every quantum gate is supported by a StabilizerState with the quantum controls bound to it
+	private boolean isClifford() {
+		for (int pc = 0; pc < code.length; pc = next(pc)) {
+			if (code[pc] != QUANTUM_GATE)
+				continue;
+			GateModel gm = gateModels[code[pc + 1]];
+			if (!(gm instanceof PresetGateModel) || !StabilizerState.supports(((PresetGateModel) gm).getPresetGateType(), controls[code[pc + 1]].length))
+				return false;
+		}
+		return true;
+	}
+	
+	private int next(int pc) {
+		switch (code[pc]) {
+		case NEW_FRAME:
+			return pc + 4;
+		case LINK:
+			return pc + 5;
+		case CHECK:
+			return pc + 3 + 3 * code[pc + 1];
+		case FLUSH:
+			return pc + 1;
+		case QUANTUM_GATE:
+			return pc + 4 + 2 * code[pc + 3];
+		default:
+			return pc + 3;
+		}
+	}
+	
+	private static class Compiler {
+		private int[] code = new int[64];
+		private int size = 0;
+		private int numFrames;
+		private final ArrayList<GateModel> gateModels = new ArrayList<>();
+		private final ArrayList<MathSet> mathSets = new ArrayList<>();
+		private final ArrayList<IntIndexMap> indexMaps = new ArrayList<>();
+		private final ArrayList<Control[]> controls = new ArrayList<>();
+		private final ArrayList<Exportable[]> bindings = new ArrayList<>();
+		// the circuit boards the walk is in
+		private final ArrayList<Exportable> enclosing = new ArrayList<>();
+		private int[] entryStarts = new int[16];
+		private int[] entryColumns = new int[16];
+		private int numEntries = 0;
+		private int depth = 0;
+		
+		/**
+		 * Mirrors the walk of the export tree a simulation used to make for every run.
+		 * @param quantum whether the first state of the walk is a quantum state rather than a classical register
+		 * @param primaryFrame the frame of the first state if it is classical
+		 * @param secondaryFrame the frame of the second state
+		 * @param secondarySize the number of bits of the second state
+		 * @param qcs the quantum controls bound by enclosing circuits, or null inside a classical board
+		 * @param parentToGlobalMap
+		 */
+		private void walk(Stream<Exportable> stream, boolean quantum, int primaryFrame, int secondaryFrame, int secondarySize,
+				Control[] qcs, IntIndexMap parentToGlobalMap) {
+			stream = stream.takeWhile(x -> x != null);
+			stream = stream.filter(e -> !e.isIdentity());
+			for (Exportable e : IterableUtils.convert(stream)) {
+				if (depth == 0)
+					addEntry(e.getColumn());
+				int check = addCheck(e, quantum, primaryFrame, secondaryFrame, secondarySize);
+				boolean barrier = quantum && e.getClassicalControls().length != 0;
+				if (barrier)
+					add(FLUSH);
+				
+				IntIndexMap childToParentMap = new IntIndexMap(e.getRegisters());
+				
+				if (e.isCircuitBoard()) {
+					ExportCircuit ec = (ExportCircuit) e;
+					int frame = numFrames++;
+					if (ec.getComputingType() == GateComputingType.QUANTUM) {
+						checkQuantum(quantum, qcs);
+						add(NEW_FRAME, frame, ec.getNumSecondaryRegs(), 1);
+						for (RawExportLink rel : ec.getInputLinks())
+							add(LINK, frame, rel.localReg, secondaryFrame, rel.globalReg);
+						
+						Control[] qcsNext = bindQuantumControls(qcs, ec.getQuantumControls(), parentToGlobalMap);
+						IntIndexMap childToGlobal = childToParentMap.map(parentToGlobalMap);
+						depth++;
+						enclosing.add(e);
+						walk(e.exportIfCircuitBoard(), true, -1, frame, ec.getNumSecondaryRegs(), qcsNext, childToGlobal);
+						enclosing.remove(enclosing.size() - 1);
+						depth--;
+						
+						for (RawExportOutputLink rel : ec.getOutputLinks())
+							if (rel.linkType == OutputLinkType.CLASSICAL_LINK)
+								add(LINK, secondaryFrame, rel.globalReg, frame, rel.localReg);
+					} else {
+						add(NEW_FRAME, frame, ec.getNumPrimaryRegs(), 0);
+						depth++;
+						enclosing.add(e);
+						walk(e.exportIfCircuitBoard(), quantum, primaryFrame, frame, ec.getNumPrimaryRegs(), null, null);
+						enclosing.remove(enclosing.size() - 1);
+						depth--;
+					}
+				} else {
+					ExportNotCircuit enc = (ExportNotCircuit) e;
+					if (enc.getComputingType() == GateComputingType.QUANTUM) {
+						checkQuantum(quantum, qcs);
+						Control[] qcsNext = bindQuantumControls(qcs, e.getQuantumControls(), parentToGlobalMap);
+						IntIndexMap childToGlobal = childToParentMap.map(parentToGlobalMap);
+						int gate = addGate(enc, childToGlobal, qcsNext);
+						
+						ArrayList<RawExportOutputLink> outputs = new ArrayList<>();
+						for (RawExportOutputLink rel : enc.getOutputLinks())
+							if (rel.linkType == OutputLinkType.CLASSICAL_LINK)
+								outputs.add(rel);
+						add(QUANTUM_GATE, gate, secondaryFrame, outputs.size());
+						for (RawExportOutputLink rel : outputs)
+							add(rel.localReg, rel.globalReg);
+					} else if (enc.getComputingType() == GateComputingType.CLASSICAL) {
+						int gate = addGate(enc, childToParentMap, null);
+						add(CLASSICAL_GATE, gate, quantum ? secondaryFrame : primaryFrame);
+					}
+				}
+				
+				if (barrier)
+					add(FLUSH);
+				if (check != -1)
+					code[check + 2] = size;
+			}
+		}
+		
+		// adds the check of the controls of a gate or board, mirroring checkClassicalControls, and returns where it starts
+		private int addCheck(Exportable e, boolean quantum, int primaryFrame, int secondaryFrame, int secondarySize) {
+			ArrayList<int[]> checks = new ArrayList<>();
+			if (quantum) {
+				for (Control c : e.getClassicalControls())
+					checks.add(new int[] {secondaryFrame, c.getRegister(), c.getControlStatus() ? 1 : 0});
+			} else {
+				for (Control c : e.getQuantumControls())
+					checks.add(new int[] {primaryFrame, c.getRegister(), c.getControlStatus() ? 1 : 0});
+				int frame = secondarySize != 0 ? secondaryFrame : primaryFrame;
+				for (Control c : e.getClassicalControls())
+					checks.add(new int[] {frame, c.getRegister(), c.getControlStatus() ? 1 : 0});
+			}
+			if (checks.isEmpty())
+				return -1;
+			
+			int start = size;
+			add(CHECK, checks.size(), -1);
+			for (int[] check : checks)
+				add(check);
+			return start;
+		}
+		
+		private void addEntry(int column) {
+			if (numEntries == entryStarts.length) {
+				entryStarts = Arrays.copyOf(entryStarts, 2 * numEntries);
+				entryColumns = Arrays.copyOf(entryColumns, 2 * numEntries);
+			}
+			entryStarts[numEntries] = size;
+			entryColumns[numEntries++] = column;
+		}
+		
+		private int addGate(ExportNotCircuit enc, IntIndexMap indexMap, Control[] qcs) {
+			gateModels.add(enc.getGateModel());
+			mathSets.add(enc.getMathSet());
+			indexMaps.add(indexMap);
+			controls.add(qcs);
+			if (enc.hasArgumentParameters()) {
+				Exportable[] chain = enclosing.toArray(new Exportable[enclosing.size() + 1]);
+				chain[enclosing.size()] = enc;
+				bindings.add(chain);
+			} else {
+				bindings.add(null);
+			}
+			return gateModels.size() - 1;
+		}
+		
+		private void add(int ... values) {
+			if (size + values.length > code.length)
+				code = Arrays.copyOf(code, Math.max(2 * code.length, size + values.length));
+			System.arraycopy(values, 0, code, size, values.length);
+			size += values.length;
+		}
+		
+		private static void checkQuantum(boolean quantum, Control[] qcs) {
+			if (!quantum || qcs == null)
+				throw new UnsupportedOperationException("Quantum gates can only be simulated inside quantum circuit boards");
+		}
+		
+		private static Control[] bindQuantumControls (Control[] global, Control[] local, IntIndexMap indexMap) {
+			int totalSize = global.length + local.length;
+			Control[] qcsNext = new Control[totalSize];
+			int i = 0;
+			for (Control qc : global)
+				qcsNext[i++] = qc;
+			for (Control qc : local) {
+				int reg = qc.getRegister();
+				boolean status = qc.getControlStatus();
+				int mappedReg = indexMap.get(reg);
+				qcsNext[i++] = new Control(mappedReg, status);
+			}
+			return qcsNext;
+		}
+	}
+}
@@ -0,0 +1,201 @@
+package appFX.framework.simulator;
+
+import java.util.Arrays;
+
+import appFX.framework.exportGates.Control;
+
+/**
+ * Multiplies runs of consecutive unitaries into a single matrix so that the run costs one sweep over a
+ * {@link StateMatrix} instead of one per gate. <br>
+ * Gates are collected while the union of their targets and controls (the window) stays within the
+ * maximum fusion width. A gate that would widen the window past that width flushes the pending run first.
+ * <p>
+ * The fused matrix <code>M</code> over a window of <code>w</code> qubits is held as a vector of
+ * <code>2w</code> qubits whose index is <code>column * 2^w + row</code>. Applying a gate to every column
+ * of <code>M</code> is then a single {@link GateKernel} application on that vector, with the gate's
+ * registers shifted onto the row qubits.
+ *
+ * @author quantumresearch
+ *
+ */
+public class GateFuser {
+	private final int maxWidth;
+	private final int numQubits;
+	
+	private int[] window = new int[0];
+	private Amplitudes fused;
+	private int gates = 0;
+	
+	private double[] firstReal, firstImag;
+	private int[] firstTargets;
+	private Control[] firstControls;
+	
+	public GateFuser(int maxWidth, int numQubits) {
+		this.maxWidth = maxWidth;
+		this.numQubits = numQubits;
+	}
+	
+	public int getMaxWidth() {
+		return maxWidth;
+	}
+	
+	public boolean isEmpty() {
+		return gates == 0;
+	}
+	
+	/**
+	 * Adds a unitary to the pending run, applying the run to the state first if the gate does not fit in it.
+	 * @param realMatrix row major real components of the gate matrix
+	 * @param imagMatrix row major imaginary components of the gate matrix
+	 * @param targets the global registers the gate acts on, in matrix order
+	 * @param qcs the quantum controls of the gate
+	 * @param sm the state the run is applied to when it is flushed
+	 */
+	public void add(double[] realMatrix, double[] imagMatrix, int[] targets, Control[] qcs, StateMatrix sm) {
+		int[] gateQubits = qubitsOf(targets, qcs);
+		if (gateQubits.length > maxWidth) {
+			flush(sm);
+			sm.apply(GateKernel.compile(realMatrix, imagMatrix, targets, qcs, numQubits));
+			return;
+		}
+		
+		int[] union = union(window, gateQubits);
+		if (union.length > maxWidth) {
+			flush(sm);
+			union = gateQubits;
+		}
+		
+		if (gates == 0) {
+			firstReal = realMatrix;
+			firstImag = imagMatrix;
+			firstTargets = targets;
+			firstControls = qcs;
+			window = new int[0];
+			fused = identity(0);
+		}
+		
+		widen(union);
+		multiply(realMatrix, imagMatrix, targets, qcs);
+		gates++;
+	}
+	
+	/**
+	 * Applies the pending run to the state and empties it.
+	 * @param sm
+	 */
+	public void flush(StateMatrix sm) {
+		if (gates == 0)
+			return;
+		
+		if (gates == 1) {
+			sm.apply(GateKernel.compile(firstReal, firstImag, firstTargets, firstControls, numQubits));
+		} else {
+			int dim = 1 << window.length;
+			double[] realMatrix = new double[dim * dim];
+			double[] imagMatrix = new double[dim * dim];
+			for (int row = 0; row < dim; row++) {
+				for (int column = 0; column < dim; column++) {
+					long index = ((long) column << window.length) | row;
+					realMatrix[row * dim + column] = fused.getReal(index);
+					imagMatrix[row * dim + column] = fused.getImag(index);
+				}
+			}
+			sm.apply(GateKernel.compile(realMatrix, imagMatrix, window, new Control[0], numQubits));
+		}
+		
+		gates = 0;
+		window = new int[0];
+		fused = null;
+		firstReal = firstImag = null;
+		firstTargets = null;
+		firstControls = null;
+	}
+	
+	// multiplies the gate onto the rows of the fused matrix
+	private void multiply(double[] realMatrix, double[] imagMatrix, int[] targets, Control[] qcs) {
+		int w = window.length;
+		int[] localTargets = new int[targets.length];
+		for (int i = 0; i < targets.length; i++)
+			localTargets[i] = w + positionOf(targets[i]);
+		Control[] localControls = new Control[qcs.length];
+		for (int i = 0; i < qcs.length; i++)
+			localControls[i] = new Control(w + positionOf(qcs[i].getRegister()), qcs[i].getControlStatus());
+		GateKernel.compile(realMatrix, imagMatrix, localTargets, localControls, 2 * w).apply(fused);
+	}
+	
+	// appends the qubits of the new window that are not in the current one, as M (x) I
+	private void widen(int[] newWindow) {
+		int w = window.length;
+		int added = newWindow.length - w;
+		if (added == 0)
+			return;
+		
+		int[] ordered = new int[newWindow.length];
+		System.arraycopy(window, 0, ordered, 0, w);
+		int i = w;
+		for (int reg : newWindow)
+			if (positionIn(window, reg) < 0)
+				ordered[i++] = reg;
+		
+		int newW = ordered.length;
+		int oldDim = 1 << w;
+		int addedDim = 1 << added;
+		Amplitudes widened = new HeapAmplitudes(1 << (2 * newW));
+		for (int row = 0; row < oldDim; row++) {
+			for (int column = 0; column < oldDim; column++) {
+				long index = ((long) column << w) | row;
+				double real = fused.getReal(index);
+				double imag = fused.getImag(index);
+				if (real == 0 && imag == 0)
+					continue;
+				for (int extra = 0; extra < addedDim; extra++) {
+					long newRow = ((long) row << added) | extra;
+					long newColumn = ((long) column << added) | extra;
+					widened.set((newColumn << newW) | newRow, real, imag);
+				}
+			}
+		}
+		window = ordered;
+		fused = widened;
+	}
+	
+	private static Amplitudes identity(int width) {
+		int dim = 1 << width;
+		Amplitudes identity = new HeapAmplitudes(1 << (2 * width));
+		for (int i = 0; i < dim; i++)
+			identity.set(((long) i << width) | i, 1, 0);
+		return identity;
+	}
+	
+	private int positionOf(int reg) {
+		return positionIn(window, reg);
+	}
+	
+	private static int positionIn(int[] regs, int reg) {
+		return positionIn(regs, regs.length, reg);
+	}
+	
+	private static int positionIn(int[] regs, int size, int reg) {
+		for (int i = 0; i < size; i++)
+			if (regs[i] == reg)
+				return i;
+		return -1;
+	}
+	
+	private static int[] qubitsOf(int[] targets, Control[] qcs) {
+		int[] qubits = targets.clone();
+		for (Control c : qcs)
+			qubits = union(qubits, new int[] {c.getRegister()});
+		return qubits;
+	}
+	
+	private static int[] union(int[] first, int[] second) {
+		int[] union = new int[first.length + second.length];
+		System.arraycopy(first, 0, union, 0, first.length);
+		int size = first.length;
+		for (int reg : second)
+			if (positionIn(union, size, reg) < 0)
+				union[size++] = reg;
+		return Arrays.copyOf(union, size);
+	}
+}
@@ -0,0 +1,682 @@
+package appFX.framework.simulator;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import appFX.framework.exportGates.Control;
+import mathLib.Complex;
+import mathLib.Matrix;
+import utils.customMaps.IntIndexMap;
+
+/**
+ * A gate application compiled against a register of a fixed size. <br>
+ * The target offsets, control masks and the primitive matrix are computed once so that
+ * applying the gate is a single sweep over the amplitudes that does not allocate.
+ * <p>
+ * Registers follow the {@link StateMatrix} convention: register <code>r</code> is bit
+ * <code>numQubits - 1 - r</code> of an amplitude index and the first target is the most
+ * significant bit of a matrix index.
+ * <p>
+ * Every value of the unfixed bits selects an independent block of amplitudes, so a sweep
+ * can be split into contiguous ranges of blocks and run on a {@link ForkJoinPool}.
+ * <p>
+ * {@link #compile(double[], double[], int[], Control[], int)} inspects the matrix and picks a
+ * kernel for its {@link Kind}: diagonal and permutation matrices only touch the amplitudes they
+ * change, and one and two qubit matrices are unrolled into local variables.
+ *
+ * @author quantumresearch
+ *
+ */
+public abstract class GateKernel {
+	private static final int MIN_BLOCKS_PER_TASK = 1 << 11;
+
+	public static enum Kind {
+		DIAGONAL, PERMUTATION, SINGLE_QUBIT, TWO_QUBIT, DENSE;
+	}
+
+	private final int numQubits;
+	private final int dimension;
+	private final int[] fixedBits;
+	private final long controlValue;
+	private final long iterations;
+	final long[] targetOffsets;
+
+	private GateKernel(int[] targets, Control[] qcs, int numQubits) {
+		this.numQubits = numQubits;
+		this.dimension = 1 << targets.length;
+
+		long targetMask = 0;
+		for (int reg : targets)
+			targetMask |= bitOf(reg);
+
+		long negatedZeroEntries = 0;
+		long negatedOneEntries = 0;
+		for (Control c : qcs) {
+			long bit = bitOf(c.getRegister());
+			if ((bit & targetMask) != 0)
+				continue;
+			if (c.getControlStatus() == Control.CONTROL_TRUE)
+				negatedZeroEntries |= bit;
+			else
+				negatedOneEntries |= bit;
+		}
+		long controlMask = negatedZeroEntries | negatedOneEntries;
+		this.controlValue = negatedZeroEntries & ~negatedOneEntries;
+
+		this.targetOffsets = new long[dimension];
+		for (int local = 0; local < dimension; local++) {
+			long offset = 0;
+			for (int i = 0; i < targets.length; i++)
+				if ((local & (1 << (targets.length - 1 - i))) != 0)
+					offset |= bitOf(targets[i]);
+			targetOffsets[local] = offset;
+		}
+
+		long fixedMask = targetMask | controlMask;
+		this.fixedBits = new int[Long.bitCount(fixedMask)];
+		for (int bit = 0, i = 0; bit < numQubits; bit++)
+			if ((fixedMask & (1L << bit)) != 0)
+				fixedBits[i++] = bit;
+		this.iterations = 1L << (numQubits - fixedBits.length);
+	}
+
+	/**
+	 * @param realMatrix row major real components of the gate matrix
+	 * @param imagMatrix row major imaginary components of the gate matrix
+	 * @param targets the global registers the gate acts on, in matrix order
+	 * @param qcs the quantum controls of the gate
+	 * @param numQubits the size of the register this kernel will be applied to
+	 * @return the most specific kernel for the matrix
+	 */
+	public static GateKernel compile(double[] realMatrix, double[] imagMatrix, int[] targets, Control[] qcs, int numQubits) {
+		int dim = 1 << targets.length;
+		if (isDiagonal(realMatrix, imagMatrix, dim))
+			return new DiagonalKernel(realMatrix, imagMatrix, targets, qcs, numQubits);
+		int[] sources = permutationSources(realMatrix, imagMatrix, dim);
+		if (sources != null)
+			return new PermutationKernel(realMatrix, imagMatrix, sources, targets, qcs, numQubits);
+		if (targets.length == 1)
+			return new SingleQubitKernel(realMatrix, imagMatrix, targets, qcs, numQubits);
+		if (targets.length == 2)
+			return new TwoQubitKernel(realMatrix, imagMatrix, targets, qcs, numQubits);
+		return new DenseKernel(realMatrix, imagMatrix, targets, qcs, numQubits);
+	}
+
+	public static GateKernel compile(Matrix<Complex> matrix, IntIndexMap regIndexMap, Control[] qcs, int numQubits) {
+		double[][] comps = split(matrix);
+		int[] targets = regIndexMap.toArray();
+		return compile(comps[0], comps[1], targets, qcs, numQubits);
+	}
+
+	public int getNumQubits() {
+		return numQubits;
+	}
+
+	public int getDimension() {
+		return dimension;
+	}
+
+	public abstract Kind getKind();
+
+	void apply(Amplitudes amplitudes) {
+		applyBlocks(amplitudes, 0, iterations);
+	}
+
+	void apply(Amplitudes amplitudes, ForkJoinPool pool) {
+		long minBlocks = Math.max(MIN_BLOCKS_PER_TASK, iterations / (pool.getParallelism() * 4));
+		if (iterations <= minBlocks)
+			apply(amplitudes);
+		else
+			pool.invoke(new Sweep(amplitudes, 0, iterations, minBlocks));
+	}
+
+	/**
+	 * @return whether every amplitude is in a block, that is whether the gate has no quantum controls
+	 */
+	boolean coversAllAmplitudes() {
+		return (iterations << Integer.numberOfTrailingZeros(dimension)) == (1L << numQubits);
+	}
+	
+	/**
+	 * Sums <code>v v&dagger;</code> over the target amplitudes <code>v</code> of every block, which gives the
+	 * probability of any operator on the targets without applying it.
+	 * @param amplitudes
+	 * @return the row major real components of the sum followed by its imaginary components
+	 */
+	double[] targetDensity(Amplitudes amplitudes) {
+		return crossDensity(amplitudes, amplitudes, 0, iterations);
+	}
+	
+	double[] targetDensity(Amplitudes amplitudes, ForkJoinPool pool) {
+		return crossDensity(amplitudes, amplitudes, pool);
+	}
+	
+	/**
+	 * Sums <code>u w&dagger;</code> over the target amplitudes <code>u</code> of one state and <code>w</code> of another
+	 * in every block, which gives &lt;w|M|u&gt; of any operator on the targets as the trace of M times the sum.
+	 * @param left the state of <code>u</code>
+	 * @param right the state of <code>w</code>
+	 * @return the row major real components of the sum followed by its imaginary components
+	 */
+	double[] crossDensity(Amplitudes left, Amplitudes right) {
+		return crossDensity(left, right, 0, iterations);
+	}
+	
+	double[] crossDensity(Amplitudes left, Amplitudes right, ForkJoinPool pool) {
+		long minBlocks = Math.max(MIN_BLOCKS_PER_TASK, iterations / (pool.getParallelism() * 4));
+		if (iterations <= minBlocks)
+			return crossDensity(left, right);
+		return pool.invoke(new ReductionSweep((from, to) -> crossDensity(left, right, from, to), 0, iterations, minBlocks));
+	}
+	
+	private double[] crossDensity(Amplitudes left, Amplitudes right, long fromBlock, long toBlock) {
+		int dim = dimension;
+		int size = dim * dim;
+		double[] density = new double[2 * size];
+		double[] real = new double[dim];
+		double[] imag = new double[dim];
+		double[] rightReal = left == right ? real : new double[dim];
+		double[] rightImag = left == right ? imag : new double[dim];
+		for (long k = fromBlock; k < toBlock; k++) {
+			long base = blockBase(k);
+			for (int i = 0; i < dim; i++) {
+				real[i] = left.getReal(base | targetOffsets[i]);
+				imag[i] = left.getImag(base | targetOffsets[i]);
+			}
+			if (left != right) {
+				for (int i = 0; i < dim; i++) {
+					rightReal[i] = right.getReal(base | targetOffsets[i]);
+					rightImag[i] = right.getImag(base | targetOffsets[i]);
+				}
+			}
+			for (int row = 0; row < dim; row++) {
+				double rr = real[row];
+				double ri = imag[row];
+				if (rr == 0 && ri == 0)
+					continue;
+				for (int column = 0; column < dim; column++) {
+					density[row * dim + column] += rr * rightReal[column] + ri * rightImag[column];
+					density[size + row * dim + column] += ri * rightReal[column] - rr * rightImag[column];
+				}
+			}
+		}
+		return density;
+	}
+	
+	/**
+	 * Sums the squared magnitude of the amplitude at every target index over the blocks, which is the diagonal of
+	 * {@link #targetDensity(Amplitudes)} without the rest of it.
+	 * @param amplitudes
+	 * @return the sum at each target index
+	 */
+	double[] targetProbabilities(Amplitudes amplitudes) {
+		return targetProbabilities(amplitudes, 0, iterations);
+	}
+	
+	double[] targetProbabilities(Amplitudes amplitudes, ForkJoinPool pool) {
+		long minBlocks = Math.max(MIN_BLOCKS_PER_TASK, iterations / (pool.getParallelism() * 4));
+		if (iterations <= minBlocks)
+			return targetProbabilities(amplitudes);
+		return pool.invoke(new ReductionSweep((from, to) -> targetProbabilities(amplitudes, from, to), 0, iterations, minBlocks));
+	}
+	
+	private double[] targetProbabilities(Amplitudes amplitudes, long fromBlock, long toBlock) {
+		double[] probabilities = new double[dimension];
+		for (long k = fromBlock; k < toBlock; k++) {
+			long base = blockBase(k);
+			for (int i = 0; i < dimension; i++) {
+				double real = amplitudes.getReal(base | targetOffsets[i]);
+				double imag = amplitudes.getImag(base | targetOffsets[i]);
+				probabilities[i] += real * real + imag * imag;
+			}
+		}
+		return probabilities;
+	}
+	
+	/**
+	 * @param targets
+	 * @param numQubits
+	 * @return the identity on the targets, whose blocks cover every amplitude, to sum the blocks of
+	 */
+	static GateKernel reduction(int[] targets, int numQubits) {
+		int dim = 1 << targets.length;
+		double[] realMatrix = new double[dim * dim];
+		for (int i = 0; i < dim; i++)
+			realMatrix[i * dim + i] = 1;
+		return compile(realMatrix, new double[dim * dim], targets, new Control[0], numQubits);
+	}
+	
+	/**
+	 * Applies the gate to the blocks <code>fromBlock</code> (inclusive) to <code>toBlock</code> (exclusive).
+	 */
+	abstract void applyBlocks(Amplitudes amplitudes, long fromBlock, long toBlock);
+
+	long blockBase(long block) {
+		return insertFixedBits(block) | controlValue;
+	}
+
+	@SuppressWarnings("serial")
+	private class Sweep extends RecursiveAction {
+		private final Amplitudes amplitudes;
+		private final long fromBlock, toBlock, minBlocks;
+
+		private Sweep(Amplitudes amplitudes, long fromBlock, long toBlock, long minBlocks) {
+			this.amplitudes = amplitudes;
+			this.fromBlock = fromBlock;
+			this.toBlock = toBlock;
+			this.minBlocks = minBlocks;
+		}
+
+		@Override
+		protected void compute() {
+			if (toBlock - fromBlock <= minBlocks) {
+				applyBlocks(amplitudes, fromBlock, toBlock);
+			} else {
+				long middle = (fromBlock + toBlock) >>> 1;
+				invokeAll(new Sweep(amplitudes, fromBlock, middle, minBlocks),
+						new Sweep(amplitudes, middle, toBlock, minBlocks));
+			}
+		}
+	}
+
+	// a sum over a range of blocks
+	private static interface BlockSum {
+		double[] sum(long fromBlock, long toBlock);
+	}
+	
+	@SuppressWarnings("serial")
+	private static class ReductionSweep extends RecursiveTask<double[]> {
+		private final BlockSum blockSum;
+		private final long fromBlock, toBlock, minBlocks;
+		
+		private ReductionSweep(BlockSum blockSum, long fromBlock, long toBlock, long minBlocks) {
+			this.blockSum = blockSum;
+			this.fromBlock = fromBlock;
+			this.toBlock = toBlock;
+			this.minBlocks = minBlocks;
+		}
+		
+		@Override
+		protected double[] compute() {
+			if (toBlock - fromBlock <= minBlocks)
+				return blockSum.sum(fromBlock, toBlock);
+			long middle = (fromBlock + toBlock) >>> 1;
+			ReductionSweep upper = new ReductionSweep(blockSum, middle, toBlock, minBlocks);
+			upper.fork();
+			double[] sums = new ReductionSweep(blockSum, fromBlock, middle, minBlocks).compute();
+			double[] upperSums = upper.join();
+			for (int i = 0; i < sums.length; i++)
+				sums[i] += upperSums[i];
+			return sums;
+		}
+	}
+	
+	// spreads the bits of k around the fixed bit positions, leaving zeros in their place
+	private long insertFixedBits(long k) {
+		for (int bit : fixedBits) {
+			long low = k & ((1L << bit) - 1);
+			k = ((k >>> bit) << (bit + 1)) | low;
+		}
+		return k;
+	}
+
+	private long bitOf(int reg) {
+		return 1L << (numQubits - 1 - reg);
+	}
+
+	static double[][] split(Matrix<Complex> matrix) {
+		int size = matrix.getRows();
+		double[] real = new double[size * size];
+		double[] imag = new double[size * size];
+		for (int row = 0; row < size; row++) {
+			for (int column = 0; column < size; column++) {
+				Complex c = matrix.v(row, column);
+				int index = row * size + column;
+				real[index] = c.getReal();
+				imag[index] = c.getImaginary();
+			}
+		}
+		return new double[][] {real, imag};
+	}
+
+	// the targets followed by every control that is not a target
+	static int[] localQubits(int[] targets, Control[] qcs) {
+		int[] local = new int[targets.length + qcs.length];
+		System.arraycopy(targets, 0, local, 0, targets.length);
+		int size = targets.length;
+		for (Control c : qcs) {
+			boolean present = false;
+			for (int i = 0; i < size; i++)
+				present |= local[i] == c.getRegister();
+			if (!present)
+				local[size++] = c.getRegister();
+		}
+		int[] trimmed = new int[size];
+		System.arraycopy(local, 0, trimmed, 0, size);
+		return trimmed;
+	}
+
+	// the controlled operator as a matrix over the local qubits, built by applying its kernel to each basis state
+	static double[][] localMatrix(double[] realMatrix, double[] imagMatrix, int[] targets, Control[] qcs, int[] local) {
+		int m = local.length;
+		int dim = 1 << m;
+		int[] localTargets = new int[targets.length];
+		for (int i = 0; i < targets.length; i++)
+			localTargets[i] = positionIn(local, targets[i]);
+		Control[] localControls = new Control[qcs.length];
+		for (int i = 0; i < qcs.length; i++)
+			localControls[i] = new Control(positionIn(local, qcs[i].getRegister()), qcs[i].getControlStatus());
+		GateKernel kernel = GateKernel.compile(realMatrix, imagMatrix, localTargets, localControls, m);
+
+		double[] real = new double[dim * dim];
+		double[] imag = new double[dim * dim];
+		for (int column = 0; column < dim; column++) {
+			Amplitudes basis = new HeapAmplitudes(dim);
+			basis.set(column, 1, 0);
+			kernel.apply(basis);
+			for (int row = 0; row < dim; row++) {
+				real[row * dim + column] = basis.getReal(row);
+				imag[row * dim + column] = basis.getImag(row);
+			}
+		}
+		return new double[][] {real, imag};
+	}
+
+	private static int positionIn(int[] regs, int reg) {
+		for (int i = 0; i < regs.length; i++)
+			if (regs[i] == reg)
+				return i;
+		return -1;
+	}
+
+	private static boolean isDiagonal(double[] realMatrix, double[] imagMatrix, int dim) {
+		for (int r = 0; r < dim; r++)
+			for (int c = 0; c < dim; c++)
+				if (r != c && (realMatrix[r * dim + c] != 0 || imagMatrix[r * dim + c] != 0))
+					return false;
+		return true;
+	}
+
+	// for a matrix with exactly one non-zero entry per row and column, the column of each row's entry
+	private static int[] permutationSources(double[] realMatrix, double[] imagMatrix, int dim) {
+		int[] sources = new int[dim];
+		boolean[] used = new boolean[dim];
+		for (int r = 0; r < dim; r++) {
+			sources[r] = -1;
+			for (int c = 0; c < dim; c++) {
+				if (realMatrix[r * dim + c] == 0 && imagMatrix[r * dim + c] == 0)
+					continue;
+				if (sources[r] != -1 || used[c])
+					return null;
+				sources[r] = c;
+				used[c] = true;
+			}
+			if (sources[r] == -1)
+				return null;
+		}
+		return sources;
+	}
+
+	private static final class DiagonalKernel extends GateKernel {
+		private final long[] offsets;
+		private final double[] realPhases;
+		private final double[] imagPhases;
+
+		private DiagonalKernel(double[] realMatrix, double[] imagMatrix, int[] targets, Control[] qcs, int numQubits) {
+			super(targets, qcs, numQubits);
+			int dim = getDimension();
+			long[] offsets = new long[dim];
+			double[] realPhases = new double[dim];
+			double[] imagPhases = new double[dim];
+			int active = 0;
+			for (int j = 0; j < dim; j++) {
+				double pr = realMatrix[j * dim + j];
+				double pi = imagMatrix[j * dim + j];
+				if (pr == 1 && pi == 0)
+					continue;
+				offsets[active] = targetOffsets[j];
+				realPhases[active] = pr;
+				imagPhases[active++] = pi;
+			}
+			this.offsets = Arrays.copyOf(offsets, active);
+			this.realPhases = Arrays.copyOf(realPhases, active);
+			this.imagPhases = Arrays.copyOf(imagPhases, active);
+		}
+
+		@Override
+		public Kind getKind() {
+			return Kind.DIAGONAL;
+		}
+
+		@Override
+		void applyBlocks(Amplitudes amplitudes, long fromBlock, long toBlock) {
+			if (offsets.length == 0)
+				return;
+			for (long k = fromBlock; k < toBlock; k++) {
+				long base = blockBase(k);
+				for (int j = 0; j < offsets.length; j++) {
+					long index = base | offsets[j];
+					double vr = amplitudes.getReal(index);
+					double vi = amplitudes.getImag(index);
+					double pr = realPhases[j];
+					double pi = imagPhases[j];
+					amplitudes.set(index, pr * vr - pi * vi, pr * vi + pi * vr);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The matrix maps each column to a single row, scaled by a phase. The permutation is stored as its
+	 * cycles so that every cycle can be rotated in place while holding only its first amplitude aside.
+	 */
+	private static final class PermutationKernel extends GateKernel {
+		private final long[] cycleOffsets;
+		private final double[] realPhases;
+		private final double[] imagPhases;
+		private final int[] cycleEnds;
+
+		private PermutationKernel(double[] realMatrix, double[] imagMatrix, int[] sources, int[] targets, Control[] qcs, int numQubits) {
+			super(targets, qcs, numQubits);
+			int dim = getDimension();
+			boolean[] visited = new boolean[dim];
+			long[] offsets = new long[dim];
+			double[] realPhases = new double[dim];
+			double[] imagPhases = new double[dim];
+			int[] cycleEnds = new int[dim];
+			int length = 0, cycles = 0;
+			for (int start = 0; start < dim; start++) {
+				if (visited[start])
+					continue;
+				if (sources[start] == start) {
+					visited[start] = true;
+					if (realMatrix[start * dim + start] == 1 && imagMatrix[start * dim + start] == 0)
+						continue;
+				}
+				// each row of the cycle takes its amplitude from the row that follows it
+				int row = start;
+				do {
+					visited[row] = true;
+					offsets[length] = targetOffsets[row];
+					realPhases[length] = realMatrix[row * dim + sources[row]];
+					imagPhases[length++] = imagMatrix[row * dim + sources[row]];
+					row = sources[row];
+				} while (row != start);
+				cycleEnds[cycles++] = length;
+			}
+			this.cycleOffsets = Arrays.copyOf(offsets, length);
+			this.realPhases = Arrays.copyOf(realPhases, length);
+			this.imagPhases = Arrays.copyOf(imagPhases, length);
+			this.cycleEnds = Arrays.copyOf(cycleEnds, cycles);
+		}
+
+		@Override
+		public Kind getKind() {
+			return Kind.PERMUTATION;
+		}
+
+		@Override
+		void applyBlocks(Amplitudes amplitudes, long fromBlock, long toBlock) {
+			for (long k = fromBlock; k < toBlock; k++) {
+				long base = blockBase(k);
+				int start = 0;
+				for (int end : cycleEnds) {
+					long first = base | cycleOffsets[start];
+					double firstReal = amplitudes.getReal(first);
+					double firstImag = amplitudes.getImag(first);
+					for (int j = start; j < end; j++) {
+						double vr, vi;
+						if (j + 1 < end) {
+							long source = base | cycleOffsets[j + 1];
+							vr = amplitudes.getReal(source);
+							vi = amplitudes.getImag(source);
+						} else {
+							vr = firstReal;
+							vi = firstImag;
+						}
+						double pr = realPhases[j];
+						double pi = imagPhases[j];
+						amplitudes.set(base | cycleOffsets[j], pr * vr - pi * vi, pr * vi + pi * vr);
+					}
+					start = end;
+				}
+			}
+		}
+	}
+
+	private static final class SingleQubitKernel extends GateKernel {
+		private final double r00, i00, r01, i01, r10, i10, r11, i11;
+		private final long offset;
+
+		private SingleQubitKernel(double[] realMatrix, double[] imagMatrix, int[] targets, Control[] qcs, int numQubits) {
+			super(targets, qcs, numQubits);
+			this.r00 = realMatrix[0];
+			this.i00 = imagMatrix[0];
+			this.r01 = realMatrix[1];
+			this.i01 = imagMatrix[1];
+			this.r10 = realMatrix[2];
+			this.i10 = imagMatrix[2];
+			this.r11 = realMatrix[3];
+			this.i11 = imagMatrix[3];
+			this.offset = targetOffsets[1];
+		}
+
+		@Override
+		public Kind getKind() {
+			return Kind.SINGLE_QUBIT;
+		}
+
+		@Override
+		void applyBlocks(Amplitudes amplitudes, long fromBlock, long toBlock) {
+			for (long k = fromBlock; k < toBlock; k++) {
+				long index0 = blockBase(k);
+				long index1 = index0 | offset;
+				double ar = amplitudes.getReal(index0);
+				double ai = amplitudes.getImag(index0);
+				double br = amplitudes.getReal(index1);
+				double bi = amplitudes.getImag(index1);
+				amplitudes.set(index0, r00 * ar - i00 * ai + r01 * br - i01 * bi,
+						r00 * ai + i00 * ar + r01 * bi + i01 * br);
+				amplitudes.set(index1, r10 * ar - i10 * ai + r11 * br - i11 * bi,
+						r10 * ai + i10 * ar + r11 * bi + i11 * br);
+			}
+		}
+	}
+
+	private static final class TwoQubitKernel extends GateKernel {
+		private final double[] realMatrix;
+		private final double[] imagMatrix;
+		private final long offset1, offset2, offset3;
+
+		private TwoQubitKernel(double[] realMatrix, double[] imagMatrix, int[] targets, Control[] qcs, int numQubits) {
+			super(targets, qcs, numQubits);
+			this.realMatrix = realMatrix;
+			this.imagMatrix = imagMatrix;
+			this.offset1 = targetOffsets[1];
+			this.offset2 = targetOffsets[2];
+			this.offset3 = targetOffsets[3];
+		}
+
+		@Override
+		public Kind getKind() {
+			return Kind.TWO_QUBIT;
+		}
+
+		@Override
+		void applyBlocks(Amplitudes amplitudes, long fromBlock, long toBlock) {
+			double[] mr = realMatrix;
+			double[] mi = imagMatrix;
+			for (long k = fromBlock; k < toBlock; k++) {
+				long index0 = blockBase(k);
+				long index1 = index0 | offset1;
+				long index2 = index0 | offset2;
+				long index3 = index0 | offset3;
+				double ar = amplitudes.getReal(index0);
+				double ai = amplitudes.getImag(index0);
+				double br = amplitudes.getReal(index1);
+				double bi = amplitudes.getImag(index1);
+				double cr = amplitudes.getReal(index2);
+				double ci = amplitudes.getImag(index2);
+				double dr = amplitudes.getReal(index3);
+				double di = amplitudes.getImag(index3);
+				for (int r = 0; r < 4; r++) {
+					int row = r << 2;
+					double sumReal = mr[row] * ar - mi[row] * ai + mr[row + 1] * br - mi[row + 1] * bi
+							+ mr[row + 2] * cr - mi[row + 2] * ci + mr[row + 3] * dr - mi[row + 3] * di;
+					double sumImag = mr[row] * ai + mi[row] * ar + mr[row + 1] * bi + mi[row + 1] * br
+							+ mr[row + 2] * ci + mi[row + 2] * cr + mr[row + 3] * di + mi[row + 3] * dr;
+					amplitudes.set(index0 | targetOffsets[r], sumReal, sumImag);
+				}
+			}
+		}
+	}
+
+	private static final class DenseKernel extends GateKernel {
+		private final double[] realMatrix;
+		private final double[] imagMatrix;
+
+		private DenseKernel(double[] realMatrix, double[] imagMatrix, int[] targets, Control[] qcs, int numQubits) {
+			super(targets, qcs, numQubits);
+			this.realMatrix = realMatrix;
+			this.imagMatrix = imagMatrix;
+		}
+
+		@Override
+		public Kind getKind() {
+			return Kind.DENSE;
+		}
+
+		@Override
+		void applyBlocks(Amplitudes amplitudes, long fromBlock, long toBlock) {
+			int dim = getDimension();
+			double[] realBuffer = new double[dim];
+			double[] imagBuffer = new double[dim];
+			for (long k = fromBlock; k < toBlock; k++) {
+				long base = blockBase(k);
+
+				for (int j = 0; j < dim; j++) {
+					long index = base | targetOffsets[j];
+					realBuffer[j] = amplitudes.getReal(index);
+					imagBuffer[j] = amplitudes.getImag(index);
+				}
+
+				for (int r = 0; r < dim; r++) {
+					int row = r * dim;
+					double sumReal = 0;
+					double sumImag = 0;
+					for (int c = 0; c < dim; c++) {
+						double mr = realMatrix[row + c];
+						double mi = imagMatrix[row + c];
+						double vr = realBuffer[c];
+						double vi = imagBuffer[c];
+						sumReal += mr * vr - mi * vi;
+						sumImag += mr * vi + mi * vr;
+					}
+					amplitudes.set(base | targetOffsets[r], sumReal, sumImag);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,197 @@
+package appFX.framework.simulator;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import appFX.framework.gateModels.BasicGateModel;
+import appFX.framework.gateModels.GateModel;
+import appFX.framework.utils.InputDefinitions.ArgObject;
+import appFX.framework.utils.InputDefinitions.MathObject;
+import appFX.framework.utils.InputDefinitions.MatrixObject;
+import mathLib.Complex;
+import mathLib.MathValue;
+import mathLib.Matrix;
+import mathLib.expression.Expression.EvaluateExpressionException;
+import mathLib.expression.MathSet;
+import utils.customCollections.immutableLists.ImmutableArray;
+
+/**
+ * Holds the evaluated matrices of quantum gates so that a gate applied again with the same parameter values
+ * is not evaluated and unboxed again. <br>
+ * Entries are keyed on the gate model and the values its parameters are bound to, and the least recently used
+ * entry is dropped once the cache holds more than its capacity.
+ * Gates with a parameter bound to something other than a scalar are evaluated every time.
+ *
+ * @author quantumresearch
+ *
+ */
+public class GateMatrixCache {
+	private static final double[] NO_VALUES = new double[0];
+	
+	private final int capacity;
+	private final LinkedHashMap<Key, Entry> entries;
+	private long hits = 0;
+	private long misses = 0;
+	
+	public GateMatrixCache(int capacity) {
+		this.capacity = capacity;
+		this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = -2147520861862203741L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+				return size() > GateMatrixCache.this.capacity;
+			}
+		};
+	}
+	
+	/**
+	 * @param gm a quantum gate
+	 * @param mathSet the set the gate's parameters are bound in
+	 * @return the gate's matrices evaluated with the values its parameters are bound to
+	 * @throws EvaluateExpressionException
+	 */
+	public Entry get(GateModel gm, MathSet mathSet) throws EvaluateExpressionException {
+		ImmutableArray<String> parameters = gm.getParameters();
+		double[] values = parameters.size() == 0 ? NO_VALUES : new double[2 * parameters.size()];
+		for (int i = 0; i < parameters.size(); i++) {
+			MathValue value = mathSet.computeVariable(parameters.get(i));
+			if (!(value instanceof Complex)) {
+				synchronized (this) {
+					misses++;
+				}
+				return evaluate(gm, mathSet);
+			}
+			values[2 * i] = ((Complex) value).getReal();
+			values[2 * i + 1] = ((Complex) value).getImaginary();
+		}
+		
+		Key key = new Key(gm, values);
+		synchronized (this) {
+			Entry entry = capacity > 0 ? entries.get(key) : null;
+			if (entry != null) {
+				hits++;
+				return entry;
+			}
+			misses++;
+		}
+		
+		Entry entry = evaluate(gm, mathSet);
+		if (capacity > 0) {
+			synchronized (this) {
+				entries.put(key, entry);
+			}
+		}
+		return entry;
+	}
+	
+	public synchronized long getHits() {
+		return hits;
+	}
+	
+	public synchronized long getMisses() {
+		return misses;
+	}
+	
+	public synchronized int size() {
+		return entries.size();
+	}
+	
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	public synchronized void clear() {
+		entries.clear();
+		hits = 0;
+		misses = 0;
+	}
+	
+	private static Entry evaluate(GateModel gm, MathSet mathSet) throws EvaluateExpressionException {
+		ImmutableArray<MathObject> definitions = ((BasicGateModel) gm).getQuantumGateDefinition().getDefinitions();
+		Matrix<Complex>[] matrixes = newMatrixArray(definitions.size());
+		for (int i = 0; i < matrixes.length; i++) {
+			MathObject mo = definitions.get(i);
+			if (mo.hasArguments())
+				matrixes[i] = toComplexMatrix(((ArgObject) mo).getDefinition().compute(mathSet));
+			else
+				matrixes[i] = ((MatrixObject) mo).getMatrix();
+		}
+		return new Entry(matrixes);
+	}
+	
+	// a quantum gate definition only ever evaluates to a matrix of complex entries
+	@SuppressWarnings("unchecked")
+	private static Matrix<Complex> toComplexMatrix(MathValue value) {
+		return (Matrix<Complex>) value;
+	}
+	
+	// generic arrays cannot be made directly, and every slot is filled with a complex matrix before it is read
+	@SuppressWarnings("unchecked")
+	private static Matrix<Complex>[] newMatrixArray(int size) {
+		return (Matrix<Complex>[]) new Matrix<?>[size];
+	}
+	
+	
+	/**
+	 * The matrices of a gate, both as {@link Matrix} objects and as row major primitive arrays.
+	 */
+	public static class Entry {
+		private final Matrix<Complex>[] matrixes;
+		private final double[][] realMatrixes;
+		private final double[][] imagMatrixes;
+		
+		private Entry(Matrix<Complex>[] matrixes) {
+			this.matrixes = matrixes;
+			this.realMatrixes = new double[matrixes.length][];
+			this.imagMatrixes = new double[matrixes.length][];
+			for (int i = 0; i < matrixes.length; i++) {
+				double[][] comps = GateKernel.split(matrixes[i]);
+				realMatrixes[i] = comps[0];
+				imagMatrixes[i] = comps[1];
+			}
+		}
+		
+		public int size() {
+			return matrixes.length;
+		}
+		
+		public Matrix<Complex> getMatrix(int i) {
+			return matrixes[i];
+		}
+		
+		public double[] getReal(int i) {
+			return realMatrixes[i];
+		}
+		
+		public double[] getImag(int i) {
+			return imagMatrixes[i];
+		}
+	}
+	
+	private static class Key {
+		private final GateModel gm;
+		private final double[] values;
+		private final int hash;
+		
+		private Key(GateModel gm, double[] values) {
+			this.gm = gm;
+			this.values = values;
+			this.hash = 31 * System.identityHashCode(gm) + Arrays.hashCode(values);
+		}
+		
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return gm == other.gm && Arrays.equals(values, other.values);
+		}
+	}
+}
@@ -0,0 +1,43 @@
+package appFX.framework.simulator;
+
+/**
+ * {@link Amplitudes} kept in two primitive arrays on the heap.
+ *
+ * @author quantumresearch
+ *
+ */
+public final class HeapAmplitudes extends Amplitudes {
+	private final double[] real;
+	private final double[] imag;
+	
+	HeapAmplitudes(int length) {
+		this(new double[length], new double[length]);
+	}
+	
+	private HeapAmplitudes(double[] real, double[] imag) {
+		super(real.length);
+		this.real = real;
+		this.imag = imag;
+	}
+	
+	@Override
+	public double getReal(long index) {
+		return real[(int) index];
+	}
+	
+	@Override
+	public double getImag(long index) {
+		return imag[(int) index];
+	}
+	
+	@Override
+	public void set(long index, double real, double imag) {
+		this.real[(int) index] = real;
+		this.imag[(int) index] = imag;
+	}
+	
+	@Override
+	public Amplitudes copy() {
+		return new HeapAmplitudes(real.clone(), imag.clone());
+	}
+}
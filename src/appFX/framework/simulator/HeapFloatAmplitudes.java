@@ -0,0 +1,44 @@
+package appFX.framework.simulator;
+
+/**
+ * Single precision {@link Amplitudes} kept in two primitive arrays on the heap. <br>
+ * Values are rounded to <code>float</code> when stored; kernels still compute in double precision.
+ *
+ * @author quantumresearch
+ *
+ */
+public final class HeapFloatAmplitudes extends Amplitudes {
+	private final float[] real;
+	private final float[] imag;
+	
+	HeapFloatAmplitudes(int length) {
+		this(new float[length], new float[length]);
+	}
+	
+	private HeapFloatAmplitudes(float[] real, float[] imag) {
+		super(real.length);
+		this.real = real;
+		this.imag = imag;
+	}
+	
+	@Override
+	public double getReal(long index) {
+		return real[(int) index];
+	}
+	
+	@Override
+	public double getImag(long index) {
+		return imag[(int) index];
+	}
+	
+	@Override
+	public void set(long index, double real, double imag) {
+		this.real[(int) index] = (float) real;
+		this.imag[(int) index] = (float) imag;
+	}
+	
+	@Override
+	public Amplitudes copy() {
+		return new HeapFloatAmplitudes(real.clone(), imag.clone());
+	}
+}
@@ -0,0 +1,110 @@
+package appFX.framework.simulator;
+
+import appFX.framework.exportGates.Control;
+import mathLib.Complex;
+import mathLib.Matrix;
+
+/**
+ * An {@link Observable} given by a Hermitian matrix on a few registers. <br>
+ * The expectation is taken from the density of the targets, see {@link GateKernel#targetDensity(Amplitudes)},
+ * so the state is not copied.
+ *
+ * @author quantumresearch
+ *
+ */
+public class LocalOperator implements Observable {
+	private static final Control[] NO_CONTROLS = new Control[0];
+	
+	private final double[] realMatrix;
+	private final double[] imagMatrix;
+	private final int[] targets;
+	
+	/**
+	 * @param realMatrix row major real components of the matrix
+	 * @param imagMatrix row major imaginary components of the matrix
+	 * @param targets the registers the matrix acts on, the first being the most significant bit of a matrix index
+	 */
+	public LocalOperator(double[] realMatrix, double[] imagMatrix, int ... targets) {
+		int dim = 1 << targets.length;
+		if (realMatrix.length != dim * dim || imagMatrix.length != dim * dim)
+			throw new IllegalArgumentException("A matrix on " + targets.length + " registers must be " + dim + " by " + dim);
+		this.realMatrix = realMatrix.clone();
+		this.imagMatrix = imagMatrix.clone();
+		this.targets = targets.clone();
+	}
+	
+	public LocalOperator(Matrix<Complex> matrix, int ... targets) {
+		this(GateKernel.split(matrix), targets);
+	}
+	
+	private LocalOperator(double[][] comps, int[] targets) {
+		this(comps[0], comps[1], targets);
+	}
+	
+	public int[] getTargets() {
+		return targets.clone();
+	}
+	
+	/**
+	 * @return the sum of Pauli strings on the targets equal to the matrix, whose coefficients are
+	 * Tr(PM) / 2<sup>n</sup>. The matrix must be Hermitian for them to be real.
+	 */
+	public PauliSum toPauliSum() {
+		int n = targets.length;
+		int dim = 1 << n;
+		PauliSum sum = new PauliSum();
+		char[] paulis = new char[n];
+		for (int string = 0; string < 1 << (2 * n); string++) {
+			// two bits of the string choose the Pauli matrix of each target, the first target being the most significant
+			int x = 0;
+			int z = 0;
+			int numY = 0;
+			for (int i = 0; i < n; i++) {
+				char pauli = "IXYZ".charAt((string >>> (2 * (n - 1 - i))) & 3);
+				paulis[i] = pauli;
+				if (pauli == 'X' || pauli == 'Y')
+					x |= 1 << (n - 1 - i);
+				if (pauli == 'Z' || pauli == 'Y')
+					z |= 1 << (n - 1 - i);
+				if (pauli == 'Y')
+					numY++;
+			}
+			
+			// Tr(PM) is the sum over j of the entry of P at (j ^ x, j) times the entry of M at (j, j ^ x)
+			double traceReal = 0;
+			double traceImag = 0;
+			for (int j = 0; j < dim; j++) {
+				double sign = (Integer.bitCount(j & z) & 1) == 0 ? 1 : -1;
+				traceReal += sign * realMatrix[j * dim + (j ^ x)];
+				traceImag += sign * imagMatrix[j * dim + (j ^ x)];
+			}
+			// times i to the number of Y matrices, keeping the real part
+			switch (numY & 3) {
+			case 1: traceReal = -traceImag; break;
+			case 2: traceReal = -traceReal; break;
+			case 3: traceReal = traceImag; break;
+			default: break;
+			}
+			if (traceReal != 0)
+				sum.add(traceReal / dim, new PauliString(new String(paulis), targets));
+		}
+		return sum;
+	}
+	
+	@Override
+	public double expectation(StateMatrix sm) {
+		double[] density = sm.targetDensity(compile(sm));
+		return QuantumState.povmProbability(realMatrix, imagMatrix, density, 1 << targets.length);
+	}
+	
+	@Override
+	public StateMatrix apply(StateMatrix sm) {
+		StateMatrix result = sm.copy();
+		result.apply(compile(sm));
+		return result;
+	}
+	
+	private GateKernel compile(StateMatrix sm) {
+		return GateKernel.compile(realMatrix, imagMatrix, targets, NO_CONTROLS, sm.getNumQubits());
+	}
+}
@@ -0,0 +1,597 @@
+package appFX.framework.simulator;
+
+import java.util.SplittableRandom;
+
+import Jama.Matrix;
+import Jama.SingularValueDecomposition;
+import appFX.framework.exportGates.Control;
+import appFX.framework.gateModels.BasicGateModel;
+import appFX.framework.gateModels.GateModel;
+import appFX.framework.gateModels.QuantumGateDefinition;
+import mathLib.expression.Expression.EvaluateExpressionException;
+import mathLib.expression.MathSet;
+import utils.customMaps.IntIndexMap;
+
+/**
+ * A pure state held as a matrix product state, a chain of one tensor per qubit whose size is bounded by the
+ * entanglement across each cut of the chain rather than by <code>2^n</code>. <br>
+ * The tensor of a site has the shape <code>(left bond, 2, right bond)</code> and is stored row major as
+ * separate real and imaginary arrays. The chain is kept in mixed canonical form around one site, so the weights
+ * dropped by a singular value decomposition of a block that holds that site are exactly the error it causes.
+ * <p>
+ * A gate is applied by swapping the qubits it touches next to each other, contracting them into one block,
+ * multiplying the block by the gate and splitting it back into sites. Every split keeps at most
+ * {@link SimulatorSettings#getMaxBondDimension()} singular values and drops those whose weight is below
+ * {@link SimulatorSettings#getTruncationThreshold()}, and the dropped weight is added to
+ * {@link #getTruncationError()}. Qubits are not swapped back, so the site of a register can change over a run.
+ * <p>
+ * The singular value decompositions come from {@link Jama}, which only handles real matrices: a complex matrix
+ * <code>A + iB</code> is decomposed as the real matrix <code>[[A, -B], [B, A]]</code>, whose singular vectors come
+ * in pairs <code>v</code> and <code>iv</code>, and one vector of each pair is kept by Gram-Schmidt.
+ *
+ * @author quantumresearch
+ *
+ */
+public class MatrixProductState implements State {
+	// the norm a candidate singular vector keeps after Gram-Schmidt if it is not the partner of a kept vector
+	private static final double INDEPENDENT_NORM = 0.1;
+	
+	private final int numQubits;
+	private final double[][] reals;
+	private final double[][] imags;
+	private final int[] bonds;
+	private final int[] siteOf;
+	private final int[] qubitAt;
+	private final int maxBondDimension;
+	private final double truncationThreshold;
+	private final SplittableRandom random;
+	private final GateMatrixCache matrixCache;
+	private int center = 0;
+	private double truncationError = 0;
+	
+	public MatrixProductState(int numQubits) {
+		this(numQubits, new SimulatorSettings());
+	}
+	
+	public MatrixProductState(int numQubits, SimulatorSettings settings) {
+		this(numQubits, settings, new GateMatrixCache(settings.getMatrixCacheSize()));
+	}
+	
+	MatrixProductState(int numQubits, SimulatorSettings settings, GateMatrixCache matrixCache) {
+		this.numQubits = numQubits;
+		this.reals = new double[numQubits][];
+		this.imags = new double[numQubits][];
+		this.bonds = new int[numQubits + 1];
+		this.siteOf = new int[numQubits];
+		this.qubitAt = new int[numQubits];
+		this.maxBondDimension = settings.getMaxBondDimension();
+		this.truncationThreshold = settings.getTruncationThreshold();
+		this.random = settings.newRandom();
+		this.matrixCache = matrixCache;
+		
+		bonds[numQubits] = 1;
+		for (int i = 0; i < numQubits; i++) {
+			reals[i] = new double[] {1, 0};
+			imags[i] = new double[2];
+			bonds[i] = 1;
+			siteOf[i] = i;
+			qubitAt[i] = i;
+		}
+	}
+	
+	@Override
+	public int apply(GateModel gm, MathSet mathSet, IntIndexMap map, Object ... args) {
+		BasicGateModel bgm = (BasicGateModel) gm;
+		QuantumGateDefinition qgd = bgm.getQuantumGateDefinition();
+		GateMatrixCache.Entry entry;
+		try {
+			entry = matrixCache.get(gm, mathSet);
+		} catch (EvaluateExpressionException e) {
+			e.printStackTrace();
+			throw new RuntimeException(e.getMessage());
+		}
+		
+		Control[] qcs = (Control[]) args[0];
+		int[] targets = map.toArray();
+		
+		double[][] realMatrixes = new double[entry.size()][];
+		double[][] imagMatrixes = new double[entry.size()][];
+		for (int j = 0; j < entry.size(); j++) {
+			realMatrixes[j] = entry.getReal(j);
+			imagMatrixes[j] = entry.getImag(j);
+		}
+		
+		switch (qgd.getQuantumGateType()) {
+		case HAMILTONIAN:
+			throw new UnsupportedOperationException("QuaCC does not support Hamiltonian Simulation.");
+		
+		case KRAUS_OPERATORS:
+			return measure(realMatrixes, imagMatrixes, targets, qcs, true);
+		
+		case POVM:
+			measure(realMatrixes, imagMatrixes, targets, qcs, false);
+			break;
+		
+		case UNIVERSAL:
+			applyUnitary(entry.getReal(0), entry.getImag(0), targets, qcs);
+			break;
+		
+		default:
+			break;
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * @param realMatrix row major real components of the gate
+	 * @param imagMatrix row major imaginary components of the gate
+	 * @param targets
+	 * @param qcs
+	 */
+	public void applyUnitary(double[] realMatrix, double[] imagMatrix, int[] targets, Control[] qcs) {
+		int[] local = GateKernel.localQubits(targets, qcs);
+		double[][] op = GateKernel.localMatrix(realMatrix, imagMatrix, targets, qcs, local);
+		
+		if (local.length == 1) {
+			// a unitary on one site keeps the chain canonical, so it needs no split
+			int site = siteOf[local[0]];
+			double[][] tensor = multiplyPhysical(op[0], op[1], reals[site], imags[site], bonds[site], 2, bonds[site + 1]);
+			reals[site] = tensor[0];
+			imags[site] = tensor[1];
+			return;
+		}
+		
+		int k = local.length;
+		int base = gather(local);
+		double[][] block = contract(base, k);
+		block = multiplyPhysical(op[0], op[1], block[0], block[1], bonds[base], 1 << k, bonds[base + k]);
+		splitBlock(base, k, block[0], block[1], false);
+	}
+	
+	/**
+	 * Picks one of the operators of a measurement with its probability, applies it and normalizes the state.
+	 * @param realMatrixes row major real components of the operators
+	 * @param imagMatrixes row major imaginary components of the operators
+	 * @param targets
+	 * @param qcs
+	 * @param kraus whether the operators are Kraus operators, whose probability is |K|psi&gt;|^2,
+	 * rather than POVM elements, whose probability is &lt;psi|M|psi&gt;
+	 * @return the index of the chosen operator, or the number of operators if none was chosen
+	 */
+	int measure(double[][] realMatrixes, double[][] imagMatrixes, int[] targets, Control[] qcs, boolean kraus) {
+		int[] local = GateKernel.localQubits(targets, qcs);
+		int k = local.length;
+		int dim = 1 << k;
+		int base = gather(local);
+		double[][] block = contract(base, k);
+		int left = bonds[base];
+		int right = bonds[base + k];
+		
+		// with the center inside the block, the rest of the chain contributes an identity
+		double[] density = new double[2 * dim * dim];
+		for (int l = 0; l < left; l++) {
+			for (int r = 0; r < right; r++) {
+				for (int a = 0; a < dim; a++) {
+					int ia = (l * dim + a) * right + r;
+					double ar = block[0][ia];
+					double ai = block[1][ia];
+					for (int b = 0; b < dim; b++) {
+						int ib = (l * dim + b) * right + r;
+						double br = block[0][ib];
+						double bi = -block[1][ib];
+						density[a * dim + b] += ar * br - ai * bi;
+						density[dim * dim + a * dim + b] += ar * bi + ai * br;
+					}
+				}
+			}
+		}
+		
+		double predictor = random.nextDouble();
+		double probSum = 0;
+		int i = 0;
+		for (; i < realMatrixes.length; i++) {
+			double[][] op = GateKernel.localMatrix(realMatrixes[i], imagMatrixes[i], targets, qcs, local);
+			probSum += kraus ? QuantumState.krausProbability(op[0], op[1], density, dim) : QuantumState.povmProbability(op[0], op[1], density, dim);
+			
+			if (predictor < probSum) {
+				block = multiplyPhysical(op[0], op[1], block[0], block[1], left, dim, right);
+				scale(block[0], block[1], 1 / Math.sqrt(normSquared(block[0], block[1])));
+				break;
+			}
+		}
+		splitBlock(base, k, block[0], block[1], false);
+		return i;
+	}
+	
+	/**
+	 * @return the summed weight of every singular value dropped so far, relative to the norm of the state.
+	 * One minus this is about the fidelity of the state to the untruncated one while it stays small.
+	 */
+	public double getTruncationError() {
+		return truncationError;
+	}
+	
+	/**
+	 * @param site
+	 * @return the dimension of the bond between a site and the next one
+	 */
+	public int getBondDimension(int site) {
+		return bonds[site + 1];
+	}
+	
+	public int getMaxBondDimension() {
+		int max = 1;
+		for (int bond : bonds)
+			max = Math.max(max, bond);
+		return max;
+	}
+	
+	/**
+	 * @param register
+	 * @return the site of the chain a register is currently held at
+	 */
+	public int getSite(int register) {
+		return siteOf[register];
+	}
+	
+	public double getReal(long basisState) {
+		return amplitude(basisState)[0];
+	}
+	
+	public double getImag(long basisState) {
+		return amplitude(basisState)[1];
+	}
+	
+	/**
+	 * @param basisState
+	 * @return the probability of measuring the register in a computational basis state
+	 */
+	public double probability(long basisState) {
+		double[] amp = amplitude(basisState);
+		return amp[0] * amp[0] + amp[1] * amp[1];
+	}
+	
+	@Override
+	public int size() {
+		return numQubits;
+	}
+	
+	@Override
+	public String toString() {
+		String summary = "[MPS] : " + numQubits + " qubits, max bond " + getMaxBondDimension() + ", truncation error " + truncationError;
+		if (numQubits > 6)
+			return summary;
+		StringBuilder sb = new StringBuilder(summary);
+		for (long i = 0; i < 1L << numQubits; i++) {
+			double[] amp = amplitude(i);
+			sb.append('\n').append(amp[1] == 0 ? Double.toString(amp[0]) : amp[0] + (amp[1] < 0 ? " - " : " + ") + Math.abs(amp[1]) + "i");
+		}
+		return sb.toString();
+	}
+	
+	// register r is bit (n - 1 - r) of the basis state, as in a StateMatrix
+	private double[] amplitude(long basisState) {
+		double[] vr = {1};
+		double[] vi = {0};
+		for (int site = 0; site < numQubits; site++) {
+			int bit = (int) ((basisState >>> (numQubits - 1 - qubitAt[site])) & 1);
+			int left = bonds[site];
+			int right = bonds[site + 1];
+			double[] nr = new double[right];
+			double[] ni = new double[right];
+			for (int l = 0; l < left; l++) {
+				for (int r = 0; r < right; r++) {
+					int index = (l * 2 + bit) * right + r;
+					nr[r] += vr[l] * reals[site][index] - vi[l] * imags[site][index];
+					ni[r] += vr[l] * imags[site][index] + vi[l] * reals[site][index];
+				}
+			}
+			vr = nr;
+			vi = ni;
+		}
+		return new double[] {vr[0], vi[0]};
+	}
+	
+	// swaps the local qubits onto consecutive sites in their order and returns the first site, with the center on it
+	private int gather(int[] local) {
+		int k = local.length;
+		int base = numQubits - k;
+		for (int reg : local)
+			base = Math.min(base, siteOf[reg]);
+		
+		for (int j = 0; j < k; j++)
+			for (int site = siteOf[local[j]]; site > base + j; site--)
+				swapSites(site - 1);
+		moveCenter(base);
+		return base;
+	}
+	
+	// swaps the qubits of a site and the next one, leaving the center on the first
+	private void swapSites(int site) {
+		moveCenter(site);
+		double[][] block = contract(site, 2);
+		int left = bonds[site];
+		int right = bonds[site + 2];
+		double[] re = new double[block[0].length];
+		double[] im = new double[block[1].length];
+		for (int l = 0; l < left; l++) {
+			for (int a = 0; a < 4; a++) {
+				int from = (l * 4 + a) * right;
+				int to = (l * 4 + ((a & 1) << 1 | a >>> 1)) * right;
+				System.arraycopy(block[0], from, re, to, right);
+				System.arraycopy(block[1], from, im, to, right);
+			}
+		}
+		splitBlock(site, 2, re, im, true);
+		
+		int a = qubitAt[site];
+		qubitAt[site] = qubitAt[site + 1];
+		qubitAt[site + 1] = a;
+		siteOf[qubitAt[site]] = site;
+		siteOf[qubitAt[site + 1]] = site + 1;
+	}
+	
+	private void moveCenter(int site) {
+		for (; center < site; center++) {
+			int rows = bonds[center] * 2;
+			int columns = bonds[center + 1];
+			Split split = splitLeft(reals[center], imags[center], rows, columns, false);
+			reals[center] = split.leftReal;
+			imags[center] = split.leftImag;
+			double[][] next = multiply(split.rightReal, split.rightImag, reals[center + 1], imags[center + 1],
+					split.rank, columns, 2 * bonds[center + 2]);
+			reals[center + 1] = next[0];
+			imags[center + 1] = next[1];
+			bonds[center + 1] = split.rank;
+		}
+		for (; center > site; center--) {
+			int rows = bonds[center];
+			int columns = 2 * bonds[center + 1];
+			Split split = splitRight(reals[center], imags[center], rows, columns, false);
+			reals[center] = split.rightReal;
+			imags[center] = split.rightImag;
+			double[][] previous = multiply(reals[center - 1], imags[center - 1], split.leftReal, split.leftImag,
+					2 * bonds[center - 1], rows, split.rank);
+			reals[center - 1] = previous[0];
+			imags[center - 1] = previous[1];
+			bonds[center] = split.rank;
+		}
+	}
+	
+	// the tensor of k consecutive sites, with the first site as the most significant physical bit
+	private double[][] contract(int base, int k) {
+		double[] re = reals[base];
+		double[] im = imags[base];
+		int rows = bonds[base] * 2;
+		for (int i = 1; i < k; i++) {
+			int site = base + i;
+			double[][] product = multiply(re, im, reals[site], imags[site], rows, bonds[site], 2 * bonds[site + 1]);
+			re = product[0];
+			im = product[1];
+			rows *= 2;
+		}
+		return new double[][] {re, im};
+	}
+	
+	// splits the tensor of a block holding the center back into its sites, leaving the center on its first or last site
+	private void splitBlock(int base, int k, double[] re, double[] im, boolean centerFirst) {
+		int left = bonds[base];
+		int right = bonds[base + k];
+		if (centerFirst) {
+			for (int i = k - 1; i > 0; i--) {
+				Split split = splitRight(re, im, left << i, 2 * right, true);
+				reals[base + i] = split.rightReal;
+				imags[base + i] = split.rightImag;
+				bonds[base + i] = split.rank;
+				re = split.leftReal;
+				im = split.leftImag;
+				right = split.rank;
+			}
+			reals[base] = re;
+			imags[base] = im;
+			center = base;
+		} else {
+			for (int i = 0; i < k - 1; i++) {
+				Split split = splitLeft(re, im, 2 * left, (1 << (k - 1 - i)) * right, true);
+				reals[base + i] = split.leftReal;
+				imags[base + i] = split.leftImag;
+				bonds[base + i + 1] = split.rank;
+				re = split.rightReal;
+				im = split.rightImag;
+				left = split.rank;
+			}
+			reals[base + k - 1] = re;
+			imags[base + k - 1] = im;
+			center = base + k - 1;
+		}
+	}
+	
+	/**
+	 * Splits a matrix into a left factor with orthonormal columns, which are its leading left singular vectors,
+	 * and the product of its adjoint with the matrix.
+	 * @param truncate whether to drop singular values past the bond dimension cap, and count what is dropped.
+	 * Values below the threshold are always dropped.
+	 */
+	private Split splitLeft(double[] re, double[] im, int rows, int columns, boolean truncate) {
+		double[][] embedded = new double[2 * rows][2 * columns];
+		for (int r = 0; r < rows; r++) {
+			for (int c = 0; c < columns; c++) {
+				double a = re[r * columns + c];
+				double b = im[r * columns + c];
+				embedded[r][c] = a;
+				embedded[r][columns + c] = -b;
+				embedded[rows + r][c] = b;
+				embedded[rows + r][columns + c] = a;
+			}
+		}
+		// Jama only decomposes matrices with at least as many rows as columns
+		SingularValueDecomposition svd;
+		double[][] vectors;
+		if (rows >= columns) {
+			svd = new Matrix(embedded).svd();
+			vectors = svd.getU().getArray();
+		} else {
+			svd = new Matrix(embedded).transpose().svd();
+			vectors = svd.getV().getArray();
+		}
+		double[] values = svd.getSingularValues();
+		
+		double norm = normSquared(re, im);
+		int maxRank = Math.min(rows, columns);
+		if (truncate)
+			maxRank = Math.min(maxRank, maxBondDimension);
+		double[] qRe = new double[rows * maxRank];
+		double[] qIm = new double[rows * maxRank];
+		int rank = 0;
+		for (int v = 0; v < values.length && rank < maxRank; v++) {
+			if (rank > 0 && values[v] * values[v] <= truncationThreshold * norm)
+				break;
+			double[] ur = new double[rows];
+			double[] ui = new double[rows];
+			for (int r = 0; r < rows; r++) {
+				ur[r] = vectors[r][v];
+				ui[r] = vectors[rows + r][v];
+			}
+			// twice, so the vector stays orthogonal to the kept ones after rounding
+			for (int pass = 0; pass < 2; pass++) {
+				for (int j = 0; j < rank; j++) {
+					double pr = 0;
+					double pi = 0;
+					for (int r = 0; r < rows; r++) {
+						double qr = qRe[r * maxRank + j];
+						double qi = qIm[r * maxRank + j];
+						pr += qr * ur[r] + qi * ui[r];
+						pi += qr * ui[r] - qi * ur[r];
+					}
+					for (int r = 0; r < rows; r++) {
+						double qr = qRe[r * maxRank + j];
+						double qi = qIm[r * maxRank + j];
+						ur[r] -= pr * qr - pi * qi;
+						ui[r] -= pr * qi + pi * qr;
+					}
+				}
+			}
+			double length = Math.sqrt(normSquared(ur, ui));
+			if (length < INDEPENDENT_NORM)
+				continue;
+			for (int r = 0; r < rows; r++) {
+				qRe[r * maxRank + rank] = ur[r] / length;
+				qIm[r * maxRank + rank] = ui[r] / length;
+			}
+			rank++;
+		}
+		
+		Split split = new Split(rank);
+		split.leftReal = new double[rows * rank];
+		split.leftImag = new double[rows * rank];
+		for (int r = 0; r < rows; r++) {
+			System.arraycopy(qRe, r * maxRank, split.leftReal, r * rank, rank);
+			System.arraycopy(qIm, r * maxRank, split.leftImag, r * rank, rank);
+		}
+		double[][] adjoint = adjoint(split.leftReal, split.leftImag, rows, rank);
+		double[][] right = multiply(adjoint[0], adjoint[1], re, im, rank, rows, columns);
+		split.rightReal = right[0];
+		split.rightImag = right[1];
+		
+		double kept = normSquared(split.rightReal, split.rightImag);
+		if (norm > 0 && kept > 0) {
+			if (truncate)
+				truncationError += Math.max(0, norm - kept) / norm;
+			scale(split.rightReal, split.rightImag, Math.sqrt(norm / kept));
+		}
+		return split;
+	}
+	
+	// splits a matrix into a right factor with orthonormal rows and the product of the matrix with its adjoint
+	private Split splitRight(double[] re, double[] im, int rows, int columns, boolean truncate) {
+		double[][] adjoint = adjoint(re, im, rows, columns);
+		Split transposed = splitLeft(adjoint[0], adjoint[1], columns, rows, truncate);
+		int rank = transposed.rank;
+		Split split = new Split(rank);
+		double[][] left = adjoint(transposed.rightReal, transposed.rightImag, rank, rows);
+		double[][] right = adjoint(transposed.leftReal, transposed.leftImag, columns, rank);
+		split.leftReal = left[0];
+		split.leftImag = left[1];
+		split.rightReal = right[0];
+		split.rightImag = right[1];
+		return split;
+	}
+	
+	// applies a physical operator to a (left, dim, right) tensor
+	private static double[][] multiplyPhysical(double[] opRe, double[] opIm, double[] re, double[] im, int left, int dim, int right) {
+		double[] nr = new double[re.length];
+		double[] ni = new double[im.length];
+		for (int l = 0; l < left; l++) {
+			for (int a = 0; a < dim; a++) {
+				int to = (l * dim + a) * right;
+				for (int b = 0; b < dim; b++) {
+					double or = opRe[a * dim + b];
+					double oi = opIm[a * dim + b];
+					if (or == 0 && oi == 0)
+						continue;
+					int from = (l * dim + b) * right;
+					for (int r = 0; r < right; r++) {
+						nr[to + r] += or * re[from + r] - oi * im[from + r];
+						ni[to + r] += or * im[from + r] + oi * re[from + r];
+					}
+				}
+			}
+		}
+		return new double[][] {nr, ni};
+	}
+	
+	// the (n x p) product of an (n x m) and an (m x p) matrix
+	private static double[][] multiply(double[] aRe, double[] aIm, double[] bRe, double[] bIm, int n, int m, int p) {
+		double[] re = new double[n * p];
+		double[] im = new double[n * p];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < m; j++) {
+				double ar = aRe[i * m + j];
+				double ai = aIm[i * m + j];
+				if (ar == 0 && ai == 0)
+					continue;
+				for (int c = 0; c < p; c++) {
+					re[i * p + c] += ar * bRe[j * p + c] - ai * bIm[j * p + c];
+					im[i * p + c] += ar * bIm[j * p + c] + ai * bRe[j * p + c];
+				}
+			}
+		}
+		return new double[][] {re, im};
+	}
+	
+	private static double[][] adjoint(double[] re, double[] im, int rows, int columns) {
+		double[] ar = new double[re.length];
+		double[] ai = new double[im.length];
+		for (int r = 0; r < rows; r++) {
+			for (int c = 0; c < columns; c++) {
+				ar[c * rows + r] = re[r * columns + c];
+				ai[c * rows + r] = -im[r * columns + c];
+			}
+		}
+		return new double[][] {ar, ai};
+	}
+	
+	private static double normSquared(double[] re, double[] im) {
+		double norm = 0;
+		for (int i = 0; i < re.length; i++)
+			norm += re[i] * re[i] + im[i] * im[i];
+		return norm;
+	}
+	
+	private static void scale(double[] re, double[] im, double factor) {
+		for (int i = 0; i < re.length; i++) {
+			re[i] *= factor;
+			im[i] *= factor;
+		}
+	}
+	
+	private static class Split {
+		private final int rank;
+		private double[] leftReal, leftImag, rightReal, rightImag;
+		
+		private Split(int rank) {
+			this.rank = rank;
+		}
+	}
+}
@@ -0,0 +1,22 @@
+package appFX.framework.simulator;
+
+/**
+ * A Hermitian operator on the register of a state vector.
+ *
+ * @author quantumresearch
+ *
+ */
+public interface Observable {
+	
+	/**
+	 * @param sm
+	 * @return &lt;psi|O|psi&gt; of the state
+	 */
+	public double expectation(StateMatrix sm);
+	
+	/**
+	 * @param sm
+	 * @return O|psi&gt; as a new state, which is not normalized
+	 */
+	public StateMatrix apply(StateMatrix sm);
+}
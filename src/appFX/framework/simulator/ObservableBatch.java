@@ -0,0 +1,187 @@
+package appFX.framework.simulator;
+
+import java.util.ArrayList;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Takes the expectations of many {@link PauliSum}s in one pass over the amplitudes of a state. <br>
+ * Terms are grouped by the bits their strings flip. At each amplitude index <code>i</code>, each group reads the
+ * amplitudes at <code>i</code> and at <code>i</code> with its bits flipped once, and every term of the group adds
+ * their product with its sign. The pass is split into ranges of indices on the pool of the state's settings when
+ * the state is large enough, and the sums of the ranges are added together.
+ *
+ * @author quantumresearch
+ *
+ */
+public class ObservableBatch {
+	private static final long MIN_INDICES_PER_TASK = 1L << 14;
+	
+	private final ArrayList<PauliSum> observables = new ArrayList<>();
+	
+	/**
+	 * @param observable
+	 * @return this batch
+	 */
+	public ObservableBatch add(PauliSum observable) {
+		observables.add(observable);
+		return this;
+	}
+	
+	/**
+	 * @param observable added as its decomposition into Pauli strings, see {@link LocalOperator#toPauliSum()}
+	 * @return this batch
+	 */
+	public ObservableBatch add(LocalOperator observable) {
+		return add(observable.toPauliSum());
+	}
+	
+	public int size() {
+		return observables.size();
+	}
+	
+	/**
+	 * @param sm
+	 * @return the expectation of each observable, in the order they were added
+	 */
+	public double[] expectations(StateMatrix sm) {
+		int numQubits = sm.getNumQubits();
+		Terms terms = new Terms(observables, numQubits);
+		
+		Amplitudes amplitudes = sm.getAmplitudes();
+		long length = amplitudes.length();
+		SimulatorSettings settings = sm.getSettings();
+		double[] sums;
+		if (settings.runsInParallel(numQubits))
+			sums = settings.getPool().invoke(new Sweep(terms, amplitudes, 0, length,
+					Math.max(MIN_INDICES_PER_TASK, length / (4 * settings.getParallelism()))));
+		else
+			sums = terms.sum(amplitudes, 0, length);
+		
+		double[] expectations = new double[observables.size()];
+		for (int t = 0; t < terms.size; t++) {
+			// the real part of the sum times the coefficient and i to the number of Y matrices
+			int numY = terms.numY[t] & 3;
+			double real = numY == 0 ? sums[2 * t] : numY == 1 ? -sums[2 * t + 1] : numY == 2 ? -sums[2 * t] : sums[2 * t + 1];
+			expectations[terms.observable[t]] += terms.coefficient[t] * real;
+		}
+		return expectations;
+	}
+	
+	/**
+	 * The terms of every observable of the batch, compiled for a register and grouped by the bits they flip.
+	 */
+	private static class Terms {
+		private final int size;
+		private final int[] observable;
+		private final double[] coefficient;
+		private final long[] signs;
+		private final int[] numY;
+		private final long[] flips;
+		private final int[][] members;
+		
+		private Terms(ArrayList<PauliSum> observables, int numQubits) {
+			int size = 0;
+			for (PauliSum o : observables)
+				size += o.size();
+			this.size = size;
+			this.observable = new int[size];
+			this.coefficient = new double[size];
+			this.signs = new long[size];
+			this.numY = new int[size];
+			
+			ArrayList<Long> groupFlips = new ArrayList<>();
+			ArrayList<ArrayList<Integer>> groupTerms = new ArrayList<>();
+			int t = 0;
+			for (int o = 0; o < observables.size(); o++) {
+				PauliSum sum = observables.get(o);
+				for (int term = 0; term < sum.size(); term++, t++) {
+					PauliString string = sum.getString(term);
+					observable[t] = o;
+					coefficient[t] = sum.getCoefficient(term);
+					signs[t] = string.zMask(numQubits);
+					numY[t] = string.numY();
+					
+					long x = string.xMask(numQubits);
+					int group = groupFlips.indexOf(x);
+					if (group == -1) {
+						group = groupFlips.size();
+						groupFlips.add(x);
+						groupTerms.add(new ArrayList<>());
+					}
+					groupTerms.get(group).add(t);
+				}
+			}
+			
+			this.flips = new long[groupFlips.size()];
+			this.members = new int[groupFlips.size()][];
+			for (int g = 0; g < flips.length; g++) {
+				flips[g] = groupFlips.get(g);
+				members[g] = groupTerms.get(g).stream().mapToInt(Integer::intValue).toArray();
+			}
+		}
+		
+		// the sum over the indices of the amplitude at i with the flipped bits, conjugated, times the signed amplitude at i
+		private double[] sum(Amplitudes amplitudes, long from, long to) {
+			double[] sums = new double[2 * size];
+			for (long i = from; i < to; i++) {
+				double real = amplitudes.getReal(i);
+				double imag = amplitudes.getImag(i);
+				if (real == 0 && imag == 0)
+					continue;
+				for (int g = 0; g < flips.length; g++) {
+					double pairReal;
+					double pairImag;
+					if (flips[g] == 0) {
+						pairReal = real * real + imag * imag;
+						pairImag = 0;
+					} else {
+						long j = i ^ flips[g];
+						double flippedReal = amplitudes.getReal(j);
+						double flippedImag = amplitudes.getImag(j);
+						pairReal = flippedReal * real + flippedImag * imag;
+						pairImag = flippedReal * imag - flippedImag * real;
+					}
+					for (int t : members[g]) {
+						if ((Long.bitCount(i & signs[t]) & 1) == 0) {
+							sums[2 * t] += pairReal;
+							sums[2 * t + 1] += pairImag;
+						} else {
+							sums[2 * t] -= pairReal;
+							sums[2 * t + 1] -= pairImag;
+						}
+					}
+				}
+			}
+			return sums;
+		}
+	}
+	
+	@SuppressWarnings("serial")
+	private static class Sweep extends RecursiveTask<double[]> {
+		private final Terms terms;
+		private final Amplitudes amplitudes;
+		private final long from, to, minIndices;
+		
+		private Sweep(Terms terms, Amplitudes amplitudes, long from, long to, long minIndices) {
+			this.terms = terms;
+			this.amplitudes = amplitudes;
+			this.from = from;
+			this.to = to;
+			this.minIndices = minIndices;
+		}
+		
+		@Override
+		protected double[] compute() {
+			if (to - from <= minIndices)
+				return terms.sum(amplitudes, from, to);
+			long middle = (from + to) >>> 1;
+			Sweep upper = new Sweep(terms, amplitudes, middle, to, minIndices);
+			upper.fork();
+			double[] sums = new Sweep(terms, amplitudes, from, middle, minIndices).compute();
+			double[] upperSums = upper.join();
+			for (int i = 0; i < sums.length; i++)
+				sums[i] += upperSums[i];
+			return sums;
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package appFX.framework.simulator;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+
+/**
+ * {@link Amplitudes} kept outside of the garbage collected heap in direct buffers. <br>
+ * The vector is split into chunks of at most <code>2^CHUNK_BITS</code> amplitudes, each chunk storing
+ * the real and imaginary part of an amplitude next to each other. The memory is released when this
+ * object is collected and is limited by <code>-XX:MaxDirectMemorySize</code>.
+ *
+ * @author quantumresearch
+ *
+ */
+public final class OffHeapAmplitudes extends Amplitudes {
+	private static final int CHUNK_BITS = 26;
+	private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+	
+	private final DoubleBuffer[] chunks;
+	
+	OffHeapAmplitudes(long length) {
+		super(length);
+		int chunkLength = (int) Math.min(length, 1L << CHUNK_BITS);
+		int numChunks = (int) ((length + chunkLength - 1) / chunkLength);
+		this.chunks = new DoubleBuffer[numChunks];
+		for (int i = 0; i < numChunks; i++)
+			chunks[i] = ByteBuffer.allocateDirect(chunkLength * 2 * Double.BYTES).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+	}
+	
+	@Override
+	public double getReal(long index) {
+		return chunks[(int) (index >>> CHUNK_BITS)].get((int) (index & CHUNK_MASK) << 1);
+	}
+	
+	@Override
+	public double getImag(long index) {
+		return chunks[(int) (index >>> CHUNK_BITS)].get(((int) (index & CHUNK_MASK) << 1) | 1);
+	}
+	
+	@Override
+	public void set(long index, double real, double imag) {
+		DoubleBuffer chunk = chunks[(int) (index >>> CHUNK_BITS)];
+		int offset = (int) (index & CHUNK_MASK) << 1;
+		chunk.put(offset, real);
+		chunk.put(offset | 1, imag);
+	}
+	
+	@Override
+	public Amplitudes copy() {
+		OffHeapAmplitudes copy = new OffHeapAmplitudes(length());
+		for (int i = 0; i < chunks.length; i++) {
+			DoubleBuffer source = chunks[i].duplicate();
+			source.clear();
+			copy.chunks[i].put(source);
+			copy.chunks[i].clear();
+		}
+		return copy;
+	}
+}
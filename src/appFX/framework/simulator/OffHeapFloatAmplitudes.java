@@ -0,0 +1,57 @@
+package appFX.framework.simulator;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Single precision counterpart of {@link OffHeapAmplitudes}.
+ *
+ * @author quantumresearch
+ *
+ */
+public final class OffHeapFloatAmplitudes extends Amplitudes {
+	private static final int CHUNK_BITS = 27;
+	private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+	
+	private final FloatBuffer[] chunks;
+	
+	OffHeapFloatAmplitudes(long length) {
+		super(length);
+		int chunkLength = (int) Math.min(length, 1L << CHUNK_BITS);
+		int numChunks = (int) ((length + chunkLength - 1) / chunkLength);
+		this.chunks = new FloatBuffer[numChunks];
+		for (int i = 0; i < numChunks; i++)
+			chunks[i] = ByteBuffer.allocateDirect(chunkLength * 2 * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+	}
+	
+	@Override
+	public double getReal(long index) {
+		return chunks[(int) (index >>> CHUNK_BITS)].get((int) (index & CHUNK_MASK) << 1);
+	}
+	
+	@Override
+	public double getImag(long index) {
+		return chunks[(int) (index >>> CHUNK_BITS)].get(((int) (index & CHUNK_MASK) << 1) | 1);
+	}
+	
+	@Override
+	public void set(long index, double real, double imag) {
+		FloatBuffer chunk = chunks[(int) (index >>> CHUNK_BITS)];
+		int offset = (int) (index & CHUNK_MASK) << 1;
+		chunk.put(offset, (float) real);
+		chunk.put(offset | 1, (float) imag);
+	}
+	
+	@Override
+	public Amplitudes copy() {
+		OffHeapFloatAmplitudes copy = new OffHeapFloatAmplitudes(length());
+		for (int i = 0; i < chunks.length; i++) {
+			FloatBuffer source = chunks[i].duplicate();
+			source.clear();
+			copy.chunks[i].put(source);
+			copy.chunks[i].clear();
+		}
+		return copy;
+	}
+}
@@ -0,0 +1,157 @@
+package appFX.framework.simulator;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.ToDoubleFunction;
+
+import appFX.framework.MathDefinitions;
+import appFX.framework.Project;
+import appFX.framework.exportGates.GateManager.ExportException;
+import mathLib.Complex;
+import mathLib.expression.MathSet;
+import mathLib.expression.Variable.ConcreteVariable;
+import utils.customCollections.immutableLists.ImmutableArray;
+
+/**
+ * Simulates a project once for each point of a list of values of the parameters of its top level circuit. <br>
+ * The project is exported and compiled into an {@link ExecutionPlan} once. For each point only the gates whose
+ * parameters depend on the top level circuit are bound again, see {@link ExecutionPlan#bind(MathSet)}, and the
+ * matrices of the other gates come from a cache shared by every point. Points are run on the pool of the
+ * {@link SimulatorSettings}, each on one thread, and every observable is computed on the final states of each point.
+ *
+ * @author quantumresearch
+ *
+ */
+public class ParameterSweep {
+	private final Project p;
+	private final SimulatorSettings settings;
+	private final ArrayList<String> observableNames = new ArrayList<>();
+	private final ArrayList<ToDoubleFunction<State[]>> observables = new ArrayList<>();
+	
+	public ParameterSweep(Project p) {
+		this(p, new SimulatorSettings());
+	}
+	
+	public ParameterSweep(Project p, SimulatorSettings settings) {
+		this.p = p;
+		this.settings = settings;
+	}
+	
+	/**
+	 * @return the parameters of the top level circuit, in the order the values of a point are given in
+	 */
+	public String[] getParameters() {
+		return parametersOf(p);
+	}
+	
+	/**
+	 * @param name
+	 * @param observable computed on the states {@link Simulator#simulate(Project, SimulatorSettings)} returns.
+	 * It is called from the threads of the pool.
+	 */
+	public void addObservable(String name, ToDoubleFunction<State[]> observable) {
+		observableNames.add(name);
+		observables.add(observable);
+	}
+	
+	/**
+	 * @param points the values of the parameters of each point, as real numbers
+	 * @return the value of every observable at every point
+	 * @throws ExportException
+	 */
+	public SweepTable run(double[][] points) throws ExportException {
+		String[] parameterNames = parametersOf(p);
+		String[] names = observableNames.toArray(new String[0]);
+		double[][] values = new double[points.length][];
+		if (points.length == 0)
+			return new SweepTable(parameterNames, names, points, values);
+		
+		ExecutionPlan plan = ExecutionPlan.compile(p, bindPoint(parameterNames, points[0]));
+		
+		// points are the parallel axis, so each point applies its gates on one thread
+		SimulatorSettings pointSettings = settings.copy();
+		pointSettings.setParallelThreshold(Integer.MAX_VALUE);
+		pointSettings.setBackend(plan.resolveBackend(settings));
+		GateMatrixCache matrixCache = new GateMatrixCache(settings.getMatrixCacheSize());
+		ArrayList<ToDoubleFunction<State[]>> observables = new ArrayList<>(this.observables);
+		
+		ForkJoinPool pool = settings.getPool();
+		int inFlight = 2 * pool.getParallelism();
+		ArrayDeque<ForkJoinTask<double[]>> tasks = new ArrayDeque<>();
+		int submitted = 0;
+		int finished = 0;
+		while (finished < points.length) {
+			while (submitted < points.length && tasks.size() < inFlight) {
+				ExecutionPlan bound = submitted == 0 ? plan : plan.bind(bindPoint(parameterNames, points[submitted]));
+				tasks.add(pool.submit(() -> runPoint(bound, pointSettings, matrixCache, observables)));
+				submitted++;
+			}
+			values[finished++] = join(tasks.poll());
+		}
+		return new SweepTable(parameterNames, names, points, values);
+	}
+	
+	/**
+	 * @param axes the values of each parameter
+	 * @return every combination of the values of the axes, with the last axis changing fastest
+	 */
+	public static double[][] grid(double[] ... axes) {
+		int size = 1;
+		for (double[] axis : axes)
+			size *= axis.length;
+		double[][] points = new double[size][axes.length];
+		for (int i = 0; i < size; i++) {
+			int rest = i;
+			for (int a = axes.length - 1; a >= 0; a--) {
+				points[i][a] = axes[a][rest % axes[a].length];
+				rest /= axes[a].length;
+			}
+		}
+		return points;
+	}
+	
+	static String[] parametersOf(Project p) {
+		ImmutableArray<String> parameters = p.getGateModel(p.getTopLevelCircuitLocationString()).getParameters();
+		return parameters.toArray(new String[parameters.size()]);
+	}
+	
+	/**
+	 * @param parameterNames
+	 * @param point
+	 * @return the set the parameters of the top level circuit are bound in at a point
+	 */
+	static MathSet bindPoint(String[] parameterNames, double[] point) {
+		if (point.length != parameterNames.length)
+			throw new IllegalArgumentException("A point needs " + parameterNames.length + " values but has " + point.length);
+		MathSet ms = new MathSet(MathDefinitions.GLOBAL_DEFINITIONS);
+		for (int i = 0; i < point.length; i++)
+			ms.addVariable(new ConcreteVariable(parameterNames[i], new Complex(point[i], 0)));
+		return ms;
+	}
+	
+	private static double[] runPoint(ExecutionPlan plan, SimulatorSettings pointSettings, GateMatrixCache matrixCache,
+			ArrayList<ToDoubleFunction<State[]>> observables) {
+		State[] states = plan.run(pointSettings, false, matrixCache);
+		double[] values = new double[observables.size()];
+		for (int i = 0; i < values.length; i++)
+			values[i] = observables.get(i).applyAsDouble(states);
+		return values;
+	}
+	
+	private static double[] join(ForkJoinTask<double[]> task) {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new RuntimeException(cause);
+		}
+	}
+}
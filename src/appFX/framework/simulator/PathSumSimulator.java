@@ -0,0 +1,323 @@
+package appFX.framework.simulator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.RecursiveTask;
+
+import appFX.framework.Project;
+import appFX.framework.exportGates.Control;
+import appFX.framework.exportGates.GateManager.ExportException;
+import mathLib.Complex;
+import mathLib.expression.Expression.EvaluateExpressionException;
+
+/**
+ * Computes single amplitudes &lt;x|C|0&gt; of a project as a sum over paths of basis states, without a state
+ * vector. <br>
+ * The gates of the {@link ExecutionPlan} are walked backwards from <code>x</code>. At each gate, every non-zero
+ * entry in the row of the current basis state gives a branch to the basis state the entry comes from, so
+ * diagonal and permutation gates do not branch. A path ends when it reaches the first gate, where it adds its
+ * weight if it ended on <code>|0&gt;</code>, or earlier when it has a bit set that no earlier gate touches. A path
+ * only holds its basis state and weight, so memory grows with the number of gates and not with the register. <br>
+ * The first branches are forked on the pool of the {@link SimulatorSettings} until there are enough tasks for
+ * every worker. Registers are limited to 64 qubits, as a basis state is held in a <code>long</code>.
+ *
+ * @author quantumresearch
+ *
+ */
+public class PathSumSimulator {
+	public static final int MAX_QUBITS = 64;
+	// tasks forked per worker before the branches are walked on one thread
+	private static final int TASKS_PER_WORKER = 8;
+	
+	private final Project p;
+	private final SimulatorSettings settings;
+	private int numQubits;
+	private PathGate[] gates = null;
+	// the bits touched by the gates up to each one, so paths with any other bit set end early
+	private long[] touched;
+	
+	public PathSumSimulator(Project p) {
+		this(p, new SimulatorSettings());
+	}
+	
+	public PathSumSimulator(Project p, SimulatorSettings settings) {
+		this.p = p;
+		this.settings = settings;
+	}
+	
+	/**
+	 * A path sum over the gates given to {@link #addGate}, with no project to compile.
+	 * @param numQubits
+	 * @param settings
+	 */
+	PathSumSimulator(int numQubits, SimulatorSettings settings) {
+		this.p = null;
+		this.settings = settings;
+		this.numQubits = numQubits;
+		this.gates = new PathGate[0];
+		this.touched = new long[0];
+	}
+	
+	/**
+	 * Appends a unitary gate to a path sum made without a project.
+	 * @param realMatrix row major real components of the gate
+	 * @param imagMatrix row major imaginary components of the gate
+	 * @param targets
+	 * @param qcs
+	 */
+	synchronized void addGate(double[] realMatrix, double[] imagMatrix, int[] targets, Control[] qcs) {
+		int g = gates.length;
+		gates = Arrays.copyOf(gates, g + 1);
+		gates[g] = new PathGate(realMatrix, imagMatrix, targets, qcs);
+		touched = Arrays.copyOf(touched, g + 1);
+		touched[g] = (g == 0 ? 0 : touched[g - 1]) | gates[g].targetMask;
+	}
+	
+	/**
+	 * @param registers the value of every register, register 0 first, such as <code>"0110"</code>
+	 * @return the amplitude of the basis state
+	 * @throws ExportException
+	 * @throws IllegalArgumentException if the string does not hold one bit for every register
+	 */
+	public synchronized Complex amplitude(String registers) throws ExportException {
+		if (gates == null)
+			compile();
+		if (registers.length() != numQubits)
+			throw new IllegalArgumentException("Expected " + numQubits + " registers but got " + registers.length());
+		long basisState = 0;
+		for (int i = 0; i < registers.length(); i++) {
+			char c = registers.charAt(i);
+			if (c != '0' && c != '1')
+				throw new IllegalArgumentException("Register " + i + " is not 0 or 1: " + c);
+			if (c == '1')
+				basisState |= 1L << (registers.length() - 1 - i);
+		}
+		return amplitude(basisState);
+	}
+	
+	/**
+	 * @param basisState an index of an amplitude, see {@link StateMatrix}
+	 * @return the amplitude of the basis state
+	 * @throws ExportException
+	 */
+	public synchronized Complex amplitude(long basisState) throws ExportException {
+		if (gates == null)
+			compile();
+		int parallelism = settings.getParallelism();
+		Path path = new Path(basisState, gates.length - 1, 1, 0);
+		double[] sum = settings.getPool().invoke(new PathTask(path, parallelism == 1 ? 1 : TASKS_PER_WORKER * parallelism));
+		return new Complex(sum[0], sum[1]);
+	}
+	
+	/**
+	 * Compiles the project again the next time an amplitude is computed.
+	 */
+	public synchronized void reset() {
+		if (p != null)
+			gates = null;
+	}
+	
+	private void compile() throws ExportException {
+		ExecutionPlan plan = ExecutionPlan.compile(p);
+		if (!plan.isUnitary())
+			throw new UnsupportedOperationException("Only circuits of unitary gates without classical controls have a path sum");
+		numQubits = plan.getNumPrimaryRegs();
+		if (numQubits > MAX_QUBITS)
+			throw new UnsupportedOperationException("Path sums are limited to " + MAX_QUBITS + " qubits");
+		
+		GateMatrixCache matrixCache = new GateMatrixCache(settings.getMatrixCacheSize());
+		ArrayList<PathGate> gates = new ArrayList<>();
+		for (int gate : plan.getQuantumGates()) {
+			GateMatrixCache.Entry entry;
+			try {
+				entry = matrixCache.get(plan.getGateModel(gate), plan.getMathSet(gate));
+			} catch (EvaluateExpressionException e) {
+				throw new RuntimeException(e.getMessage());
+			}
+			gates.add(new PathGate(entry.getReal(0), entry.getImag(0), plan.getIndexMap(gate).toArray(), plan.getControls(gate)));
+		}
+		
+		this.gates = gates.toArray(new PathGate[0]);
+		this.touched = new long[this.gates.length];
+		long mask = 0;
+		for (int g = 0; g < this.gates.length; g++) {
+			mask |= this.gates[g].targetMask;
+			touched[g] = mask;
+		}
+	}
+	
+	private long bitOf(int reg) {
+		return 1L << (numQubits - 1 - reg);
+	}
+	
+	/**
+	 * A gate with the non-zero entries of each row of its matrix.
+	 */
+	private class PathGate {
+		private final long targetMask;
+		private final long[] targetBits;
+		private final long[] targetOffsets;
+		private final long controlMask;
+		private final long controlValue;
+		private final int[][] columns;
+		private final double[][] real;
+		private final double[][] imag;
+		
+		private PathGate(double[] realMatrix, double[] imagMatrix, int[] targets, Control[] qcs) {
+			int dim = 1 << targets.length;
+			long targetMask = 0;
+			for (int reg : targets)
+				targetMask |= bitOf(reg);
+			this.targetMask = targetMask;
+			this.targetBits = new long[targets.length];
+			for (int i = 0; i < targets.length; i++)
+				targetBits[i] = bitOf(targets[i]);
+			
+			this.targetOffsets = new long[dim];
+			for (int local = 0; local < dim; local++)
+				for (int i = 0; i < targets.length; i++)
+					if ((local & (1 << (targets.length - 1 - i))) != 0)
+						targetOffsets[local] |= bitOf(targets[i]);
+			
+			long controlMask = 0;
+			long controlValue = 0;
+			for (Control c : qcs) {
+				long bit = bitOf(c.getRegister());
+				if ((bit & targetMask) != 0)
+					continue;
+				controlMask |= bit;
+				if (c.getControlStatus() == Control.CONTROL_TRUE)
+					controlValue |= bit;
+			}
+			this.controlMask = controlMask;
+			this.controlValue = controlValue;
+			
+			this.columns = new int[dim][];
+			this.real = new double[dim][];
+			this.imag = new double[dim][];
+			for (int r = 0; r < dim; r++) {
+				int count = 0;
+				for (int c = 0; c < dim; c++)
+					if (realMatrix[r * dim + c] != 0 || imagMatrix[r * dim + c] != 0)
+						count++;
+				columns[r] = new int[count];
+				real[r] = new double[count];
+				imag[r] = new double[count];
+				for (int c = 0, i = 0; c < dim; c++) {
+					if (realMatrix[r * dim + c] != 0 || imagMatrix[r * dim + c] != 0) {
+						columns[r][i] = c;
+						real[r][i] = realMatrix[r * dim + c];
+						imag[r][i++] = imagMatrix[r * dim + c];
+					}
+				}
+			}
+		}
+		
+		// the matrix index of the targets of a basis state, the first target being the most significant bit
+		private int rowOf(long basisState) {
+			int row = 0;
+			for (long bit : targetBits)
+				row = (row << 1) | ((basisState & bit) != 0 ? 1 : 0);
+			return row;
+		}
+	}
+	
+	/**
+	 * A basis state a path has reached before a gate, and the weight of the path so far.
+	 */
+	private class Path {
+		private long state;
+		private int gate;
+		private double weightReal, weightImag;
+		
+		private Path(long state, int gate, double weightReal, double weightImag) {
+			this.state = state;
+			this.gate = gate;
+			this.weightReal = weightReal;
+			this.weightImag = weightImag;
+		}
+		
+		/**
+		 * Follows the path back through the gates that do not branch.
+		 * @param sum receives the weight of the path if it ends on |0&gt;
+		 * @return the number of branches of the gate the path stopped at, or 0 if the path ended
+		 */
+		private int toBranch(double[] sum) {
+			for (; gate >= 0; gate--) {
+				if ((state & ~touched[gate]) != 0)
+					return 0;
+				PathGate pg = gates[gate];
+				if ((state & pg.controlMask) != pg.controlValue)
+					continue;
+				int row = pg.rowOf(state);
+				if (pg.columns[row].length != 1)
+					return pg.columns[row].length;
+				follow(pg, row, 0);
+			}
+			if (state == 0) {
+				sum[0] += weightReal;
+				sum[1] += weightImag;
+			}
+			return 0;
+		}
+		
+		/**
+		 * @param i
+		 * @return the path through the i-th branch of the gate it stopped at
+		 */
+		private Path branch(int i) {
+			Path branch = new Path(state, gate, weightReal, weightImag);
+			PathGate pg = gates[gate];
+			branch.follow(pg, pg.rowOf(state), i);
+			branch.gate--;
+			return branch;
+		}
+		
+		private void follow(PathGate pg, int row, int i) {
+			double er = pg.real[row][i];
+			double ei = pg.imag[row][i];
+			double wr = weightReal * er - weightImag * ei;
+			weightImag = weightReal * ei + weightImag * er;
+			weightReal = wr;
+			state = (state & ~pg.targetMask) | pg.targetOffsets[pg.columns[row][i]];
+		}
+	}
+	
+	// adds the weights of every path from the path back to |0> to the sum
+	private void walk(Path path, double[] sum) {
+		int numBranches = path.toBranch(sum);
+		for (int i = 0; i < numBranches; i++)
+			walk(path.branch(i), sum);
+	}
+	
+	@SuppressWarnings("serial")
+	private class PathTask extends RecursiveTask<double[]> {
+		private final Path path;
+		private final int tasks;
+		
+		private PathTask(Path path, int tasks) {
+			this.path = path;
+			this.tasks = tasks;
+		}
+		
+		@Override
+		protected double[] compute() {
+			double[] sum = new double[2];
+			if (tasks <= 1) {
+				walk(path, sum);
+				return sum;
+			}
+			int numBranches = path.toBranch(sum);
+			PathTask[] branches = new PathTask[numBranches];
+			for (int i = 0; i < numBranches; i++)
+				branches[i] = new PathTask(path.branch(i), Math.max(1, tasks / numBranches));
+			invokeAll(branches);
+			for (PathTask branch : branches) {
+				double[] branchSum = branch.join();
+				sum[0] += branchSum[0];
+				sum[1] += branchSum[1];
+			}
+			return sum;
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package appFX.framework.simulator;
+
+import java.util.Arrays;
+
+/**
+ * A tensor product of the Pauli matrices I, X, Y and Z on some registers, with I on every other register.
+ *
+ * @author quantumresearch
+ *
+ */
+public class PauliString {
+	private final char[] paulis;
+	private final int[] registers;
+	
+	/**
+	 * @param paulis the Pauli matrix of each register in order, such as <code>"XIZ"</code>
+	 */
+	public PauliString(String paulis) {
+		this(paulis, rangeOf(paulis.length()));
+	}
+	
+	/**
+	 * @param paulis the Pauli matrix of each of the given registers
+	 * @param registers distinct registers
+	 */
+	public PauliString(String paulis, int ... registers) {
+		if (paulis.length() != registers.length)
+			throw new IllegalArgumentException("\"" + paulis + "\" needs " + paulis.length() + " registers, not " + registers.length);
+		for (int i = 0; i < paulis.length(); i++)
+			if ("IXYZ".indexOf(paulis.charAt(i)) == -1)
+				throw new IllegalArgumentException("'" + paulis.charAt(i) + "' is not one of I, X, Y or Z");
+		for (int i = 0; i < registers.length; i++) {
+			if (registers[i] < 0)
+				throw new IllegalArgumentException("Register " + registers[i] + " is negative");
+			for (int j = 0; j < i; j++)
+				if (registers[j] == registers[i])
+					throw new IllegalArgumentException("Register " + registers[i] + " is given twice");
+		}
+		this.paulis = paulis.toCharArray();
+		this.registers = registers.clone();
+	}
+	
+	public int[] getRegisters() {
+		return registers.clone();
+	}
+	
+	public char getPauli(int i) {
+		return paulis[i];
+	}
+	
+	/**
+	 * @param numQubits
+	 * @return the amplitude index bits the string flips, see {@link StateMatrix}
+	 */
+	long xMask(int numQubits) {
+		return mask(numQubits, 'X');
+	}
+	
+	/**
+	 * @param numQubits
+	 * @return the amplitude index bits whose value the string takes the sign of
+	 */
+	long zMask(int numQubits) {
+		return mask(numQubits, 'Z');
+	}
+	
+	/**
+	 * @return the number of Y matrices, as Y is iXZ
+	 */
+	int numY() {
+		int count = 0;
+		for (char pauli : paulis)
+			if (pauli == 'Y')
+				count++;
+		return count;
+	}
+	
+	private long mask(int numQubits, char pauli) {
+		long mask = 0;
+		for (int i = 0; i < paulis.length; i++) {
+			if (registers[i] >= numQubits)
+				throw new IllegalArgumentException("Register " + registers[i] + " is not in a register of " + numQubits + " qubits");
+			if (paulis[i] == pauli || paulis[i] == 'Y')
+				mask |= 1L << (numQubits - 1 - registers[i]);
+		}
+		return mask;
+	}
+	
+	private static int[] rangeOf(int size) {
+		int[] range = new int[size];
+		for (int i = 0; i < size; i++)
+			range[i] = i;
+		return range;
+	}
+	
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof PauliString))
+			return false;
+		PauliString other = (PauliString) o;
+		return Arrays.equals(paulis, other.paulis) && Arrays.equals(registers, other.registers);
+	}
+	
+	@Override
+	public int hashCode() {
+		return 31 * Arrays.hashCode(paulis) + Arrays.hashCode(registers);
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < paulis.length; i++) {
+			if (paulis[i] == 'I')
+				continue;
+			if (sb.length() > 0)
+				sb.append(' ');
+			sb.append(paulis[i]).append(registers[i]);
+		}
+		return sb.length() == 0 ? "I" : sb.toString();
+	}
+}
@@ -0,0 +1,90 @@
+package appFX.framework.simulator;
+
+import java.util.ArrayList;
+
+/**
+ * An {@link Observable} given as a real linear combination of {@link PauliString}s. <br>
+ * The expectation is taken in one pass over the amplitudes without copying the state, see {@link ObservableBatch}.
+ *
+ * @author quantumresearch
+ *
+ */
+public class PauliSum implements Observable {
+	private final ArrayList<Double> coefficients = new ArrayList<>();
+	private final ArrayList<PauliString> strings = new ArrayList<>();
+	
+	/**
+	 * @param coefficient
+	 * @param string
+	 * @return this sum
+	 */
+	public PauliSum add(double coefficient, PauliString string) {
+		coefficients.add(coefficient);
+		strings.add(string);
+		return this;
+	}
+	
+	public PauliSum add(double coefficient, String paulis, int ... registers) {
+		return add(coefficient, new PauliString(paulis, registers));
+	}
+	
+	public int size() {
+		return strings.size();
+	}
+	
+	public double getCoefficient(int term) {
+		return coefficients.get(term);
+	}
+	
+	public PauliString getString(int term) {
+		return strings.get(term);
+	}
+	
+	@Override
+	public double expectation(StateMatrix sm) {
+		return new ObservableBatch().add(this).expectations(sm)[0];
+	}
+	
+	@Override
+	public StateMatrix apply(StateMatrix sm) {
+		int numQubits = sm.getNumQubits();
+		Amplitudes in = sm.getAmplitudes();
+		StateMatrix result = sm.blank();
+		Amplitudes out = result.getAmplitudes();
+		long length = in.length();
+		for (int t = 0; t < strings.size(); t++) {
+			PauliString string = strings.get(t);
+			long x = string.xMask(numQubits);
+			long z = string.zMask(numQubits);
+			// the coefficient times i to the number of Y matrices
+			double c = coefficients.get(t);
+			int numY = string.numY() & 3;
+			double phaseReal = numY == 0 ? c : numY == 2 ? -c : 0;
+			double phaseImag = numY == 1 ? c : numY == 3 ? -c : 0;
+			for (long i = 0; i < length; i++) {
+				double real = in.getReal(i);
+				double imag = in.getImag(i);
+				if (real == 0 && imag == 0)
+					continue;
+				if ((Long.bitCount(i & z) & 1) != 0) {
+					real = -real;
+					imag = -imag;
+				}
+				long j = i ^ x;
+				out.set(j, out.getReal(j) + phaseReal * real - phaseImag * imag, out.getImag(j) + phaseReal * imag + phaseImag * real);
+			}
+		}
+		return result;
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (int t = 0; t < strings.size(); t++) {
+			if (t > 0)
+				sb.append(" + ");
+			sb.append(coefficients.get(t)).append(' ').append(strings.get(t));
+		}
+		return sb.toString();
+	}
+}
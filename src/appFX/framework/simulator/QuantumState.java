@@ -1,94 +1,104 @@
 package appFX.framework.simulator;
 
+import java.util.SplittableRandom;
+
 import appFX.framework.exportGates.Control;
 import appFX.framework.gateModels.BasicGateModel;
 import appFX.framework.gateModels.GateModel;
 import appFX.framework.gateModels.QuantumGateDefinition;
-import appFX.framework.utils.InputDefinitions.ArgObject;
-import appFX.framework.utils.InputDefinitions.MathObject;
-import appFX.framework.utils.InputDefinitions.MatrixObject;
+import appFX.framework.gateModels.QuantumGateDefinition.QuantumGateType;
 import mathLib.Complex;
 import mathLib.Matrix;
 import mathLib.expression.Expression.EvaluateExpressionException;
 import mathLib.expression.MathSet;
-import utils.customCollections.immutableLists.ImmutableArray;
-import utils.customMaps.IndexMap;
+import utils.customMaps.IntIndexMap;
 
 public class QuantumState implements State {
 	
 	private StateMatrix stateMatrix;
+	private final SplittableRandom random;
+	private final GateFuser fuser;
+	private final GateMatrixCache matrixCache;
+	private ShotSampler sampler = null;
 	
 	public QuantumState (int numQubits) {
-		this.stateMatrix = new StateMatrix(numQubits);
+		this(numQubits, new SimulatorSettings());
+	}
+	
+	public QuantumState (int numQubits, SimulatorSettings settings) {
+		this(numQubits, settings, new GateMatrixCache(settings.getMatrixCacheSize()));
+	}
+	
+	/**
+	 * @param numQubits
+	 * @param settings
+	 * @param matrixCache a cache that may be shared with other states, such as the other shots of a {@link ShotBatch}
+	 */
+	QuantumState (int numQubits, SimulatorSettings settings, GateMatrixCache matrixCache) {
+		this.stateMatrix = new StateMatrix(numQubits, settings);
+		this.random = settings.newRandom();
+		this.fuser = settings.getFusionWidth() > 1 ? new GateFuser(settings.getFusionWidth(), numQubits) : null;
+		this.matrixCache = matrixCache;
+	}
+	
+	private QuantumState (StateMatrix stateMatrix, SplittableRandom random, GateFuser fuser, GateMatrixCache matrixCache) {
+		this.stateMatrix = stateMatrix;
+		this.random = random;
+		this.fuser = fuser;
+		this.matrixCache = matrixCache;
 	}
 	
-	@SuppressWarnings("unchecked")
 	@Override
-	public int apply(GateModel gm, MathSet mathSet, IndexMap map, Object ... args) {
+	public int apply(GateModel gm, MathSet mathSet, IntIndexMap map, Object ... args) {
 		BasicGateModel bgm = (BasicGateModel) gm;
 		QuantumGateDefinition qgd = bgm.getQuantumGateDefinition();
-		ImmutableArray<MathObject> definitions = qgd.getDefinitions();
-		Matrix<Complex>[] matrixes = new Matrix[definitions.size()];
+		GateMatrixCache.Entry entry;
+		try {
+			entry = matrixCache.get(gm, mathSet);
+		} catch (EvaluateExpressionException e) {
+			e.printStackTrace();
+			throw new RuntimeException(e.getMessage());
+		}
 		
-		for (int i = 0 ; i < matrixes.length; i++) {
-			try {
-				MathObject mo = definitions.get(i);
-				if(mo.hasArguments())
-					matrixes[i] = (Matrix<Complex>) ((ArgObject) mo).getDefinition().compute(mathSet);
-				else
-					matrixes[i] = (Matrix<Complex>) ((MatrixObject) mo).getMatrix();
-			} catch (EvaluateExpressionException e) {
-				e.printStackTrace();
-				throw new RuntimeException(e.getMessage());
+		Control[] qcs = (Control[]) args[0];
+		if (sampler != null) {
+			switch (qgd.getQuantumGateType()) {
+			case KRAUS_OPERATORS:
+			case POVM:
+				double[][] realMatrixes = new double[entry.size()][];
+				double[][] imagMatrixes = new double[entry.size()][];
+				for (int j = 0; j < entry.size(); j++) {
+					realMatrixes[j] = entry.getReal(j);
+					imagMatrixes[j] = entry.getImag(j);
+				}
+				return sampler.record(realMatrixes, imagMatrixes, map.toArray(), qcs, qgd.getQuantumGateType() == QuantumGateType.POVM);
+			case UNIVERSAL:
+				sampler.checkUnmeasured(map.toArray(), qcs);
+				break;
+			default:
+				break;
 			}
 		}
 		
-		Control[] qcs = (Control[]) args[0];
 		switch (qgd.getQuantumGateType()) {
 		case HAMILTONIAN:
 			throw new UnsupportedOperationException("QuaCC does not support Hamiltonian Simulation.");
 			
 		case KRAUS_OPERATORS:
-			double predictor = Math.random();
-			double probSum = 0;
-			int i = 0;
-			for (Matrix<Complex> mat : matrixes) {
-				StateMatrix sm = this.stateMatrix.copy();
-				sm.mult(mat, map, qcs);
-				
-				double prob = sm.observableProbability();
-				probSum += prob;
-				
-				if (predictor < probSum) {
-					sm.mult(mat.adjugate(), map, qcs);
-					sm.normalize();
-					this.stateMatrix = sm;
-					break;
-				}
-				i ++;
-			}
-			return i;
+			flush();
+			return measure(entry, map.toArray(), qcs, true);
 			
 		case POVM:
-			predictor = Math.random();
-			probSum = 0;
-			for (Matrix<Complex> mat : matrixes) {
-				StateMatrix sm = this.stateMatrix.copy();
-				sm.mult(mat, map, qcs);
-				
-				double prob = sm.observableProbability(this.stateMatrix);
-				probSum += prob;
-				
-				if (predictor < probSum) {
-					sm.normalize();
-					this.stateMatrix = sm;
-					break;
-				}
-			}
+			flush();
+			measure(entry, map.toArray(), qcs, false);
 			break;
 			
 		case UNIVERSAL:
-			this.stateMatrix.mult(matrixes[0], map, qcs);
+			if (fuser == null) {
+				this.stateMatrix.mult(entry.getMatrix(0), map, qcs);
+			} else {
+				fuser.add(entry.getReal(0), entry.getImag(0), map.toArray(), qcs, stateMatrix);
+			}
 			break;
 			
 		default:
@@ -99,6 +109,184 @@ public class QuantumState implements State {
 		return -1;
 	}
 	
+	/**
+	 * Picks one of the operators of a measurement and applies it in place. <br>
+	 * The probability of every operator comes from one sweep over the blocks of amplitudes the measurement acts on,
+	 * so no copy of the state is made. Amplitudes outside of the blocks, whose quantum controls are not met, are
+	 * left alone by every operator and add their weight to each probability.
+	 * @param entry the operators of the measurement
+	 * @param targets
+	 * @param qcs
+	 * @param kraus whether the operators are Kraus operators, whose probability is |K|psi&gt;|^2,
+	 * rather than POVM elements, whose probability is &lt;psi|M|psi&gt;
+	 * @return the index of the chosen operator, or the number of operators if none was chosen
+	 */
+	private int measure(GateMatrixCache.Entry entry, int[] targets, Control[] qcs, boolean kraus) {
+		int numQubits = stateMatrix.getNumQubits();
+		GateKernel first = GateKernel.compile(entry.getReal(0), entry.getImag(0), targets, qcs, numQubits);
+		int dim = first.getDimension();
+		double[] density = stateMatrix.targetDensity(first);
+		
+		double outside = 0;
+		if (!first.coversAllAmplitudes()) {
+			outside = stateMatrix.observableProbability();
+			for (int d = 0; d < dim; d++)
+				outside -= density[d * dim + d];
+		}
+		
+		double predictor = random.nextDouble();
+		double probSum = 0;
+		int i = 0;
+		for (; i < entry.size(); i++) {
+			double[] re = entry.getReal(i);
+			double[] im = entry.getImag(i);
+			double prob = outside + (kraus ? krausProbability(re, im, density, dim) : povmProbability(re, im, density, dim));
+			probSum += prob;
+			
+			if (predictor < probSum) {
+				// the state collapses to K|psi> normalized, and nothing else is applied. A projector K has
+				// K adj(K) = det(K) I = 0, so also applying its adjugate would zero the state.
+				stateMatrix.apply(i == 0 ? first : GateKernel.compile(re, im, targets, qcs, numQubits));
+				stateMatrix.normalize();
+				break;
+			}
+		}
+		return i;
+	}
+	
+	// Tr(K rho K^dagger)
+	static double krausProbability(double[] re, double[] im, double[] density, int dim) {
+		int size = dim * dim;
+		double prob = 0;
+		for (int a = 0; a < dim; a++) {
+			for (int r = 0; r < dim; r++) {
+				double kr = re[a * dim + r];
+				double ki = im[a * dim + r];
+				if (kr == 0 && ki == 0)
+					continue;
+				for (int c = 0; c < dim; c++) {
+					// K[a][r] rho[r][c] conj(K[a][c])
+					double dr = density[r * dim + c];
+					double di = density[size + r * dim + c];
+					double xr = kr * dr - ki * di;
+					double xi = kr * di + ki * dr;
+					prob += xr * re[a * dim + c] + xi * im[a * dim + c];
+				}
+			}
+		}
+		return prob;
+	}
+	
+	// Re Tr(M rho)
+	static double povmProbability(double[] re, double[] im, double[] density, int dim) {
+		int size = dim * dim;
+		double prob = 0;
+		for (int r = 0; r < dim; r++)
+			for (int c = 0; c < dim; c++)
+				prob += re[r * dim + c] * density[c * dim + r] - im[r * dim + c] * density[size + c * dim + r];
+		return prob;
+	}
+	
+	/**
+	 * Records measurements in the sampler instead of applying them, see {@link ShotSampler}.
+	 * Must be called before any gate is applied.
+	 * @param sampler
+	 */
+	void deferMeasurements(ShotSampler sampler) {
+		this.sampler = sampler;
+	}
+	
+	boolean defersMeasurements() {
+		return sampler != null;
+	}
+	
+	ShotSampler getSampler() {
+		return sampler;
+	}
+	
+	/**
+	 * Applies the unitaries that are waiting to be fused. Gates after this call are not fused with the ones before it.
+	 */
+	public void flush() {
+		if (fuser != null)
+			fuser.flush(stateMatrix);
+	}
+	
+	/**
+	 * Copies the state after applying the unitaries that are waiting to be fused. The copy draws its measurement
+	 * outcomes from a random split off the random of this state.
+	 * @return a state that continues independently from this one
+	 */
+	QuantumState copy() {
+		flush();
+		GateFuser fuserCopy = fuser == null ? null : new GateFuser(fuser.getMaxWidth(), size());
+		return new QuantumState(stateMatrix.copy(), random.split(), fuserCopy, matrixCache);
+	}
+	
+	/**
+	 * @param qs
+	 * @return the tensor product of this state and the given one, see {@link StateMatrix#tensor(StateMatrix)},
+	 * which draws its measurement outcomes from the random of this state
+	 */
+	QuantumState tensor(QuantumState qs) {
+		flush();
+		qs.flush();
+		StateMatrix product = stateMatrix.tensor(qs.stateMatrix);
+		GateFuser fuserCopy = fuser == null ? null : new GateFuser(fuser.getMaxWidth(), product.getNumQubits());
+		return new QuantumState(product, random, fuserCopy, matrixCache);
+	}
+	
+	/**
+	 * @return the cache gate matrices are evaluated through, with its hit and miss counts
+	 */
+	public GateMatrixCache getMatrixCache() {
+		return matrixCache;
+	}
+	
+	/**
+	 * @param observable
+	 * @return the expectation of the observable in this state
+	 */
+	public double expectation(Observable observable) {
+		return observable.expectation(getStateMatrix());
+	}
+	
+	/**
+	 * @param batch
+	 * @return the expectation of every observable of the batch, taken in one pass over the amplitudes
+	 */
+	public double[] expectations(ObservableBatch batch) {
+		return batch.expectations(getStateMatrix());
+	}
+	
+	/**
+	 * @param registers
+	 * @return see {@link StateMatrix#marginalProbabilities(int...)}
+	 */
+	public double[] marginalProbabilities(int ... registers) {
+		return getStateMatrix().marginalProbabilities(registers);
+	}
+	
+	/**
+	 * @param registers
+	 * @return the density matrix of the registers with every other register traced out,
+	 * the first register being the most significant bit of a row or column
+	 */
+	public Matrix<Complex> reducedDensityMatrix(int ... registers) {
+		double[] density = getStateMatrix().reducedDensityMatrix(registers);
+		int size = density.length / 2;
+		int dim = 1 << registers.length;
+		Complex[] comps = new Complex[size];
+		for (int i = 0; i < size; i++)
+			comps[i] = new Complex(density[i], density[size + i]);
+		return new Matrix<Complex>(dim, dim, comps);
+	}
+	
+	public StateMatrix getStateMatrix() {
+		flush();
+		return stateMatrix;
+	}
+	
 	@Override
 	public int size() {
 		return this.stateMatrix.getNumQubits();
@@ -106,6 +294,7 @@ public class QuantumState implements State {
 	
 	@Override
 	public String toString() {
+		flush();
 		return "[Quantum] : \n" + stateMatrix.toString();
 	}
 	
@@ -0,0 +1,152 @@
+package appFX.framework.simulator;
+
+import java.util.ArrayDeque;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+import appFX.framework.Project;
+import appFX.framework.exportGates.GateManager.ExportException;
+
+/**
+ * Simulates every shot of a project on its own, which circuits whose later gates depend on earlier measurements need. <br>
+ * Shots are run in chunks on the pool of the {@link SimulatorSettings}. Each shot owns its states and draws its
+ * measurement outcomes from a seed that is split off a master random in shot order before the shot is started,
+ * so the counts only depend on the master seed and not on how many threads run the batch.
+ *
+ * @author quantumresearch
+ *
+ */
+public class ShotBatch {
+	public static final int DEFAULT_CHUNK_SIZE = 32;
+	
+	private final Project p;
+	private final ExecutionPlan plan;
+	private final long shots;
+	private final SimulatorSettings settings;
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+	
+	public ShotBatch(Project p, long shots, SimulatorSettings settings) {
+		this(p, null, shots, settings);
+	}
+	
+	ShotBatch(ExecutionPlan plan, long shots, SimulatorSettings settings) {
+		this(null, plan, shots, settings);
+	}
+	
+	private ShotBatch(Project p, ExecutionPlan plan, long shots, SimulatorSettings settings) {
+		this.p = p;
+		this.plan = plan;
+		this.shots = shots;
+		this.settings = settings;
+	}
+	
+	public int getChunkSize() {
+		return chunkSize;
+	}
+	
+	/**
+	 * @param chunkSize the number of shots a worker runs before its counts are reported
+	 */
+	public void setChunkSize(int chunkSize) {
+		if (chunkSize < 1)
+			throw new IllegalArgumentException("Chunk size must be at least 1");
+		this.chunkSize = chunkSize;
+	}
+	
+	public ShotCounts run() throws ExportException {
+		return run(null);
+	}
+	
+	/**
+	 * @param listener given the counts of every shot finished so far each time a chunk finishes, in chunk order.
+	 * The counts keep changing after the listener returns.
+	 * @return the counts of all shots
+	 * @throws ExportException
+	 */
+	public ShotCounts run(Consumer<ShotCounts> listener) throws ExportException {
+		return run(settings.newRandom(), listener);
+	}
+	
+	ShotCounts run(SplittableRandom master, Consumer<ShotCounts> listener) throws ExportException {
+		// the project is compiled once and every shot runs the same plan
+		ExecutionPlan plan = this.plan != null ? this.plan : ExecutionPlan.compile(p);
+		
+		// shots are the parallel axis, so each shot applies its gates on one thread
+		SimulatorSettings shotSettings = settings.copy();
+		shotSettings.setParallelThreshold(Integer.MAX_VALUE);
+		shotSettings.setBackend(plan.resolveBackend(settings));
+		GateMatrixCache matrixCache = new GateMatrixCache(settings.getMatrixCacheSize());
+		
+		return run(shots, chunkSize, settings.getPool(), master, seed -> {
+			SimulatorSettings seeded = shotSettings.copy();
+			seeded.setSeed(seed);
+			return Simulator.registerOf(plan.run(seeded, false, matrixCache)).bitString();
+		}, listener);
+	}
+	
+	/**
+	 * @param shots
+	 * @param chunkSize the number of shots a worker runs before its counts are reported
+	 * @param pool
+	 * @param master the random the seed of every shot is split off, in shot order
+	 * @param shot runs one shot from its seed
+	 * @param listener see {@link #run(Consumer)}
+	 * @return the counts of all shots
+	 * @throws ExportException
+	 */
+	static ShotCounts run(long shots, int chunkSize, ForkJoinPool pool, SplittableRandom master, Shot shot,
+			Consumer<ShotCounts> listener) throws ExportException {
+		int inFlight = 2 * pool.getParallelism();
+		ShotCounts counts = new ShotCounts();
+		ArrayDeque<ForkJoinTask<ShotCounts>> chunks = new ArrayDeque<>();
+		long submitted = 0;
+		while (submitted < shots || !chunks.isEmpty()) {
+			while (submitted < shots && chunks.size() < inFlight) {
+				long[] seeds = new long[(int) Math.min(chunkSize, shots - submitted)];
+				for (int i = 0; i < seeds.length; i++)
+					seeds[i] = master.nextLong();
+				chunks.add(pool.submit(() -> runChunk(seeds, shot)));
+				submitted += seeds.length;
+			}
+			
+			counts.merge(join(chunks.poll()));
+			if (listener != null)
+				listener.accept(counts);
+		}
+		return counts;
+	}
+	
+	private static ShotCounts runChunk(long[] seeds, Shot shot) {
+		ShotCounts counts = new ShotCounts();
+		for (long seed : seeds)
+			counts.add(shot.run(seed), 1);
+		return counts;
+	}
+	
+	private static ShotCounts join(ForkJoinTask<ShotCounts> chunk) throws ExportException {
+		try {
+			return chunk.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof ExportException)
+				throw (ExportException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new RuntimeException(cause);
+		}
+	}
+	
+	static interface Shot {
+		/**
+		 * @param seed the seed the shot draws its measurement outcomes from
+		 * @return the value of the classical register the shot ends with
+		 */
+		public String run(long seed);
+	}
+}
@@ -0,0 +1,59 @@
+package appFX.framework.simulator;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * How many shots of a circuit ended with each value of the classical register. <br>
+ * Values are written as in {@link ClassicalState#bitString()}.
+ *
+ * @author quantumresearch
+ *
+ */
+public class ShotCounts {
+	private final TreeMap<String, Long> counts = new TreeMap<>();
+	private long shots = 0;
+	private boolean sampled = false;
+	
+	public void add(String register, long count) {
+		counts.merge(register, count, Long::sum);
+		shots += count;
+	}
+	
+	public void merge(ShotCounts other) {
+		for (Map.Entry<String, Long> e : other.counts.entrySet())
+			add(e.getKey(), e.getValue());
+	}
+	
+	public long get(String register) {
+		return counts.getOrDefault(register, 0L);
+	}
+	
+	public Map<String, Long> getCounts() {
+		return Collections.unmodifiableMap(counts);
+	}
+	
+	public long getShots() {
+		return shots;
+	}
+	
+	/**
+	 * @return whether every shot was drawn from a single simulation instead of simulating each shot
+	 */
+	public boolean isSampled() {
+		return sampled;
+	}
+	
+	void setSampled(boolean sampled) {
+		this.sampled = sampled;
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("[Shots] : " + shots);
+		for (Map.Entry<String, Long> e : counts.entrySet())
+			sb.append('\n').append(e.getKey()).append(" : ").append(e.getValue());
+		return sb.toString();
+	}
+}
@@ -0,0 +1,229 @@
+package appFX.framework.simulator;
+
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+
+import appFX.framework.exportGates.Control;
+
+/**
+ * Draws many shots of a circuit from a single simulation. <br>
+ * While a {@link QuantumState} defers its measurements to a sampler, measurements are recorded instead of
+ * collapsing the state, and the classical bits they write remember which recorded outcome they hold.
+ * This is only valid when every measurement is a projection onto computational basis states and nothing
+ * after a measurement depends on it, so the final state can be measured all at once:
+ * <ul>
+ * <li>measurements have no quantum controls and all of their operators are diagonal,</li>
+ * <li>no unitary acts on a qubit that was already measured,</li>
+ * <li>no classical control or classical gate reads a measured bit.</li>
+ * </ul>
+ * Anything else throws a {@link NotTerminalException} during the simulation.
+ *
+ * @author quantumresearch
+ *
+ */
+class ShotSampler {
+	/**
+	 * The largest number of distinct measured qubits whose distribution is tabulated.
+	 */
+	static final int MAX_MEASURED_QUBITS = 26;
+	
+	private static final double EPSILON = 1e-9;
+	
+	private final int numQubits;
+	private final ArrayList<Record> records = new ArrayList<>();
+	private int[] measured = new int[0];
+	
+	ShotSampler(int numQubits) {
+		this.numQubits = numQubits;
+	}
+	
+	/**
+	 * @param record a record returned by {@link #record(double[][], double[][], int[], Control[], boolean)}
+	 * @param bit the bit of the outcome that is written to a classical register
+	 * @return the source a {@link ClassicalState} keeps for that bit
+	 */
+	static int source(int record, int bit) {
+		return (record << 5) | (bit & 31);
+	}
+	
+	/**
+	 * Records a measurement instead of applying it.
+	 * @param realMatrixes row major real components of the measurement operators
+	 * @param imagMatrixes row major imaginary components of the measurement operators
+	 * @param targets the global registers the measurement acts on, in matrix order
+	 * @param qcs the quantum controls of the measurement
+	 * @param constantOutcome whether the measurement always reports -1, as POVMs do, rather than the index of its outcome
+	 * @return the index of the record
+	 */
+	int record(double[][] realMatrixes, double[][] imagMatrixes, int[] targets, Control[] qcs, boolean constantOutcome) {
+		if (qcs.length != 0)
+			throw new NotTerminalException("Measurement has quantum controls");
+		
+		int dim = 1 << targets.length;
+		int[] outcomes = new int[dim];
+		for (int sub = 0; sub < dim; sub++)
+			outcomes[sub] = realMatrixes.length;
+		for (int k = 0; k < realMatrixes.length; k++) {
+			double[] re = realMatrixes[k];
+			double[] im = imagMatrixes[k];
+			for (int row = 0; row < dim; row++) {
+				for (int column = 0; column < dim; column++) {
+					double mag = re[row * dim + column] * re[row * dim + column] + im[row * dim + column] * im[row * dim + column];
+					if (mag < EPSILON)
+						continue;
+					if (row != column || Math.abs(mag - 1) > EPSILON || outcomes[row] != realMatrixes.length)
+						throw new NotTerminalException("Measurement is not a projection onto computational basis states");
+					outcomes[row] = k;
+				}
+			}
+		}
+		
+		int[] positions = new int[targets.length];
+		for (int i = 0; i < targets.length; i++)
+			positions[i] = addMeasured(targets[i]);
+		
+		records.add(new Record(positions, constantOutcome ? null : outcomes));
+		return records.size() - 1;
+	}
+	
+	/**
+	 * @param targets
+	 * @param qcs
+	 * @throws NotTerminalException if the unitary acts on a measured qubit
+	 */
+	void checkUnmeasured(int[] targets, Control[] qcs) {
+		for (int reg : targets)
+			if (positionOf(reg) >= 0)
+				throw new NotTerminalException("Unitary acts on measured qubit " + reg);
+		for (Control c : qcs)
+			if (positionOf(c.getRegister()) >= 0)
+				throw new NotTerminalException("Unitary is controlled by measured qubit " + c.getRegister());
+	}
+	
+	/**
+	 * Measures the final state once per shot and counts the values the classical register ends with.
+	 * @param sm the final state
+	 * @param register the traced classical register the measurements were written to
+	 * @param shots
+	 * @param random
+	 * @param counts
+	 */
+	void sample(StateMatrix sm, ClassicalState register, long shots, SplittableRandom random, ShotCounts counts) {
+		int m = measured.length;
+		if (m > MAX_MEASURED_QUBITS)
+			throw new NotTerminalException(m + " measured qubits are too many to tabulate");
+		
+		double[] cumulative = marginal(sm);
+		for (int s = 1; s < cumulative.length; s++)
+			cumulative[s] += cumulative[s - 1];
+		double total = cumulative[cumulative.length - 1];
+		
+		long[] histogram = new long[cumulative.length];
+		for (long shot = 0; shot < shots; shot++)
+			histogram[search(cumulative, random.nextDouble() * total)]++;
+		
+		char[] comps = new char[register.size()];
+		for (int s = 0; s < histogram.length; s++) {
+			if (histogram[s] == 0)
+				continue;
+			for (int bit = 0; bit < comps.length; bit++) {
+				int source = register.getSource(bit);
+				boolean value;
+				if (source == ClassicalState.NO_SOURCE)
+					value = register.get(bit);
+				else
+					value = ((records.get(source >>> 5).outcome(s) >>> (source & 31)) & 1) == 1;
+				comps[bit] = value ? '1' : '0';
+			}
+			counts.add(new String(comps), histogram[s]);
+		}
+	}
+	
+	// the probability of each value of the measured qubits, with measured[p] at bit p
+	private double[] marginal(StateMatrix sm) {
+		int m = measured.length;
+		int[] shifts = new int[m];
+		for (int p = 0; p < m; p++)
+			shifts[p] = numQubits - 1 - measured[p];
+		
+		double[] marginal = new double[1 << m];
+		Amplitudes amplitudes = sm.getAmplitudes();
+		long length = amplitudes.length();
+		for (long i = 0; i < length; i++) {
+			double re = amplitudes.getReal(i);
+			double im = amplitudes.getImag(i);
+			double prob = re * re + im * im;
+			if (prob == 0)
+				continue;
+			int s = 0;
+			for (int p = 0; p < m; p++)
+				s |= (int) ((i >>> shifts[p]) & 1) << p;
+			marginal[s] += prob;
+		}
+		return marginal;
+	}
+	
+	// the first index whose cumulative probability exceeds the value
+	private static int search(double[] cumulative, double value) {
+		int low = 0;
+		int high = cumulative.length - 1;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (cumulative[mid] > value)
+				high = mid;
+			else
+				low = mid + 1;
+		}
+		return low;
+	}
+	
+	private int addMeasured(int reg) {
+		int position = positionOf(reg);
+		if (position >= 0)
+			return position;
+		int[] next = new int[measured.length + 1];
+		System.arraycopy(measured, 0, next, 0, measured.length);
+		next[measured.length] = reg;
+		measured = next;
+		return measured.length - 1;
+	}
+	
+	private int positionOf(int reg) {
+		for (int p = 0; p < measured.length; p++)
+			if (measured[p] == reg)
+				return p;
+		return -1;
+	}
+	
+	
+	private static class Record {
+		private final int[] positions;
+		private final int[] outcomes;
+		
+		private Record(int[] positions, int[] outcomes) {
+			this.positions = positions;
+			this.outcomes = outcomes;
+		}
+		
+		// the outcome reported for a value of the measured qubits, the first target being the most significant bit
+		private int outcome(int s) {
+			if (outcomes == null)
+				return -1;
+			int sub = 0;
+			for (int position : positions)
+				sub = (sub << 1) | ((s >>> position) & 1);
+			return outcomes[sub];
+		}
+	}
+	
+	/**
+	 * Thrown when a circuit cannot be sampled from a single simulation.
+	 */
+	static class NotTerminalException extends RuntimeException {
+		private static final long serialVersionUID = 3470296153932571864L;
+		
+		NotTerminalException(String message) {
+			super(message);
+		}
+	}
+}
@@ -1,215 +1,158 @@
 package appFX.framework.simulator;
 
-import java.util.ArrayList;
+import java.util.SplittableRandom;
 import java.util.stream.Stream;
 
 import appFX.framework.Project;
-import appFX.framework.exportGates.Control;
 import appFX.framework.exportGates.GateManager;
 import appFX.framework.exportGates.GateManager.ExportCircuit;
 import appFX.framework.exportGates.GateManager.ExportException;
-import appFX.framework.exportGates.GateManager.ExportNotCircuit;
 import appFX.framework.exportGates.GateManager.Exportable;
-import appFX.framework.exportGates.RawExportableGateData.RawExportLink;
-import appFX.framework.exportGates.RawExportableGateData.RawExportOutputLink;
 import appFX.framework.gateModels.GateModel.GateComputingType;
+import mathLib.expression.MathSet;
 import utils.StringUtils;
 import utils.customCollections.IterableUtils;
 import utils.customCollections.Range;
-import utils.customMaps.IndexMap;
 
 public class Simulator {
 	
 	public static State[] simulate(Project p) throws ExportException {
-		Stream<Exportable> stream = GateManager.exportGates(p);
-		
-		ExportCircuit first = null;
-		for (Exportable e : IterableUtils.convert(stream))
-			first = (ExportCircuit) e;
-		
-		GateComputingType computingType = first.getComputingType();
-		
-		QuantumState qs;
-		ClassicalState cs;
-		ClassicalState cs2;
-		IndexMap indexMap;
-		State[] states;
-		switch (computingType) {
-		case QUANTUM:
-			int numQubits = first.getNumPrimaryRegs();
-			int numBits = first.getNumSecondaryRegs();
-			qs = new QuantumState(numQubits);
-			cs = new ClassicalState(numBits);
-			states = new State[] {qs, cs};
-			indexMap = new IndexMap(Range.mk(numQubits));
-			break;
-		case CLASSICAL:
-			int numBits1 = first.getNumPrimaryRegs();
-			int numBits2 = first.getNumSecondaryRegs();
-			cs = new ClassicalState(numBits1);
-			cs2 = new ClassicalState(numBits2);
-			states = new State[] {cs, cs2};
-			indexMap = new IndexMap(Range.mk(numBits1));
-			break;
-		default:
-			throw new RuntimeException(computingType.name() + " is not supported.");
-		}
-		
-		simulate(first.exportIfCircuitBoard(), states, new Control[0], indexMap);
-		return states;
+		return simulate(p, new SimulatorSettings());
 	}
 	
-	@SuppressWarnings("unused")
-	private static void debugSim(Stream<Exportable> stream) {
-		debugSim(stream, 0);
+	public static State[] simulate(Project p, SimulatorSettings settings) throws ExportException {
+		return simulate(p, settings, false, new GateMatrixCache(settings.getMatrixCacheSize()));
 	}
 	
-	private static void simulate(Stream<Exportable> stream, State[] states, Control[] qcs, IndexMap parentToGlobalMap) {
-		stream = stream.takeWhile(x -> x != null);
-		stream = stream.filter(e -> !e.isIdentity());
-		for (Exportable e : IterableUtils.convert(stream)) {
-			boolean runGate = checkClassicalControls(states, e);
-			
-			if (!runGate)
-				continue;
-			
-			// get local map
-			ArrayList<Integer> regs = new ArrayList<>();
-			for (int i : e.getRegisters()) 
-				regs.add(i);
-			IndexMap childToParentMap = new IndexMap(regs);
-			
-			if (e.isCircuitBoard()) {
-				ExportCircuit ec = (ExportCircuit) e;
-				
-				State[] nextStates = null;
-				if (ec.getComputingType() == GateComputingType.QUANTUM) {
-					State qs = states[0];
-					int numBits = ec.getNumSecondaryRegs();
-					ClassicalState cs = new ClassicalState(numBits);
-					nextStates = new State[] {qs, cs};
-					
-					ClassicalState global = (ClassicalState) states[1];
-					for (RawExportLink rel : ec.getInputLinks()) {
-						int globalReg = rel.globalReg;
-						boolean value = global.get(globalReg);
-						int localReg = rel.localReg;
-						cs.set(localReg, value);
-					}
-
-					Control[] qcsNext = bindQuantumControls(qcs, ec.getQuantumControls(), parentToGlobalMap);
-					IndexMap childToGlobal = childToParentMap.map(parentToGlobalMap);
-					simulate(e.exportIfCircuitBoard(), nextStates, qcsNext, childToGlobal);
-					
-					for (RawExportOutputLink rel : ec.getOutputLinks()) {
-						int localReg = rel.localReg;
-						boolean value = cs.get(localReg);
-						int globalReg = rel.globalReg;
-						switch(rel.linkType) {
-						case CLASSICAL_LINK:
-							global.set(globalReg, value);
-							break;
-						default:
-							break;
-						}
-					}
-					
-				} else {
-					State qs = states[0];
-					int numBits = ec.getNumPrimaryRegs();
-					State cs = new ClassicalState(numBits);
-					nextStates = new State[] {qs, cs};
-					
-					simulate(e.exportIfCircuitBoard(), nextStates, null, null);
-				}
-				
+	/**
+	 * Runs a project for a number of shots and counts the values its classical register ends with. <br>
+	 * If every measurement is terminal, the project is simulated once on a state vector and each shot is drawn
+	 * from the final state, see {@link ShotSampler}. Otherwise, or when the settings ask for a backend other than
+	 * a state vector, the shots are simulated on their own as a {@link ShotBatch}. Shots are also simulated on their
+	 * own when more than 26 distinct qubits are measured, since the distribution of every value of the measured
+	 * qubits is tabulated to draw from.
+	 * @param p
+	 * @param shots
+	 * @return
+	 * @throws ExportException
+	 */
+	public static ShotCounts sample(Project p, long shots) throws ExportException {
+		return sample(p, shots, new SimulatorSettings());
+	}
+	
+	public static ShotCounts sample(Project p, long shots, SimulatorSettings settings) throws ExportException {
+		SplittableRandom random = settings.newRandom();
+		ShotCounts counts = new ShotCounts();
+		ExecutionPlan plan = ExecutionPlan.compile(p);
+		SimulatorSettings resolved = settings.copy();
+		resolved.setBackend(plan.resolveBackend(settings, true));
+		if (plan.getComputingType() == GateComputingType.QUANTUM && resolved.getBackend() != SimulatorSettings.Backend.STATE_VECTOR)
+			return new ShotBatch(plan, shots, settings).run(random, null);
+		
+		try {
+			State[] states = plan.run(resolved, true, new GateMatrixCache(settings.getMatrixCacheSize()));
+			if (states[0] instanceof QuantumState) {
+				QuantumState qs = (QuantumState) states[0];
+				qs.getSampler().sample(qs.getStateMatrix(), (ClassicalState) states[1], shots, random, counts);
 			} else {
-				ExportNotCircuit enc = (ExportNotCircuit) e;
-				if (enc.getComputingType() == GateComputingType.QUANTUM) {
-					QuantumState qs = (QuantumState) states[0];
-					Control[] qcsNext = bindQuantumControls(qcs, e.getQuantumControls(), parentToGlobalMap);
-					IndexMap childToGlobal = childToParentMap.map(parentToGlobalMap);
-					int measuredValue = qs.apply(enc.getGateModel(), enc.getMathSet(), childToGlobal, (Object) qcsNext);
-
-					ClassicalState cs = (ClassicalState) states[1];
-					for (RawExportOutputLink rel : enc.getOutputLinks()) {
-						int localReg = rel.localReg;
-						boolean value = ((measuredValue >>> localReg) & 1) == 1;
-						int globalReg = rel.globalReg;
-						switch(rel.linkType) {
-						case CLASSICAL_LINK:
-							cs.set(globalReg, value);
-							break;
-						default:
-							break;
-						}
-					}
-				} else if (enc.getComputingType() == GateComputingType.CLASSICAL)  {
-					ClassicalState cs = null;
-					if (states[0] instanceof QuantumState)
-						cs = (ClassicalState) states[1];
-					else
-						cs = (ClassicalState) states[0];
-					
-					cs.apply(enc.getGateModel(), enc.getMathSet(), childToParentMap);
-				}
+				counts.add(((ClassicalState) states[0]).bitString(), shots);
 			}
+			counts.setSampled(true);
+			return counts;
+		} catch (ShotSampler.NotTerminalException e) {
+			return new ShotBatch(plan, shots, settings).run(random, null);
 		}
 	}
 	
-	private static Control[] bindQuantumControls (Control[] global, Control[] local, IndexMap indexMap) {
-		int totalSize = global.length + local.length;
-		Control[] qcsNext = new Control[totalSize];
-		int i = 0;
-		for (Control qc : global)
-			qcsNext[i++] = qc;
-		for (Control qc : local) {
-			int reg = qc.getRegister();
-			boolean status = qc.getControlStatus();
-			int mappedReg = indexMap.get(reg);
-			qcsNext[i++] = new Control(mappedReg, status);
+	/**
+	 * @param states the states a project was simulated with
+	 * @return the classical register whose final value is counted by {@link #sample(Project, long)}
+	 */
+	static ClassicalState registerOf(State[] states) {
+		return (ClassicalState) (states[0] instanceof ClassicalState ? states[0] : states[1]);
+	}
+	
+	static State[] simulate(Project p, SimulatorSettings settings, boolean deferMeasurements, GateMatrixCache matrixCache) throws ExportException {
+		return ExecutionPlan.compile(p).run(settings, deferMeasurements, matrixCache);
+	}
+	
+	static ExportCircuit exportTopLevel(Project p) throws ExportException {
+		return exportTopLevel(GateManager.exportGates(p));
+	}
+	
+	static ExportCircuit exportTopLevel(Project p, MathSet runtimeVariables) throws ExportException {
+		return exportTopLevel(GateManager.exportGates(p, runtimeVariables));
+	}
+	
+	private static ExportCircuit exportTopLevel(Stream<Exportable> stream) {
+		ExportCircuit first = null;
+		for (Exportable e : IterableUtils.convert(stream))
+			first = (ExportCircuit) e;
+		return first;
+	}
+	
+	/**
+	 * Runs a classical project on 64 initial values of its register at once, see {@link BitSlicedClassicalState}.
+	 * @param p
+	 * @param inputs the lanes of each bit of the register before the project runs
+	 * @return the lanes of each bit of the register after the project ran
+	 * @throws ExportException
+	 */
+	public static BitSlicedClassicalState simulateLanes(Project p, long[] inputs) throws ExportException {
+		return ExecutionPlan.compile(p).runLanes(inputs);
+	}
+	
+	static State createQuantumState(int numQubits, SimulatorSettings.Backend backend, SimulatorSettings settings, GateMatrixCache matrixCache) {
+		switch (backend) {
+		case DENSITY_MATRIX:
+			return new DensityMatrixState(numQubits, settings, matrixCache);
+		case STABILIZER:
+			return new StabilizerState(numQubits, settings);
+		case MATRIX_PRODUCT_STATE:
+			return new MatrixProductState(numQubits, settings, matrixCache);
+		case SPARSE:
+			return new SparseState(numQubits, settings, matrixCache);
+		case CLUSTERED:
+			return new ClusteredState(numQubits, settings, matrixCache);
+		case STATE_VECTOR:
+		default:
+			return new QuantumState(numQubits, settings, matrixCache);
 		}
-		return qcsNext;
 	}
 	
-	private static boolean checkClassicalControls(State[] states, Exportable e) {
-		Control[] qcs = e.getQuantumControls();
-		Control[] ccs = e.getClassicalControls();
+	/**
+	 * Simulates a project in double and in single precision and compares the final quantum states. <br>
+	 * Both runs draw measurement outcomes from the same seed.
+	 * @param p
+	 * @param settings the settings both runs are based on
+	 * @return the fidelity of the single precision state against the double precision state
+	 * @throws ExportException
+	 */
+	public static double singlePrecisionFidelity(Project p, SimulatorSettings settings) throws ExportException {
+		long seed = settings.getSeed() == null ? System.nanoTime() : settings.getSeed();
 		
-		if (states[0] instanceof QuantumState) {
-			ClassicalState cs = (ClassicalState) states[1];
-			for (Control c : ccs) {
-				int i = c.getRegister();
-				boolean toCheck = c.getControlStatus() == Control.CONTROL_TRUE;
-				boolean val = cs.get(i);
-				if (val != toCheck)
-					return false;
-			}
-		} else {
-			if (qcs.length != 0) {
-				ClassicalState cs = (ClassicalState) states[0];
-				for (Control c : qcs) {
-					int i = c.getRegister();
-					boolean toCheck = c.getControlStatus() == Control.CONTROL_TRUE;
-					boolean val = cs.get(i);
-					if (val != toCheck)
-						return false;
-				}
-			}
-			
-			int stateIndex = states[1].size() != 0 ? 1 : 0;
-			ClassicalState cs = (ClassicalState) states[stateIndex];
-			
-			for (Control c : ccs) {
-				int i = c.getRegister();
-				boolean toCheck = c.getControlStatus() == Control.CONTROL_TRUE;
-				boolean val = cs.get(i);
-				if (val != toCheck)
-					return false;
-			}
-			
-		}
-		return true;
+		SimulatorSettings doubleSettings = settings.copy();
+		doubleSettings.setPrecision(SimulatorSettings.Precision.DOUBLE);
+		doubleSettings.setBackend(SimulatorSettings.Backend.STATE_VECTOR);
+		doubleSettings.setSeed(seed);
+		SimulatorSettings singleSettings = settings.copy();
+		singleSettings.setPrecision(SimulatorSettings.Precision.SINGLE);
+		singleSettings.setBackend(SimulatorSettings.Backend.STATE_VECTOR);
+		singleSettings.setSeed(seed);
+		
+		State[] doubleStates = simulate(p, doubleSettings);
+		State[] singleStates = simulate(p, singleSettings);
+		if (!(doubleStates[0] instanceof QuantumState))
+			throw new RuntimeException("Only quantum circuits can be compared.");
+		
+		StateMatrix doubleMatrix = ((QuantumState) doubleStates[0]).getStateMatrix();
+		StateMatrix singleMatrix = ((QuantumState) singleStates[0]).getStateMatrix();
+		return doubleMatrix.fidelity(singleMatrix);
+	}
+	
+	@SuppressWarnings("unused")
+	private static void debugSim(Stream<Exportable> stream) {
+		debugSim(stream, 0);
 	}
 	
 	private static void debugSim(Stream<Exportable> stream, int timesNest) {
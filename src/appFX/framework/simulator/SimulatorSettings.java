@@ -0,0 +1,239 @@
+package appFX.framework.simulator;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Options that are chosen per simulation run. <br>
+ * A fresh instance holds the defaults used by {@link Simulator#simulate(appFX.framework.Project)}.
+ *
+ * @author quantumresearch
+ *
+ */
+public class SimulatorSettings {
+	public static final int DEFAULT_PARALLEL_THRESHOLD = 14;
+	public static final int DEFAULT_FUSION_WIDTH = 2;
+	public static final int DEFAULT_MATRIX_CACHE_SIZE = 256;
+	public static final int DEFAULT_MAX_BOND_DIMENSION = 64;
+	public static final double DEFAULT_TRUNCATION_THRESHOLD = 1e-12;
+	public static final double DEFAULT_SPARSE_OCCUPANCY_THRESHOLD = 1.0 / 16;
+	
+	// the pools made by setParallelism, shared by every settings of the same parallelism so none is left to leak
+	private static final ConcurrentHashMap<Integer, ForkJoinPool> POOLS = new ConcurrentHashMap<>();
+	
+	public static enum Precision {
+		DOUBLE, SINGLE;
+	}
+	
+	/**
+	 * How the quantum register is represented.
+	 */
+	public static enum Backend {
+		/**
+		 * a {@link StabilizerState} if every quantum gate of the project is a Clifford gate it supports,
+		 * a state vector otherwise
+		 */
+		AUTO,
+		/**
+		 * a {@link QuantumState} holding a state vector
+		 */
+		STATE_VECTOR,
+		/**
+		 * a {@link StabilizerState}, which only supports Clifford gates
+		 */
+		STABILIZER,
+		/**
+		 * a {@link DensityMatrixState}, which averages over the outcomes of measurements and noise channels
+		 */
+		DENSITY_MATRIX,
+		/**
+		 * a {@link MatrixProductState}, which holds circuits with little entanglement in memory that grows with
+		 * the number of qubits instead of exponentially
+		 */
+		MATRIX_PRODUCT_STATE,
+		/**
+		 * a {@link SparseState}, which only stores the basis states with a non-zero amplitude until too many are populated
+		 */
+		SPARSE,
+		/**
+		 * a {@link ClusteredState}, which holds groups of qubits that have not interacted as separate state vectors
+		 */
+		CLUSTERED;
+	}
+	
+	private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+	private ForkJoinPool pool = ForkJoinPool.commonPool();
+	private boolean offHeap = false;
+	private Precision precision = Precision.DOUBLE;
+	private Long seed = null;
+	private int fusionWidth = DEFAULT_FUSION_WIDTH;
+	private int matrixCacheSize = DEFAULT_MATRIX_CACHE_SIZE;
+	private Backend backend = Backend.AUTO;
+	private int maxBondDimension = DEFAULT_MAX_BOND_DIMENSION;
+	private double truncationThreshold = DEFAULT_TRUNCATION_THRESHOLD;
+	private double sparseOccupancyThreshold = DEFAULT_SPARSE_OCCUPANCY_THRESHOLD;
+	
+	public SimulatorSettings copy() {
+		SimulatorSettings copy = new SimulatorSettings();
+		copy.parallelThreshold = parallelThreshold;
+		copy.pool = pool;
+		copy.offHeap = offHeap;
+		copy.precision = precision;
+		copy.seed = seed;
+		copy.fusionWidth = fusionWidth;
+		copy.matrixCacheSize = matrixCacheSize;
+		copy.backend = backend;
+		copy.maxBondDimension = maxBondDimension;
+		copy.truncationThreshold = truncationThreshold;
+		copy.sparseOccupancyThreshold = sparseOccupancyThreshold;
+		return copy;
+	}
+	
+	/**
+	 * @return the smallest number of qubits for which gate applications are split across {@link #getPool()}
+	 */
+	public int getParallelThreshold() {
+		return parallelThreshold;
+	}
+	
+	public void setParallelThreshold(int numQubits) {
+		this.parallelThreshold = numQubits;
+	}
+	
+	public ForkJoinPool getPool() {
+		return pool;
+	}
+	
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+	
+	/**
+	 * Runs gate applications on a pool with the given number of workers. <br>
+	 * Pools are made once for each parallelism and shared by every settings that asks for it, so calling this
+	 * again does not start new threads. Callers that need to shut their pool down should pass it to
+	 * {@link #setPool(ForkJoinPool)} instead. A parallelism of 1 keeps every run single-threaded.
+	 * @param parallelism
+	 */
+	public void setParallelism(int parallelism) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("Parallelism must be at least 1");
+		if (parallelism == ForkJoinPool.getCommonPoolParallelism())
+			this.pool = ForkJoinPool.commonPool();
+		else
+			this.pool = POOLS.computeIfAbsent(parallelism, ForkJoinPool::new);
+	}
+	
+	public int getParallelism() {
+		return pool.getParallelism();
+	}
+	
+	public boolean runsInParallel(int numQubits) {
+		return numQubits >= parallelThreshold && pool.getParallelism() > 1;
+	}
+	
+	/**
+	 * @return whether state vectors are stored off-heap even when they would fit in heap arrays. <br>
+	 * Registers larger than {@link Amplitudes#MAX_HEAP_QUBITS} are always stored off-heap.
+	 */
+	public boolean isOffHeap() {
+		return offHeap;
+	}
+	
+	public void setOffHeap(boolean offHeap) {
+		this.offHeap = offHeap;
+	}
+	
+	/**
+	 * @return the precision amplitudes are stored in. Single precision halves the memory of a state vector.
+	 */
+	public Precision getPrecision() {
+		return precision;
+	}
+	
+	public void setPrecision(Precision precision) {
+		this.precision = precision;
+	}
+	
+	/**
+	 * @return the seed measurement outcomes are drawn from, or null if every run is different
+	 */
+	public Long getSeed() {
+		return seed;
+	}
+	
+	public void setSeed(Long seed) {
+		this.seed = seed;
+	}
+	
+	public SplittableRandom newRandom() {
+		return seed == null ? new SplittableRandom() : new SplittableRandom(seed);
+	}
+	
+	/**
+	 * @return the largest number of qubits consecutive unitaries are fused over, see {@link GateFuser}. <br>
+	 * A width of 1 or less applies every gate on its own.
+	 */
+	public int getFusionWidth() {
+		return fusionWidth;
+	}
+	
+	public void setFusionWidth(int fusionWidth) {
+		this.fusionWidth = fusionWidth;
+	}
+	
+	/**
+	 * @return the number of evaluated gates kept by each {@link GateMatrixCache}. A size of 0 disables caching.
+	 */
+	public int getMatrixCacheSize() {
+		return matrixCacheSize;
+	}
+	
+	public void setMatrixCacheSize(int matrixCacheSize) {
+		this.matrixCacheSize = matrixCacheSize;
+	}
+	
+	public Backend getBackend() {
+		return backend;
+	}
+	
+	public void setBackend(Backend backend) {
+		this.backend = backend;
+	}
+	
+	/**
+	 * @return the largest bond dimension a {@link MatrixProductState} keeps. Larger bonds are truncated.
+	 */
+	public int getMaxBondDimension() {
+		return maxBondDimension;
+	}
+	
+	public void setMaxBondDimension(int maxBondDimension) {
+		if (maxBondDimension < 1)
+			throw new IllegalArgumentException("Bond dimension must be at least 1");
+		this.maxBondDimension = maxBondDimension;
+	}
+	
+	/**
+	 * @return the weight, relative to the state, below which a singular value of a {@link MatrixProductState} is dropped
+	 */
+	public double getTruncationThreshold() {
+		return truncationThreshold;
+	}
+	
+	public void setTruncationThreshold(double truncationThreshold) {
+		this.truncationThreshold = truncationThreshold;
+	}
+	
+	/**
+	 * @return the fraction of the basis states a {@link SparseState} may store before it converts to a state vector
+	 */
+	public double getSparseOccupancyThreshold() {
+		return sparseOccupancyThreshold;
+	}
+	
+	public void setSparseOccupancyThreshold(double sparseOccupancyThreshold) {
+		this.sparseOccupancyThreshold = sparseOccupancyThreshold;
+	}
+}
@@ -0,0 +1,314 @@
+package appFX.framework.simulator;
+
+import java.util.SplittableRandom;
+
+import appFX.framework.exportGates.Control;
+import appFX.framework.gateModels.BasicGateModel;
+import appFX.framework.gateModels.GateModel;
+import appFX.framework.gateModels.QuantumGateDefinition;
+import mathLib.expression.Expression.EvaluateExpressionException;
+import mathLib.expression.MathSet;
+import utils.customMaps.IntIndexMap;
+import utils.customMaps.LongComplexMap;
+
+/**
+ * A pure state that only stores the basis states with a non-zero amplitude, which suits oracles and classical
+ * reversible circuits that keep few basis states populated. <br>
+ * A gate is applied by scattering each stored amplitude into the rows of the column it selects, so its cost
+ * grows with the number of stored amplitudes rather than with <code>2^n</code>. Amplitudes that cancel are dropped.
+ * <p>
+ * Once more than {@link SimulatorSettings#getSparseOccupancyThreshold()} of the basis states are stored, the state
+ * is copied into a {@link QuantumState}, which applies every later gate.
+ *
+ * @author quantumresearch
+ *
+ */
+public class SparseState implements State {
+	// amplitudes whose squared modulus falls below this are treated as cancelled
+	private static final double PRUNE_THRESHOLD = 1e-30;
+	
+	private final int numQubits;
+	private final SimulatorSettings settings;
+	private final GateMatrixCache matrixCache;
+	private final SplittableRandom random;
+	private final long maxOccupancy;
+	private LongComplexMap amplitudes;
+	private QuantumState dense = null;
+	
+	public SparseState(int numQubits) {
+		this(numQubits, new SimulatorSettings());
+	}
+	
+	public SparseState(int numQubits, SimulatorSettings settings) {
+		this(numQubits, settings, new GateMatrixCache(settings.getMatrixCacheSize()));
+	}
+	
+	SparseState(int numQubits, SimulatorSettings settings, GateMatrixCache matrixCache) {
+		if (numQubits > 62)
+			throw new IllegalArgumentException("Cannot index " + numQubits + " qubits");
+		this.numQubits = numQubits;
+		this.settings = settings;
+		this.matrixCache = matrixCache;
+		this.random = settings.newRandom();
+		this.maxOccupancy = (long) (settings.getSparseOccupancyThreshold() * (1L << numQubits));
+		this.amplitudes = new LongComplexMap();
+		amplitudes.put(0, 1, 0);
+	}
+	
+	@Override
+	public int apply(GateModel gm, MathSet mathSet, IntIndexMap map, Object ... args) {
+		if (dense != null)
+			return dense.apply(gm, mathSet, map, args);
+		
+		BasicGateModel bgm = (BasicGateModel) gm;
+		QuantumGateDefinition qgd = bgm.getQuantumGateDefinition();
+		GateMatrixCache.Entry entry;
+		try {
+			entry = matrixCache.get(gm, mathSet);
+		} catch (EvaluateExpressionException e) {
+			e.printStackTrace();
+			throw new RuntimeException(e.getMessage());
+		}
+		
+		Control[] qcs = (Control[]) args[0];
+		int[] targets = map.toArray();
+		
+		double[][] realMatrixes = new double[entry.size()][];
+		double[][] imagMatrixes = new double[entry.size()][];
+		for (int j = 0; j < entry.size(); j++) {
+			realMatrixes[j] = entry.getReal(j);
+			imagMatrixes[j] = entry.getImag(j);
+		}
+		
+		switch (qgd.getQuantumGateType()) {
+		case HAMILTONIAN:
+			throw new UnsupportedOperationException("QuaCC does not support Hamiltonian Simulation.");
+		
+		case KRAUS_OPERATORS:
+			return measure(realMatrixes, imagMatrixes, targets, qcs, true);
+		
+		case POVM:
+			measure(realMatrixes, imagMatrixes, targets, qcs, false);
+			break;
+		
+		case UNIVERSAL:
+			applyUnitary(entry.getReal(0), entry.getImag(0), targets, qcs);
+			break;
+		
+		default:
+			break;
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * @param realMatrix row major real components of the gate
+	 * @param imagMatrix row major imaginary components of the gate
+	 * @param targets
+	 * @param qcs
+	 */
+	public void applyUnitary(double[] realMatrix, double[] imagMatrix, int[] targets, Control[] qcs) {
+		if (dense != null) {
+			dense.getStateMatrix().apply(GateKernel.compile(realMatrix, imagMatrix, targets, qcs, numQubits));
+			return;
+		}
+		amplitudes = multiply(realMatrix, imagMatrix, targets, qcs);
+		densifyIfFull();
+	}
+	
+	/**
+	 * Picks one of the operators of a measurement with its probability, applies it and normalizes the state.
+	 * @param realMatrixes row major real components of the operators
+	 * @param imagMatrixes row major imaginary components of the operators
+	 * @param targets
+	 * @param qcs
+	 * @param kraus whether the operators are Kraus operators, whose probability is |K|psi&gt;|^2,
+	 * rather than POVM elements, whose probability is &lt;psi|M|psi&gt;
+	 * @return the index of the chosen operator, or the number of operators if none was chosen
+	 */
+	int measure(double[][] realMatrixes, double[][] imagMatrixes, int[] targets, Control[] qcs, boolean kraus) {
+		double predictor = random.nextDouble();
+		double probSum = 0;
+		int i = 0;
+		for (; i < realMatrixes.length; i++) {
+			LongComplexMap result = multiply(realMatrixes[i], imagMatrixes[i], targets, qcs);
+			double norm = normSquared(result);
+			probSum += kraus ? norm : overlap(result);
+			
+			if (predictor < probSum) {
+				double factor = 1 / Math.sqrt(norm);
+				for (int slot = 0; slot < result.capacity(); slot++)
+					if (result.isUsed(slot))
+						result.put(result.keyAt(slot), result.realAt(slot) * factor, result.imagAt(slot) * factor);
+				amplitudes = result;
+				break;
+			}
+		}
+		densifyIfFull();
+		return i;
+	}
+	
+	/**
+	 * @return whether the state has been copied into a state vector
+	 */
+	public boolean isDense() {
+		return dense != null;
+	}
+	
+	/**
+	 * @return the number of stored amplitudes, which is <code>2^n</code> once the state is dense
+	 */
+	public long getOccupancy() {
+		return dense == null ? amplitudes.size() : 1L << numQubits;
+	}
+	
+	public double getReal(long basisState) {
+		return dense == null ? amplitudes.getReal(basisState) : dense.getStateMatrix().getAmplitudes().getReal(basisState);
+	}
+	
+	public double getImag(long basisState) {
+		return dense == null ? amplitudes.getImag(basisState) : dense.getStateMatrix().getAmplitudes().getImag(basisState);
+	}
+	
+	/**
+	 * @param basisState
+	 * @return the probability of measuring the register in a computational basis state
+	 */
+	public double probability(long basisState) {
+		double real = getReal(basisState);
+		double imag = getImag(basisState);
+		return real * real + imag * imag;
+	}
+	
+	@Override
+	public int size() {
+		return numQubits;
+	}
+	
+	@Override
+	public String toString() {
+		if (dense != null)
+			return dense.toString();
+		StringBuilder sb = new StringBuilder("[Sparse] : " + amplitudes.size() + " of " + (1L << numQubits) + " amplitudes");
+		if (amplitudes.size() > 64)
+			return sb.toString();
+		for (int slot = 0; slot < amplitudes.capacity(); slot++) {
+			if (!amplitudes.isUsed(slot))
+				continue;
+			double real = amplitudes.realAt(slot);
+			double imag = amplitudes.imagAt(slot);
+			sb.append('\n').append(amplitudes.keyAt(slot)).append(" : ");
+			sb.append(imag == 0 ? Double.toString(real) : real + (imag < 0 ? " - " : " + ") + Math.abs(imag) + "i");
+		}
+		return sb.toString();
+	}
+	
+	// the stored amplitudes multiplied by a controlled operator, with the first target as the most significant bit of its index
+	private LongComplexMap multiply(double[] realMatrix, double[] imagMatrix, int[] targets, Control[] qcs) {
+		int k = targets.length;
+		int dim = 1 << k;
+		long[] targetBits = new long[k];
+		long targetMask = 0;
+		for (int i = 0; i < k; i++) {
+			targetBits[i] = bitOf(targets[i]);
+			targetMask |= targetBits[i];
+		}
+		long controlMask = 0;
+		long controlValue = 0;
+		for (Control c : qcs) {
+			long bit = bitOf(c.getRegister());
+			if ((bit & targetMask) != 0)
+				continue;
+			controlMask |= bit;
+			if (c.getControlStatus() == Control.CONTROL_TRUE)
+				controlValue |= bit;
+		}
+		long[] offsets = new long[dim];
+		for (int a = 0; a < dim; a++)
+			for (int i = 0; i < k; i++)
+				if ((a & (1 << (k - 1 - i))) != 0)
+					offsets[a] |= targetBits[i];
+		
+		LongComplexMap result = new LongComplexMap(amplitudes.size());
+		for (int slot = 0; slot < amplitudes.capacity(); slot++) {
+			if (!amplitudes.isUsed(slot))
+				continue;
+			long key = amplitudes.keyAt(slot);
+			double re = amplitudes.realAt(slot);
+			double im = amplitudes.imagAt(slot);
+			if ((key & controlMask) != controlValue) {
+				result.add(key, re, im);
+				continue;
+			}
+			int column = 0;
+			for (int i = 0; i < k; i++)
+				if ((key & targetBits[i]) != 0)
+					column |= 1 << (k - 1 - i);
+			long base = key & ~targetMask;
+			for (int row = 0; row < dim; row++) {
+				double mr = realMatrix[row * dim + column];
+				double mi = imagMatrix[row * dim + column];
+				if (mr != 0 || mi != 0)
+					result.add(base | offsets[row], mr * re - mi * im, mr * im + mi * re);
+			}
+		}
+		return prune(result);
+	}
+	
+	private static LongComplexMap prune(LongComplexMap map) {
+		int cancelled = 0;
+		for (int slot = 0; slot < map.capacity(); slot++)
+			if (map.isUsed(slot) && isCancelled(map, slot))
+				cancelled++;
+		if (cancelled == 0)
+			return map;
+		LongComplexMap pruned = new LongComplexMap(map.size() - cancelled);
+		for (int slot = 0; slot < map.capacity(); slot++)
+			if (map.isUsed(slot) && !isCancelled(map, slot))
+				pruned.put(map.keyAt(slot), map.realAt(slot), map.imagAt(slot));
+		return pruned;
+	}
+	
+	private static boolean isCancelled(LongComplexMap map, int slot) {
+		double real = map.realAt(slot);
+		double imag = map.imagAt(slot);
+		return real * real + imag * imag < PRUNE_THRESHOLD;
+	}
+	
+	private void densifyIfFull() {
+		if (amplitudes.size() <= maxOccupancy)
+			return;
+		dense = new QuantumState(numQubits, settings, matrixCache);
+		Amplitudes vector = dense.getStateMatrix().getAmplitudes();
+		vector.set(0, 0, 0);
+		for (int slot = 0; slot < amplitudes.capacity(); slot++)
+			if (amplitudes.isUsed(slot))
+				vector.set(amplitudes.keyAt(slot), amplitudes.realAt(slot), amplitudes.imagAt(slot));
+		amplitudes = null;
+	}
+	
+	// Re <psi|phi> for the stored state psi
+	private double overlap(LongComplexMap phi) {
+		double overlap = 0;
+		for (int slot = 0; slot < phi.capacity(); slot++) {
+			if (!phi.isUsed(slot))
+				continue;
+			long key = phi.keyAt(slot);
+			overlap += amplitudes.getReal(key) * phi.realAt(slot) + amplitudes.getImag(key) * phi.imagAt(slot);
+		}
+		return overlap;
+	}
+	
+	private static double normSquared(LongComplexMap map) {
+		double norm = 0;
+		for (int slot = 0; slot < map.capacity(); slot++)
+			if (map.isUsed(slot))
+				norm += map.realAt(slot) * map.realAt(slot) + map.imagAt(slot) * map.imagAt(slot);
+		return norm;
+	}
+	
+	private long bitOf(int reg) {
+		return 1L << (numQubits - 1 - reg);
+	}
+}
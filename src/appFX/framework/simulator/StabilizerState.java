@@ -0,0 +1,314 @@
+package appFX.framework.simulator;
+
+import java.util.SplittableRandom;
+
+import appFX.framework.exportGates.Control;
+import appFX.framework.gateModels.GateModel;
+import appFX.framework.gateModels.PresetGateType;
+import appFX.framework.gateModels.PresetGateType.PresetGateModel;
+import mathLib.expression.MathSet;
+import utils.customMaps.IntIndexMap;
+
+/**
+ * A stabilizer state held as a CHP tableau (Aaronson and Gottesman), which simulates Clifford circuits
+ * in polynomial time and memory. <br>
+ * Rows <code>0</code> to <code>n - 1</code> are destabilizers, rows <code>n</code> to <code>2n - 1</code> are
+ * stabilizers and row <code>2n</code> is scratch space for deterministic measurements. Each row packs the X and Z
+ * bits of its Pauli string into <code>long</code> words, with register <code>r</code> at bit <code>r</code>.
+ * <p>
+ * Only the preset gates accepted by {@link #supports(PresetGateType, int)} can be applied.
+ *
+ * @author quantumresearch
+ *
+ */
+public class StabilizerState implements State {
+	private final int numQubits;
+	private final int words;
+	private final long[] xs;
+	private final long[] zs;
+	private final boolean[] phases;
+	private final SplittableRandom random;
+	
+	public StabilizerState(int numQubits) {
+		this(numQubits, new SimulatorSettings());
+	}
+	
+	public StabilizerState(int numQubits, SimulatorSettings settings) {
+		this.numQubits = numQubits;
+		this.words = (numQubits + 63) >>> 6;
+		int rows = 2 * numQubits + 1;
+		this.xs = new long[rows * words];
+		this.zs = new long[rows * words];
+		this.phases = new boolean[rows];
+		this.random = settings.newRandom();
+		for (int i = 0; i < numQubits; i++) {
+			xs[i * words + (i >>> 6)] |= 1L << i;
+			zs[(numQubits + i) * words + (i >>> 6)] |= 1L << i;
+		}
+	}
+	
+	/**
+	 * @param type a preset gate
+	 * @param numControls the number of quantum controls it is applied with
+	 * @return whether the gate is a Clifford operation this state can apply
+	 */
+	public static boolean supports(PresetGateType type, int numControls) {
+		switch (type) {
+		case IDENTITY:
+			return true;
+		case PAULI_X:
+		case PAULI_Y:
+		case PAULI_Z:
+			return numControls <= 1;
+		case HADAMARD:
+		case PHASE:
+		case CNOT:
+		case SWAP:
+		case MEASUREMENT:
+			return numControls == 0;
+		default:
+			return false;
+		}
+	}
+	
+	@Override
+	public int apply(GateModel gm, MathSet mathSet, IntIndexMap map, Object ... args) {
+		Control[] qcs = (Control[]) args[0];
+		PresetGateType type = gm instanceof PresetGateModel ? ((PresetGateModel) gm).getPresetGateType() : null;
+		if (type == null || !supports(type, qcs.length))
+			throw new UnsupportedOperationException(gm.getName() + " is not a Clifford gate the stabilizer simulator supports");
+		
+		int target = map.get(0);
+		Control control = qcs.length == 0 || qcs[0].getRegister() == target ? null : qcs[0];
+		switch (type) {
+		case HADAMARD:
+			hadamard(target);
+			break;
+		case PHASE:
+			phase(target);
+			break;
+		case PAULI_X:
+		case PAULI_Y:
+		case PAULI_Z:
+			if (control == null)
+				pauli(type, target);
+			else
+				controlledPauli(type, control, target);
+			break;
+		case CNOT:
+			cnot(target, map.get(1));
+			break;
+		case SWAP:
+			swap(target, map.get(1));
+			break;
+		case MEASUREMENT:
+			return measure(target);
+		default:
+			break;
+		}
+		return -1;
+	}
+	
+	public void hadamard(int a) {
+		int word = a >>> 6;
+		long bit = 1L << a;
+		for (int i = 0; i < 2 * numQubits; i++) {
+			int index = i * words + word;
+			long x = xs[index] & bit;
+			long z = zs[index] & bit;
+			if ((x & z) != 0)
+				phases[i] ^= true;
+			xs[index] = (xs[index] & ~bit) | z;
+			zs[index] = (zs[index] & ~bit) | x;
+		}
+	}
+	
+	public void phase(int a) {
+		int word = a >>> 6;
+		long bit = 1L << a;
+		for (int i = 0; i < 2 * numQubits; i++) {
+			int index = i * words + word;
+			long x = xs[index] & bit;
+			if ((x & zs[index]) != 0)
+				phases[i] ^= true;
+			zs[index] ^= x;
+		}
+	}
+	
+	public void cnot(int control, int target) {
+		int controlWord = control >>> 6;
+		int targetWord = target >>> 6;
+		for (int i = 0; i < 2 * numQubits; i++) {
+			int row = i * words;
+			boolean xc = ((xs[row + controlWord] >>> control) & 1) != 0;
+			boolean zc = ((zs[row + controlWord] >>> control) & 1) != 0;
+			boolean xt = ((xs[row + targetWord] >>> target) & 1) != 0;
+			boolean zt = ((zs[row + targetWord] >>> target) & 1) != 0;
+			if (xc && zt && (xt == zc))
+				phases[i] ^= true;
+			if (xc)
+				xs[row + targetWord] ^= 1L << target;
+			if (zt)
+				zs[row + controlWord] ^= 1L << control;
+		}
+	}
+	
+	public void swap(int a, int b) {
+		if (a == b)
+			return;
+		cnot(a, b);
+		cnot(b, a);
+		cnot(a, b);
+	}
+	
+	public void pauli(PresetGateType type, int a) {
+		int word = a >>> 6;
+		for (int i = 0; i < 2 * numQubits; i++) {
+			int index = i * words + word;
+			boolean x = ((xs[index] >>> a) & 1) != 0;
+			boolean z = ((zs[index] >>> a) & 1) != 0;
+			// a Pauli flips the sign of every generator it anticommutes with
+			switch (type) {
+			case PAULI_X:
+				phases[i] ^= z;
+				break;
+			case PAULI_Y:
+				phases[i] ^= x ^ z;
+				break;
+			default:
+				phases[i] ^= x;
+				break;
+			}
+		}
+	}
+	
+	void controlledPauli(PresetGateType type, Control control, int target) {
+		int c = control.getRegister();
+		boolean negated = control.getControlStatus() == Control.CONTROL_FALSE;
+		if (negated)
+			pauli(PresetGateType.PAULI_X, c);
+		switch (type) {
+		case PAULI_X:
+			cnot(c, target);
+			break;
+		case PAULI_Y:
+			// S CNOT S^dagger
+			phase(target);
+			phase(target);
+			phase(target);
+			cnot(c, target);
+			phase(target);
+			break;
+		default:
+			hadamard(target);
+			cnot(c, target);
+			hadamard(target);
+			break;
+		}
+		if (negated)
+			pauli(PresetGateType.PAULI_X, c);
+	}
+	
+	/**
+	 * Measures a qubit in the computational basis and collapses the state.
+	 * @param a
+	 * @return the outcome, 0 or 1
+	 */
+	public int measure(int a) {
+		int word = a >>> 6;
+		long bit = 1L << a;
+		int n = numQubits;
+		
+		int p = -1;
+		for (int i = n; i < 2 * n; i++) {
+			if ((xs[i * words + word] & bit) != 0) {
+				p = i;
+				break;
+			}
+		}
+		
+		if (p >= 0) {
+			// random outcome
+			for (int i = 0; i < 2 * n; i++)
+				if (i != p && (xs[i * words + word] & bit) != 0)
+					rowsum(i, p);
+			copyRow(p - n, p);
+			clearRow(p);
+			zs[p * words + word] |= bit;
+			phases[p] = random.nextBoolean();
+			return phases[p] ? 1 : 0;
+		}
+		
+		// deterministic outcome
+		int scratch = 2 * n;
+		clearRow(scratch);
+		for (int i = 0; i < n; i++)
+			if ((xs[i * words + word] & bit) != 0)
+				rowsum(scratch, i + n);
+		return phases[scratch] ? 1 : 0;
+	}
+	
+	// multiplies row h by row i, keeping track of the phase
+	private void rowsum(int h, int i) {
+		int hRow = h * words;
+		int iRow = i * words;
+		int sum = (phases[h] ? 2 : 0) + (phases[i] ? 2 : 0);
+		for (int w = 0; w < words; w++) {
+			long x1 = xs[iRow + w];
+			long z1 = zs[iRow + w];
+			long x2 = xs[hRow + w];
+			long z2 = zs[hRow + w];
+			long plus = (x1 & z1 & z2 & ~x2) | (x1 & ~z1 & x2 & z2) | (~x1 & z1 & x2 & ~z2);
+			long minus = (x1 & z1 & x2 & ~z2) | (x1 & ~z1 & ~x2 & z2) | (~x1 & z1 & x2 & z2);
+			sum += Long.bitCount(plus) - Long.bitCount(minus);
+			xs[hRow + w] = x1 ^ x2;
+			zs[hRow + w] = z1 ^ z2;
+		}
+		phases[h] = (sum & 3) == 2;
+	}
+	
+	private void copyRow(int to, int from) {
+		System.arraycopy(xs, from * words, xs, to * words, words);
+		System.arraycopy(zs, from * words, zs, to * words, words);
+		phases[to] = phases[from];
+	}
+	
+	private void clearRow(int row) {
+		for (int w = 0; w < words; w++) {
+			xs[row * words + w] = 0;
+			zs[row * words + w] = 0;
+		}
+		phases[row] = false;
+	}
+	
+	/**
+	 * @param i
+	 * @return the i-th stabilizer generator, such as <code>+XZI</code>
+	 */
+	public String getStabilizer(int i) {
+		int row = (numQubits + i) * words;
+		char[] comps = new char[numQubits + 1];
+		comps[0] = phases[numQubits + i] ? '-' : '+';
+		for (int a = 0; a < numQubits; a++) {
+			boolean x = ((xs[row + (a >>> 6)] >>> a) & 1) != 0;
+			boolean z = ((zs[row + (a >>> 6)] >>> a) & 1) != 0;
+			comps[a + 1] = x ? (z ? 'Y' : 'X') : (z ? 'Z' : 'I');
+		}
+		return new String(comps);
+	}
+	
+	@Override
+	public int size() {
+		return numQubits;
+	}
+	
+	@Override
+	public String toString() {
+		if (numQubits > 64)
+			return "[Stabilizer] : " + numQubits + " qubits";
+		StringBuilder sb = new StringBuilder("[Stabilizer] :");
+		for (int i = 0; i < numQubits; i++)
+			sb.append('\n').append(getStabilizer(i));
+		return sb.toString();
+	}
+}
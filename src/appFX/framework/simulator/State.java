@@ -2,9 +2,9 @@ package appFX.framework.simulator;
 
 import appFX.framework.gateModels.GateModel;
 import mathLib.expression.MathSet;
-import utils.customMaps.IndexMap;
+import utils.customMaps.IntIndexMap;
 
 public interface State {
-	public int apply(GateModel gm, MathSet mathSet, IndexMap map, Object ... args);
+	public int apply(GateModel gm, MathSet mathSet, IntIndexMap map, Object ... args);
 	public int size();
 }
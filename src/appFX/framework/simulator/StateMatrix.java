@@ -1,29 +1,29 @@
 package appFX.framework.simulator;
 
-import java.util.ArrayList;
-import java.util.HashSet;
-
 import appFX.framework.exportGates.Control;
 import mathLib.Complex;
 import mathLib.Matrix;
 import mathLib.Vector;
-import utils.customCollections.Range;
-import utils.customMaps.IndexMap;
+import utils.customMaps.IntIndexMap;
 
 public class StateMatrix {
 	private final int numQubits;
-	private final double[] real;
-	private final double[] imag;
+	private final Amplitudes amplitudes;
+	private final SimulatorSettings settings;
 	
 	public StateMatrix (int numQubits) {
-		this(numQubits, new double[1 << numQubits], new double[1 << numQubits]);
-		real[0] = 1;
+		this(numQubits, new SimulatorSettings());
+	}
+	
+	public StateMatrix (int numQubits, SimulatorSettings settings) {
+		this(numQubits, Amplitudes.allocate(numQubits, settings), settings);
+		amplitudes.set(0, 1, 0);
 	}
 	
-	private StateMatrix (int numQubits, double[] real, double[] imag) {
+	private StateMatrix (int numQubits, Amplitudes amplitudes, SimulatorSettings settings) {
 		this.numQubits = numQubits;
-		this.real = real;
-		this.imag = imag;
+		this.amplitudes = amplitudes;
+		this.settings = settings;
 	}
 	
 	public int getNumQubits() {
@@ -32,11 +32,12 @@ public class StateMatrix {
 	
 	public double observableProbability(StateMatrix sm) {
 		double prob = 0;
-		for (int i : Range.mk(real.length)) {
-			double rv1 = real[i];
-			double iv1 = imag[i];
-			double rv2 = sm.real[i];
-			double iv2 = sm.imag[i];
+		long length = amplitudes.length();
+		for (long i = 0; i < length; i++) {
+			double rv1 = amplitudes.getReal(i);
+			double iv1 = amplitudes.getImag(i);
+			double rv2 = sm.amplitudes.getReal(i);
+			double iv2 = sm.amplitudes.getImag(i);
 			prob += rv1 * rv2 + iv1 * iv2;
 		}
 		return prob;
@@ -44,177 +45,165 @@ public class StateMatrix {
 	
 	public double observableProbability() {
 		double prob = 0;
-		for (int i : Range.mk(real.length)) {
-			double rv = real[i];
-			double iv = imag[i];
+		long length = amplitudes.length();
+		for (long i = 0; i < length; i++) {
+			double rv = amplitudes.getReal(i);
+			double iv = amplitudes.getImag(i);
 			prob += rv * rv + iv * iv;
 		}
 		return prob;
 	}
 	
+	/**
+	 * @param sm a state over the same register
+	 * @return |&lt;this|sm&gt;|^2 divided by the norms of both states
+	 */
+	public double fidelity(StateMatrix sm) {
+		double overlapReal = 0;
+		double overlapImag = 0;
+		long length = amplitudes.length();
+		for (long i = 0; i < length; i++) {
+			double rv1 = amplitudes.getReal(i);
+			double iv1 = amplitudes.getImag(i);
+			double rv2 = sm.amplitudes.getReal(i);
+			double iv2 = sm.amplitudes.getImag(i);
+			overlapReal += rv1 * rv2 + iv1 * iv2;
+			overlapImag += rv1 * iv2 - iv1 * rv2;
+		}
+		double norms = observableProbability() * sm.observableProbability();
+		if (norms == 0.0)
+			return 0;
+		return (overlapReal * overlapReal + overlapImag * overlapImag) / norms;
+	}
+	
 	public void normalize() {
 		double magS = observableProbability();
 		double sqrtMag = Math.sqrt(magS);
 		if (sqrtMag == 0.0)
 			return;
-		for (int i : Range.mk(real.length)) {
-			real[i] /= sqrtMag;
-			imag[i] /= sqrtMag;
-		}
-	}
-	
-	public void mult(Matrix<Complex> matrix, IndexMap regIndexMap, Control[] qcs) {
-		
-		int[] indicators = makeIndexIndicators(qcs, regIndexMap);
-		int zeroEntries = indicators[0];
-		int oneEntries = indicators[1];
-		int both = zeroEntries & oneEntries;
-		int controlTrueEntries = oneEntries & ~zeroEntries;
-		
-		ArrayList<Integer> bothIndicies = new ArrayList<>();
-		for (int i : Range.mk(numQubits)) { // TODO: find a better way to do this
-			int mask = 1 << i;
-			if ((both & mask) != 0)
-				bothIndicies.add(mask);
-		}
-
-		double[][] comps = split(matrix);
-		double[] realMat = comps[0];
-		double[] imagMat = comps[1];
-		
-		if (bothIndicies.size() == 0) {
-			mult(realMat, imagMat, regIndexMap, controlTrueEntries);
-		} else {
-			int size = bothIndicies.size();
-			int timesThrough = 1 << size;
-			for (int i : Range.mk(timesThrough)) { // TODO: Make these iterations parallel (GPU?)
-				int mask = 0;
-				for (int j : Range.mk(size)) // TODO: Find someway to bypass this for loop
-					if ((i & (1 << j)) != 0)
-						mask |= bothIndicies.get(j);
-				mult(realMat, imagMat, regIndexMap, mask | controlTrueEntries);
-			}
+		long length = amplitudes.length();
+		for (long i = 0; i < length; i++)
+			amplitudes.set(i, amplitudes.getReal(i) / sqrtMag, amplitudes.getImag(i) / sqrtMag);
+	}
+	
+	public void mult(Matrix<Complex> matrix, IntIndexMap regIndexMap, Control[] qcs) {
+		apply(GateKernel.compile(matrix, regIndexMap, qcs, numQubits));
+	}
+	
+	public void apply(GateKernel kernel) {
+		if (kernel.getNumQubits() != numQubits)
+			throw new IllegalArgumentException("Kernel was compiled for " + kernel.getNumQubits() + " qubits, not " + numQubits);
+		if (settings.runsInParallel(numQubits))
+			kernel.apply(amplitudes, settings.getPool());
+		else
+			kernel.apply(amplitudes);
+	}
+	
+	/**
+	 * @param kernel a gate whose targets and controls select the blocks of amplitudes to sum over
+	 * @return see {@link GateKernel#targetDensity(Amplitudes)}
+	 */
+	double[] targetDensity(GateKernel kernel) {
+		if (settings.runsInParallel(numQubits))
+			return kernel.targetDensity(amplitudes, settings.getPool());
+		return kernel.targetDensity(amplitudes);
+	}
+	
+	/**
+	 * @param registers distinct registers, the first being the most significant bit of a value
+	 * @return the probability of each value of the registers, summed over every other register in one pass
+	 */
+	public double[] marginalProbabilities(int ... registers) {
+		GateKernel kernel = GateKernel.reduction(checkRegisters(registers), numQubits);
+		if (settings.runsInParallel(numQubits))
+			return kernel.targetProbabilities(amplitudes, settings.getPool());
+		return kernel.targetProbabilities(amplitudes);
+	}
+	
+	/**
+	 * @param registers distinct registers, the first being the most significant bit of a row or column
+	 * @return the row major real components of the density matrix of the registers with every other register
+	 * traced out, followed by its imaginary components
+	 */
+	public double[] reducedDensityMatrix(int ... registers) {
+		return targetDensity(GateKernel.reduction(checkRegisters(registers), numQubits));
+	}
+	
+	private int[] checkRegisters(int[] registers) {
+		long seen = 0;
+		for (int reg : registers) {
+			if (reg < 0 || reg >= numQubits)
+				throw new IllegalArgumentException("Register " + reg + " is not in a register of " + numQubits + " qubits");
+			if ((seen & (1L << reg)) != 0)
+				throw new IllegalArgumentException("Register " + reg + " is given twice");
+			seen |= 1L << reg;
 		}
-	}
-	
-	private void mult(double[] realMat, double[] imagMat, IndexMap indexMap, int mask) {
-		int size = 1 << indexMap.size();
-		
-		double[] realOutput 	= new double[size];
-		double[] imagOutput 	= new double[size];
-		double[] temp 			= new double[size];
-		
-		mult(real, realMat, realOutput, indexMap, mask);
-		mult(imag, imagMat, temp, indexMap, mask);
-		sub(realOutput, temp, realOutput);
-		
-		mult(real, imagMat, imagOutput, indexMap, mask);
-		mult(imag, realMat, temp, indexMap, mask);
-		add(imagOutput, temp, imagOutput);
-		
-		set(real, realOutput, indexMap, mask);
-		set(imag, imagOutput, indexMap, mask);
-	}
-	
-	private void mult(double[] vector, double[] mat, double[] output, IndexMap indexMap, int mask) {
-		int size = 1 << indexMap.size();
-		for (int r : Range.mk(size)) {
-			double sum = 0;
-			for (int c : Range.mk(size)) {
-				int matrixIndex = r + c * size;
-				int mappedIndex = mapIndexComponents(c, indexMap) | mask;
-				sum += vector[mappedIndex] * mat[matrixIndex];
+		return registers;
+	}
+	
+	/**
+	 * @param kernel a gate whose targets and controls select the blocks of amplitudes to sum over
+	 * @param sm a state over the same register
+	 * @return see {@link GateKernel#crossDensity(Amplitudes, Amplitudes)}, with this state on the left
+	 */
+	double[] crossDensity(GateKernel kernel, StateMatrix sm) {
+		if (settings.runsInParallel(numQubits))
+			return kernel.crossDensity(amplitudes, sm.amplitudes, settings.getPool());
+		return kernel.crossDensity(amplitudes, sm.amplitudes);
+	}
+	
+	/**
+	 * @param sm
+	 * @return the tensor product of this state and the given one, whose first registers are the registers of this state
+	 * followed by the registers of the given state
+	 */
+	StateMatrix tensor(StateMatrix sm) {
+		int size = numQubits + sm.numQubits;
+		StateMatrix product = new StateMatrix(size, Amplitudes.allocate(size, settings), settings);
+		long length = amplitudes.length();
+		long otherLength = sm.amplitudes.length();
+		for (long i = 0; i < length; i++) {
+			double real = amplitudes.getReal(i);
+			double imag = amplitudes.getImag(i);
+			if (real == 0 && imag == 0)
+				continue;
+			long base = i << sm.numQubits;
+			for (long j = 0; j < otherLength; j++) {
+				double otherReal = sm.amplitudes.getReal(j);
+				double otherImag = sm.amplitudes.getImag(j);
+				product.amplitudes.set(base | j, real * otherReal - imag * otherImag, real * otherImag + imag * otherReal);
 			}
-			output[r] = sum;
 		}
+		return product;
 	}
 	
-	private void add(double[] first, double[] second, double[] output) {
-		for (int i : Range.mk(first.length))
-			output[i] = first[i] + second[i];
+	/**
+	 * @return a state over the same register whose amplitudes are all zero
+	 */
+	StateMatrix blank() {
+		return new StateMatrix(numQubits, Amplitudes.allocate(numQubits, settings), settings);
 	}
 	
-	private void sub(double[] first, double[] second, double[] output) {
-		for (int i : Range.mk(first.length))
-			output[i] = first[i] - second[i];
-	}
-	
-	private void set(double[] vector, double[] toSetVector, IndexMap indexMap, int mask) {
-		for (int i : Range.mk(toSetVector.length)) {
-			int mappedIndex = mapIndexComponents(i, indexMap) | mask;
-			vector[mappedIndex] = toSetVector[i];
-		}
+	SimulatorSettings getSettings() {
+		return settings;
 	}
 	
-	// TODO: Speed this up (find some other way to do this)
-	private int mapIndexComponents(int indexComps, IndexMap indexMap) {
-		int size = indexMap.size();
-		int output = 0;
-		for (int i : Range.mk(size)) {
-			int mask = 1 << (size - 1 - i);
-			if ((indexComps & mask) == 0)
-				continue;
-			int mappedIndex = indexMap.get(i);
-			output |= 1 << (numQubits - 1 - mappedIndex);
-		}
-		return output;
+	Amplitudes getAmplitudes() {
+		return amplitudes;
 	}
 	
 	public StateMatrix copy() {
-		double[] realCopy = new double[real.length];
-		double[] imagCopy = new double[imag.length];
-		for (int i : Range.mk(real.length)) {
-			realCopy[i] = real[i];
-			imagCopy[i] = imag[i];
-		}
-		return new StateMatrix(numQubits, realCopy, imagCopy);
-	}
-	
-	private int[] makeIndexIndicators(Control[] qcs, IndexMap regIndexMap) {
-		HashSet<Integer> mapIndicies = new HashSet<Integer>();
-		regIndexMap.forEach(mapIndicies::add);
-		
-		int bothNeg = 0;
-		for (int i : mapIndicies)
-			bothNeg |= 1 << (numQubits - 1 - i);
-		
-		int negatedZeroEntries = bothNeg;
-		int negatedOneEntries  = bothNeg;
-		
-		for (Control c : qcs) {
-			int reg = c.getRegister();
-			if (c.getControlStatus() == Control.CONTROL_TRUE)
-				negatedZeroEntries |= 1 << (numQubits - 1 - reg);
-			else
-				negatedOneEntries  |= 1 << (numQubits - 1 - reg);
-		}
-		
-		int mask = (1 << numQubits) - 1;
-		return new int[] {mask & ~negatedZeroEntries, mask & ~negatedOneEntries};
-	}
-	
-	private static double[][] split(Matrix<Complex> matrix) {
-		int size = matrix.getRows();
-		int numEntries = 1 << matrix.getRows();
-		double[] real 	= new double[numEntries];
-		double[] imag = new double[numEntries];
-		for (int row : Range.mk(size)) {
-			for (int column : Range.mk(size)) {
-				Complex c = matrix.v(row, column);
-				int index = row + column * size;
-				real[index] = c.getReal();
-				imag[index] = c.getImaginary();
-			}
-		}
-		return new double[][] {real, imag};
+		return new StateMatrix(numQubits, amplitudes.copy(), settings);
 	}
 	
 	@Override
 	public String toString() {
-		int size = real.length;
+		if (numQubits > Amplitudes.MAX_HEAP_QUBITS)
+			return "[" + amplitudes.length() + " amplitudes]";
+		int size = (int) amplitudes.length();
 		Complex[] vectorComps = new Complex[size];
-		for (int i : Range.mk(size))
-			vectorComps[i] = new Complex(real[i], imag[i]);
+		for (int i = 0; i < size; i++)
+			vectorComps[i] = new Complex(amplitudes.getReal(i), amplitudes.getImag(i));
 		Vector<Complex> vector = new Vector<>(vectorComps);
 		return vector.toString();
 	}
@@ -0,0 +1,81 @@
+package appFX.framework.simulator;
+
+/**
+ * The values of the observables of a {@link ParameterSweep}, with one row for each point.
+ *
+ * @author quantumresearch
+ *
+ */
+public class SweepTable {
+	private final String[] parameters;
+	private final String[] observables;
+	private final double[][] points;
+	private final double[][] values;
+	
+	SweepTable(String[] parameters, String[] observables, double[][] points, double[][] values) {
+		this.parameters = parameters;
+		this.observables = observables;
+		this.points = points;
+		this.values = values;
+	}
+	
+	public int getNumPoints() {
+		return points.length;
+	}
+	
+	public String[] getParameters() {
+		return parameters.clone();
+	}
+	
+	public String[] getObservables() {
+		return observables.clone();
+	}
+	
+	public double[] getPoint(int point) {
+		return points[point].clone();
+	}
+	
+	public double get(int point, int observable) {
+		return values[point][observable];
+	}
+	
+	public double get(int point, String observable) {
+		return get(point, indexOf(observable));
+	}
+	
+	/**
+	 * @param observable
+	 * @return the value of an observable at every point
+	 */
+	public double[] getColumn(String observable) {
+		int index = indexOf(observable);
+		double[] column = new double[points.length];
+		for (int i = 0; i < points.length; i++)
+			column[i] = values[i][index];
+		return column;
+	}
+	
+	private int indexOf(String observable) {
+		for (int i = 0; i < observables.length; i++)
+			if (observables[i].equals(observable))
+				return i;
+		throw new IllegalArgumentException("No observable \"" + observable + "\"");
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (String parameter : parameters)
+			sb.append(parameter).append('\t');
+		for (String observable : observables)
+			sb.append(observable).append('\t');
+		for (int i = 0; i < points.length; i++) {
+			sb.append('\n');
+			for (double v : points[i])
+				sb.append(v).append('\t');
+			for (double v : values[i])
+				sb.append(v).append('\t');
+		}
+		return sb.toString();
+	}
+}
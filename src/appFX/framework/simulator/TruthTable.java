@@ -0,0 +1,108 @@
+package appFX.framework.simulator;
+
+import appFX.framework.Project;
+import appFX.framework.exportGates.GateManager.ExportException;
+import appFX.framework.gateModels.GateModel.GateComputingType;
+
+/**
+ * The final value of the register of a classical project for every initial value of it. <br>
+ * The project is compiled once, and rows are computed 64 at a time by running the plan on lanes, as
+ * {@link Simulator#simulateLanes(Project, long[])} does. A value is read as a number whose bit <code>i</code> is
+ * bit <code>i</code> of the register.
+ *
+ * @author quantumresearch
+ *
+ */
+public class TruthTable {
+	public static final int MAX_BITS = 30;
+	
+	// the lanes of bits 0 to 5 of the inputs in a batch of 64 consecutive inputs
+	private static final long[] LOW_BIT_LANES = {
+			0xAAAAAAAAAAAAAAAAL, 0xCCCCCCCCCCCCCCCCL, 0xF0F0F0F0F0F0F0F0L,
+			0xFF00FF00FF00FF00L, 0xFFFF0000FFFF0000L, 0xFFFFFFFF00000000L };
+	
+	private final int numBits;
+	private final int[] outputs;
+	
+	private TruthTable(int numBits, int[] outputs) {
+		this.numBits = numBits;
+		this.outputs = outputs;
+	}
+	
+	/**
+	 * @param p a project whose top level circuit is classical, with at most {@link #MAX_BITS} bits
+	 * @return
+	 * @throws ExportException
+	 */
+	public static TruthTable of(Project p) throws ExportException {
+		ExecutionPlan plan = ExecutionPlan.compile(p);
+		if (plan.getComputingType() != GateComputingType.CLASSICAL)
+			throw new IllegalArgumentException("Only classical circuits can be tabulated");
+		int numBits = plan.getNumPrimaryRegs();
+		if (numBits > MAX_BITS)
+			throw new IllegalArgumentException("Cannot tabulate " + numBits + " bits");
+		
+		int rows = 1 << numBits;
+		int[] outputs = new int[rows];
+		long[] inputs = new long[numBits];
+		for (int batch = 0; batch < rows; batch += BitSlicedClassicalState.LANES) {
+			for (int i = 0; i < numBits; i++)
+				inputs[i] = i < LOW_BIT_LANES.length ? LOW_BIT_LANES[i] : ((batch >>> i) & 1) == 0 ? 0 : BitSlicedClassicalState.ALL_LANES;
+			
+			BitSlicedClassicalState result = plan.runLanes(inputs);
+			int batchRows = Math.min(BitSlicedClassicalState.LANES, rows - batch);
+			for (int i = 0; i < numBits; i++) {
+				long word = result.get(i);
+				for (int lane = 0; lane < batchRows; lane++)
+					outputs[batch + lane] |= (int) ((word >>> lane) & 1) << i;
+			}
+		}
+		return new TruthTable(numBits, outputs);
+	}
+	
+	public int getNumBits() {
+		return numBits;
+	}
+	
+	public int getNumRows() {
+		return outputs.length;
+	}
+	
+	/**
+	 * @param input the initial value of the register
+	 * @return its final value
+	 */
+	public int get(int input) {
+		return outputs[input];
+	}
+	
+	/**
+	 * @return whether no two initial values end with the same value, as for reversible logic
+	 */
+	public boolean isReversible() {
+		boolean[] seen = new boolean[outputs.length];
+		for (int output : outputs) {
+			if (seen[output])
+				return false;
+			seen[output] = true;
+		}
+		return true;
+	}
+	
+	@Override
+	public String toString() {
+		if (numBits > 10)
+			return "[Truth Table] : " + numBits + " bits";
+		StringBuilder sb = new StringBuilder("[Truth Table] :");
+		for (int input = 0; input < outputs.length; input++)
+			sb.append('\n').append(bitString(input)).append(" -> ").append(bitString(outputs[input]));
+		return sb.toString();
+	}
+	
+	private String bitString(int value) {
+		char[] comps = new char[numBits];
+		for (int i = 0; i < numBits; i++)
+			comps[i] = ((value >>> i) & 1) != 0 ? '1' : '0';
+		return new String(comps);
+	}
+}
@@ -0,0 +1,197 @@
+package mathLib.equation;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import language.compiler.ParseTree.ParseBranch;
+import language.compiler.ParseTree.ParseNode;
+import language.compiler.ProductionSymbol;
+import mathLib.equation.BooleanEquationParser.BitLeaf;
+import mathLib.equation.BooleanEquationParser.BoolLeaf;
+import utils.customMaps.IntIndexMap;
+
+/**
+ * A list of {@link BooleanEquation}s compiled into one flat postfix program, which is run in a loop over an
+ * <code>int[]</code> instead of walking each parse tree. <br>
+ * Every bit the equations use gets a slot. The bits that are read before they are written are fetched once before
+ * the program runs, and the bits of the slots are mapped through the {@link IntIndexMap} of a gate application once
+ * rather than at every leaf. Equations run in order, so an equation sees the outputs of the ones before it.
+ *
+ * @author quantumresearch
+ *
+ */
+public class BooleanProgram implements Serializable {
+	private static final long serialVersionUID = 5195226722561204431L;
+	
+	private static final int PUSH = 0;
+	private static final int TRUE = 1;
+	private static final int FALSE = 2;
+	private static final int NOT = 3;
+	private static final int AND = 4;
+	private static final int OR = 5;
+	private static final int XOR = 6;
+	private static final int SET = 7;
+	private static final int OPCODE_BITS = 3;
+	private static final int OPCODE_MASK = (1 << OPCODE_BITS) - 1;
+	
+	// each instruction is an opcode, with the slot it reads or writes above the opcode bits
+	private final int[] code;
+	private final int[] bits;
+	private final boolean[] fetched;
+	private final int maxDepth;
+	
+	private BooleanProgram(int[] code, int[] bits, boolean[] fetched, int maxDepth) {
+		this.code = code;
+		this.bits = bits;
+		this.fetched = fetched;
+		this.maxDepth = maxDepth;
+	}
+	
+	public static BooleanProgram compile(Iterable<BooleanEquation> equations) {
+		Compiler compiler = new Compiler();
+		for (BooleanEquation eq : equations)
+			compiler.emit(eq.getParseTree().getRoot());
+		return compiler.build();
+	}
+	
+	/**
+	 * @return the local bit of each slot
+	 */
+	public int[] getBits() {
+		return bits.clone();
+	}
+	
+	/**
+	 * Runs the program on 64 independent inputs at once. Bit <code>i</code> of every word belongs to input
+	 * <code>i</code>, so a single input only needs bit 0.
+	 * @param laneFetch
+	 * @param laneSet
+	 * @param indexMap maps the local bits of the equations to the bits of the state
+	 */
+	public void run(LaneFetch laneFetch, LaneSet laneSet, IntIndexMap indexMap) {
+		int[] stateBits = new int[bits.length];
+		indexMap.mapAll(bits, stateBits);
+		run(laneFetch, laneSet, stateBits);
+	}
+	
+	/**
+	 * @param laneFetch
+	 * @param laneSet
+	 * @param stateBits the bit of the state each slot is mapped to
+	 */
+	public void run(LaneFetch laneFetch, LaneSet laneSet, int[] stateBits) {
+		long[] values = new long[bits.length];
+		for (int s = 0; s < bits.length; s++)
+			if (fetched[s])
+				values[s] = laneFetch.get(stateBits[s]);
+		
+		long[] stack = new long[maxDepth];
+		int top = -1;
+		for (int instruction : code) {
+			switch (instruction & OPCODE_MASK) {
+			case PUSH:
+				stack[++top] = values[instruction >>> OPCODE_BITS];
+				break;
+			case TRUE:
+				stack[++top] = -1L;
+				break;
+			case FALSE:
+				stack[++top] = 0;
+				break;
+			case NOT:
+				stack[top] = ~stack[top];
+				break;
+			case AND:
+				top--;
+				stack[top] &= stack[top + 1];
+				break;
+			case OR:
+				top--;
+				stack[top] |= stack[top + 1];
+				break;
+			case XOR:
+				top--;
+				stack[top] ^= stack[top + 1];
+				break;
+			default:
+				int slot = instruction >>> OPCODE_BITS;
+				values[slot] = stack[top--];
+				laneSet.set(stateBits[slot], values[slot]);
+				break;
+			}
+		}
+	}
+	
+	public static interface LaneFetch {
+		public long get(int bit);
+	}
+	
+	public static interface LaneSet {
+		public void set(int bit, long lanes);
+	}
+	
+	private static class Compiler {
+		private int[] code = new int[16];
+		private int size = 0;
+		private int[] bits = new int[4];
+		private boolean[] fetched = new boolean[4];
+		private boolean[] written = new boolean[4];
+		private int numSlots = 0;
+		private int depth = 0;
+		private int maxDepth = 0;
+		
+		private void emit(ParseNode node) {
+			ProductionSymbol sym = node.getProductionSymbol();
+			if (sym == BooleanEquationParser.NOT_NT) {
+				emit(((ParseBranch) node).getChildren().get(0));
+				add(NOT, 0);
+			} else if (sym == BooleanEquationParser.AND_NT || sym == BooleanEquationParser.OR_NT || sym == BooleanEquationParser.XOR_NT) {
+				ParseBranch branch = (ParseBranch) node;
+				emit(branch.getChildren().get(0));
+				emit(branch.getChildren().get(1));
+				add(sym == BooleanEquationParser.AND_NT ? AND : sym == BooleanEquationParser.OR_NT ? OR : XOR, -1);
+			} else if (sym == BooleanEquationParser.BIT_NT) {
+				int slot = slotOf(((BitLeaf) node).getBitInt());
+				if (!written[slot])
+					fetched[slot] = true;
+				add(PUSH | slot << OPCODE_BITS, 1);
+			} else if (sym == BooleanEquationParser.SET_NT) {
+				ParseBranch branch = (ParseBranch) node;
+				emit(branch.getChildren().get(1));
+				int slot = slotOf(((BitLeaf) branch.getChildren().get(0)).getBitInt());
+				written[slot] = true;
+				add(SET | slot << OPCODE_BITS, -1);
+			} else if (sym == BooleanEquationParser.BOOL_NT) {
+				add(((BoolLeaf) node).getValue() ? TRUE : FALSE, 1);
+			} else {
+				add(FALSE, 1);
+			}
+		}
+		
+		private void add(int instruction, int depthChange) {
+			if (size == code.length)
+				code = Arrays.copyOf(code, 2 * size);
+			code[size++] = instruction;
+			depth += depthChange;
+			maxDepth = Math.max(maxDepth, depth);
+		}
+		
+		private int slotOf(int bit) {
+			for (int s = 0; s < numSlots; s++)
+				if (bits[s] == bit)
+					return s;
+			if (numSlots == bits.length) {
+				bits = Arrays.copyOf(bits, 2 * numSlots);
+				fetched = Arrays.copyOf(fetched, 2 * numSlots);
+				written = Arrays.copyOf(written, 2 * numSlots);
+			}
+			bits[numSlots] = bit;
+			return numSlots++;
+		}
+		
+		private BooleanProgram build() {
+			return new BooleanProgram(Arrays.copyOf(code, size), Arrays.copyOf(bits, numSlots),
+					Arrays.copyOf(fetched, numSlots), maxDepth);
+		}
+	}
+}
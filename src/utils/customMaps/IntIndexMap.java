@@ -0,0 +1,91 @@
+package utils.customMaps;
+
+import java.util.Arrays;
+
+/**
+ * A map from the indices <code>0</code> to <code>size() - 1</code> to <code>int</code> values, held in an
+ * <code>int[]</code> so nothing is boxed, unlike {@link IndexMap}. <br>
+ * A map is immutable. The methods that write into an array the caller passes do not allocate, so they can be
+ * used once per gate.
+ *
+ * @author quantumresearch
+ *
+ */
+public class IntIndexMap {
+	private final int[] components;
+	
+	public IntIndexMap(int ... components) {
+		this(components, true);
+	}
+	
+	private IntIndexMap(int[] components, boolean copy) {
+		this.components = copy ? components.clone() : components;
+	}
+	
+	/**
+	 * @param size
+	 * @return the map from each index to itself
+	 */
+	public static IntIndexMap identity(int size) {
+		int[] components = new int[size];
+		for (int i = 0; i < size; i++)
+			components[i] = i;
+		return new IntIndexMap(components, false);
+	}
+	
+	public int size() {
+		return components.length;
+	}
+	
+	public int get(int index) {
+		return components[index];
+	}
+	
+	public int[] toArray() {
+		return components.clone();
+	}
+	
+	/**
+	 * Maps this map through another one, as {@link IndexMap#map(java.util.Map)} does.
+	 * @param outer
+	 * @return the map from each index to <code>outer.get(get(index))</code>
+	 */
+	public IntIndexMap map(IntIndexMap outer) {
+		int[] mapped = new int[components.length];
+		map(outer, mapped);
+		return new IntIndexMap(mapped, false);
+	}
+	
+	/**
+	 * @param outer
+	 * @param dest receives <code>outer.get(get(index))</code> at each index
+	 */
+	public void map(IntIndexMap outer, int[] dest) {
+		for (int i = 0; i < components.length; i++)
+			dest[i] = outer.components[components[i]];
+	}
+	
+	/**
+	 * @param indices
+	 * @param dest receives <code>get(indices[i])</code> at each <code>i</code>
+	 */
+	public void mapAll(int[] indices, int[] dest) {
+		for (int i = 0; i < indices.length; i++)
+			dest[i] = components[indices[i]];
+	}
+	
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof IntIndexMap && Arrays.equals(components, ((IntIndexMap) o).components);
+	}
+	
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(components);
+	}
+	
+	@Override
+	public String toString() {
+		return Arrays.toString(components);
+	}
+}
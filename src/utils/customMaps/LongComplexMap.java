@@ -0,0 +1,152 @@
+package utils.customMaps;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from <code>long</code> keys to complex values, stored in primitive arrays with open addressing
+ * and linear probing so no key or value is boxed. <br>
+ * Entries can be read in slot order with {@link #capacity()}, {@link #isUsed(int)} and the <code>...At</code> methods.
+ * Entries are never removed one at a time; build a new map instead.
+ *
+ * @author quantumresearch
+ *
+ */
+public class LongComplexMap {
+	private static final int MIN_CAPACITY = 16;
+	
+	private long[] keys;
+	private double[] reals;
+	private double[] imags;
+	private boolean[] used;
+	private int size = 0;
+	
+	public LongComplexMap() {
+		this(MIN_CAPACITY / 2);
+	}
+	
+	/**
+	 * @param expectedSize the number of entries the map can hold before it grows
+	 */
+	public LongComplexMap(int expectedSize) {
+		int capacity = MIN_CAPACITY;
+		while (capacity < 2 * expectedSize)
+			capacity <<= 1;
+		allocate(capacity);
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	public boolean containsKey(long key) {
+		return used[find(key)];
+	}
+	
+	public double getReal(long key) {
+		int slot = find(key);
+		return used[slot] ? reals[slot] : 0;
+	}
+	
+	public double getImag(long key) {
+		int slot = find(key);
+		return used[slot] ? imags[slot] : 0;
+	}
+	
+	public void put(long key, double real, double imag) {
+		int slot = insert(key);
+		reals[slot] = real;
+		imags[slot] = imag;
+	}
+	
+	/**
+	 * Adds a value to the value of a key, which is 0 if the key is not in the map.
+	 * @param key
+	 * @param real
+	 * @param imag
+	 */
+	public void add(long key, double real, double imag) {
+		int slot = insert(key);
+		reals[slot] += real;
+		imags[slot] += imag;
+	}
+	
+	public void clear() {
+		Arrays.fill(used, false);
+		Arrays.fill(reals, 0);
+		Arrays.fill(imags, 0);
+		size = 0;
+	}
+	
+	public int capacity() {
+		return keys.length;
+	}
+	
+	public boolean isUsed(int slot) {
+		return used[slot];
+	}
+	
+	public long keyAt(int slot) {
+		return keys[slot];
+	}
+	
+	public double realAt(int slot) {
+		return reals[slot];
+	}
+	
+	public double imagAt(int slot) {
+		return imags[slot];
+	}
+	
+	private int insert(long key) {
+		int slot = find(key);
+		if (used[slot])
+			return slot;
+		if (2 * (size + 1) > keys.length) {
+			grow();
+			slot = find(key);
+		}
+		used[slot] = true;
+		keys[slot] = key;
+		size++;
+		return slot;
+	}
+	
+	// the slot of the key, or the empty slot it would be inserted at
+	private int find(long key) {
+		int mask = keys.length - 1;
+		int slot = hash(key) & mask;
+		while (used[slot] && keys[slot] != key)
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+	
+	private void grow() {
+		long[] oldKeys = keys;
+		double[] oldReals = reals;
+		double[] oldImags = imags;
+		boolean[] oldUsed = used;
+		allocate(2 * oldKeys.length);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (!oldUsed[i])
+				continue;
+			int slot = find(oldKeys[i]);
+			used[slot] = true;
+			keys[slot] = oldKeys[i];
+			reals[slot] = oldReals[i];
+			imags[slot] = oldImags[i];
+		}
+	}
+	
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		reals = new double[capacity];
+		imags = new double[capacity];
+		used = new boolean[capacity];
+	}
+	
+	// basis states differ in few low bits, so the bits are mixed before the slot is taken
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
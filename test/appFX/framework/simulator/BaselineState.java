@@ -0,0 +1,149 @@
+package appFX.framework.simulator;
+
+import java.util.ArrayList;
+
+import appFX.framework.exportGates.Control;
+import mathLib.Complex;
+import mathLib.Matrix;
+import utils.customMaps.IntIndexMap;
+
+/**
+ * The state vector as it was multiplied before gates were compiled into {@link GateKernel}s: every gate is a full
+ * matrix product over the amplitudes its targets select, once for each value of the registers it does not touch.
+ * It is slow and has no special cases, so the simulator backends are checked against it.
+ *
+ * @author quantumresearch
+ *
+ */
+class BaselineState {
+	private final int numQubits;
+	private final double[] real;
+	private final double[] imag;
+	
+	BaselineState(int numQubits) {
+		this(numQubits, new double[1 << numQubits], new double[1 << numQubits]);
+		real[0] = 1;
+	}
+	
+	private BaselineState(int numQubits, double[] real, double[] imag) {
+		this.numQubits = numQubits;
+		this.real = real;
+		this.imag = imag;
+	}
+	
+	BaselineState copy() {
+		return new BaselineState(numQubits, real.clone(), imag.clone());
+	}
+	
+	int getNumQubits() {
+		return numQubits;
+	}
+	
+	double getReal(long basisState) {
+		return real[(int) basisState];
+	}
+	
+	double getImag(long basisState) {
+		return imag[(int) basisState];
+	}
+	
+	/**
+	 * @param other
+	 * @return the real part of &lt;other|this&gt;
+	 */
+	double overlap(BaselineState other) {
+		double sum = 0;
+		for (int i = 0; i < real.length; i++)
+			sum += real[i] * other.real[i] + imag[i] * other.imag[i];
+		return sum;
+	}
+	
+	double probability() {
+		return overlap(this);
+	}
+	
+	/**
+	 * @param other
+	 * @return the sum of this state and another, amplitude by amplitude
+	 */
+	BaselineState plus(BaselineState other) {
+		double[] sumReal = new double[real.length];
+		double[] sumImag = new double[imag.length];
+		for (int i = 0; i < real.length; i++) {
+			sumReal[i] = real[i] + other.real[i];
+			sumImag[i] = imag[i] + other.imag[i];
+		}
+		return new BaselineState(numQubits, sumReal, sumImag);
+	}
+	
+	void mult(Matrix<Complex> matrix, IntIndexMap regIndexMap, Control[] qcs) {
+		double[][] comps = GateKernel.split(matrix);
+		mult(comps[0], comps[1], regIndexMap.toArray(), qcs);
+	}
+	
+	/**
+	 * @param realMatrix row major, the first target being the most significant bit of a row
+	 * @param imagMatrix
+	 * @param targets
+	 * @param qcs
+	 */
+	void mult(double[] realMatrix, double[] imagMatrix, int[] targets, Control[] qcs) {
+		int targetBits = 0;
+		for (int reg : targets)
+			targetBits |= bitOf(reg);
+		int controlTrue = 0;
+		int controlBits = 0;
+		for (Control c : qcs) {
+			if ((bitOf(c.getRegister()) & targetBits) != 0)
+				continue;
+			controlBits |= bitOf(c.getRegister());
+			if (c.getControlStatus() == Control.CONTROL_TRUE)
+				controlTrue |= bitOf(c.getRegister());
+		}
+		
+		ArrayList<Integer> freeBits = new ArrayList<>();
+		for (int reg = 0; reg < numQubits; reg++)
+			if (((targetBits | controlBits) & bitOf(reg)) == 0)
+				freeBits.add(bitOf(reg));
+		
+		for (int free = 0; free < 1 << freeBits.size(); free++) {
+			int mask = controlTrue;
+			for (int j = 0; j < freeBits.size(); j++)
+				if ((free & (1 << j)) != 0)
+					mask |= freeBits.get(j);
+			mult(realMatrix, imagMatrix, targets, mask);
+		}
+	}
+	
+	private void mult(double[] realMatrix, double[] imagMatrix, int[] targets, int mask) {
+		int size = 1 << targets.length;
+		double[] realOutput = new double[size];
+		double[] imagOutput = new double[size];
+		for (int r = 0; r < size; r++) {
+			for (int c = 0; c < size; c++) {
+				int index = mapIndexComponents(c, targets) | mask;
+				double mr = realMatrix[r * size + c];
+				double mi = imagMatrix[r * size + c];
+				realOutput[r] += mr * real[index] - mi * imag[index];
+				imagOutput[r] += mr * imag[index] + mi * real[index];
+			}
+		}
+		for (int r = 0; r < size; r++) {
+			int index = mapIndexComponents(r, targets) | mask;
+			real[index] = realOutput[r];
+			imag[index] = imagOutput[r];
+		}
+	}
+	
+	private int mapIndexComponents(int indexComps, int[] targets) {
+		int output = 0;
+		for (int i = 0; i < targets.length; i++)
+			if ((indexComps & (1 << (targets.length - 1 - i))) != 0)
+				output |= bitOf(targets[i]);
+		return output;
+	}
+	
+	private int bitOf(int reg) {
+		return 1 << (numQubits - 1 - reg);
+	}
+}
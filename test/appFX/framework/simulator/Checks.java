@@ -0,0 +1,47 @@
+package appFX.framework.simulator;
+
+import java.util.function.LongFunction;
+
+/**
+ * The assertions shared by the simulator checks. A failed assertion throws an {@link AssertionError} naming what
+ * was off, which {@link SimulatorChecks} reports.
+ *
+ * @author quantumresearch
+ *
+ */
+final class Checks {
+	// the largest difference between two results that round differently but are equal
+	static final double TOLERANCE = 1e-9;
+	
+	private Checks() {}
+	
+	static void assertTrue(String what, boolean condition) {
+		if (!condition)
+			throw new AssertionError(what);
+	}
+	
+	static void assertClose(String what, double expected, double actual, double tolerance) {
+		if (!(Math.abs(expected - actual) <= tolerance))
+			throw new AssertionError(what + ": expected " + expected + " but got " + actual);
+	}
+	
+	/**
+	 * @param what
+	 * @param expected
+	 * @param actual the real and imaginary components of each amplitude of the state being checked
+	 * @param tolerance
+	 */
+	static void assertSameState(String what, BaselineState expected, LongFunction<double[]> actual, double tolerance) {
+		for (long i = 0; i < 1L << expected.getNumQubits(); i++) {
+			double[] amplitude = actual.apply(i);
+			double distance = Math.hypot(amplitude[0] - expected.getReal(i), amplitude[1] - expected.getImag(i));
+			if (!(distance <= tolerance))
+				throw new AssertionError(what + ": amplitude " + i + " is off by " + distance);
+		}
+	}
+	
+	static LongFunction<double[]> amplitudesOf(StateMatrix sm) {
+		Amplitudes amplitudes = sm.getAmplitudes();
+		return i -> new double[] {amplitudes.getReal(i), amplitudes.getImag(i)};
+	}
+}
@@ -0,0 +1,90 @@
+package appFX.framework.simulator;
+
+import java.util.Arrays;
+
+import appFX.framework.exportGates.Control;
+
+/**
+ * Checks a {@link ClusteredState} against the {@link BaselineState}: the products of the amplitudes of its clusters
+ * and the state vector its clusters merge into must match the baseline, and its clusters must be exactly the
+ * groups of registers that the gates connect.
+ *
+ * @author quantumresearch
+ *
+ */
+final class ClusteredChecks {
+	private static final int NUM_QUBITS = 8;
+	
+	private ClusteredChecks() {}
+	
+	static void run() {
+		for (long seed = 0; seed < 40; seed++) {
+			// few gates leave several clusters, more merge them all
+			RandomCircuit circuit = new RandomCircuit(seed, NUM_QUBITS, 2 + (int) (seed % 8), 2);
+			BaselineState expected = KernelChecks.baseline(circuit);
+			ClusteredState cs = new ClusteredState(NUM_QUBITS, new SimulatorSettings());
+			circuit.run(cs::applyUnitary);
+			String what = "seed " + seed;
+			Checks.assertSameState("product of the clusters, " + what, expected, cs::getAmplitude, Checks.TOLERANCE);
+			
+			int[] component = components(circuit);
+			int numComponents = 0;
+			int largest = 0;
+			for (int reg = 0; reg < NUM_QUBITS; reg++) {
+				int size = 0;
+				for (int other = 0; other < NUM_QUBITS; other++)
+					if (component[other] == component[reg])
+						size++;
+				largest = Math.max(largest, size);
+				if (component[reg] == reg)
+					numComponents++;
+				
+				int[] registers = cs.getClusterRegisters(reg);
+				Checks.assertTrue("cluster of register " + reg + " is its connected registers, " + what, registers.length == size);
+				for (int other : registers)
+					Checks.assertTrue("register " + other + " is connected to register " + reg + ", " + what, component[other] == component[reg]);
+			}
+			Checks.assertTrue("one cluster for each group of connected registers, " + what, cs.getNumClusters() == numComponents);
+			Checks.assertTrue("largest cluster, " + what, cs.getLargestClusterSize() == largest);
+			
+			// merging every cluster puts the registers back in order
+			StateMatrix merged = cs.toQuantumState().getStateMatrix();
+			Checks.assertSameState("merged state, " + what, expected, Checks.amplitudesOf(merged), Checks.TOLERANCE);
+			Checks.assertTrue("one cluster once merged, " + what, cs.getNumClusters() == 1);
+			int[] order = new int[NUM_QUBITS];
+			for (int reg = 0; reg < NUM_QUBITS; reg++)
+				order[reg] = reg;
+			Checks.assertTrue("merged registers are in order, " + what, Arrays.equals(order, cs.getClusterRegisters(0)));
+			
+			// and gates applied after the merge find their registers where they were put
+			RandomCircuit more = new RandomCircuit(seed + 1000, NUM_QUBITS, 5, 3);
+			more.run(cs::applyUnitary);
+			more.run(expected::mult);
+			Checks.assertSameState("gates after the merge, " + what, expected, cs::getAmplitude, Checks.TOLERANCE);
+		}
+	}
+	
+	// the smallest register each register is connected to through the targets and controls of the gates
+	private static int[] components(RandomCircuit circuit) {
+		int[] component = new int[NUM_QUBITS];
+		for (int reg = 0; reg < NUM_QUBITS; reg++)
+			component[reg] = reg;
+		for (int g = 0; g < circuit.size(); g++) {
+			RandomCircuit.Gate gate = circuit.get(g);
+			int joined = gate.targets[0];
+			for (int reg : gate.targets)
+				join(component, joined, reg);
+			for (Control c : gate.qcs)
+				join(component, joined, c.getRegister());
+		}
+		return component;
+	}
+	
+	private static void join(int[] component, int first, int second) {
+		int from = Math.max(component[first], component[second]);
+		int to = Math.min(component[first], component[second]);
+		for (int reg = 0; reg < component.length; reg++)
+			if (component[reg] == from)
+				component[reg] = to;
+	}
+}
@@ -0,0 +1,112 @@
+package appFX.framework.simulator;
+
+import java.util.Random;
+
+import appFX.framework.exportGates.Control;
+
+/**
+ * Checks a {@link DensityMatrixState} against the outer products of {@link BaselineState}s: after unitaries it
+ * must be the pure state of the baseline, and after a channel the average over the branches a state vector
+ * would draw.
+ *
+ * @author quantumresearch
+ *
+ */
+final class DensityMatrixChecks {
+	private static final int NUM_QUBITS = 4;
+	
+	private DensityMatrixChecks() {}
+	
+	static void run() {
+		Random random = new Random(11);
+		for (long seed = 0; seed < 10; seed++) {
+			RandomCircuit circuit = new RandomCircuit(seed, NUM_QUBITS, 30, 3);
+			BaselineState expected = KernelChecks.baseline(circuit);
+			SimulatorSettings settings = new SimulatorSettings();
+			settings.setSeed(seed);
+			DensityMatrixState ds = new DensityMatrixState(NUM_QUBITS, settings);
+			circuit.run(ds::applyUnitary);
+			
+			double[][] rho = new double[2][1 << 2 * NUM_QUBITS];
+			addOuter(rho, expected, 1);
+			assertSameDensity("unitaries, seed " + seed, rho, ds);
+			Checks.assertClose("trace, seed " + seed, 1, ds.trace(), Checks.TOLERANCE);
+			Checks.assertClose("purity, seed " + seed, 1, ds.purity(), Checks.TOLERANCE);
+			
+			double[][] o = RandomCircuit.unitary(random, 2);
+			int[] targets = {(int) seed % NUM_QUBITS, (int) (seed + 2) % NUM_QUBITS};
+			BaselineState applied = expected.copy();
+			applied.mult(o[0], o[1], targets, new Control[0]);
+			Checks.assertClose("expectation, seed " + seed, expected.overlap(applied), ds.expectation(o[0], o[1], targets), Checks.TOLERANCE);
+			
+			// amplitude damping, controlled on every other seed
+			double gamma = 0.1 + 0.08 * seed;
+			double[][] realKraus = {{1, 0, 0, Math.sqrt(1 - gamma)}, {0, Math.sqrt(gamma), 0, 0}};
+			double[][] imagKraus = {new double[4], new double[4]};
+			int[] target = {(int) (seed + 1) % NUM_QUBITS};
+			Control[] qcs = seed % 2 == 0 ? new Control[0] : new Control[] {new Control((int) (seed + 3) % NUM_QUBITS, true)};
+			ds.applyChannel(realKraus, imagKraus, target, qcs, true);
+			assertSameDensity("channel, seed " + seed, branchAverage(expected, realKraus, imagKraus, target, qcs), ds);
+			Checks.assertClose("trace after channel, seed " + seed, 1, ds.trace(), Checks.TOLERANCE);
+		}
+		
+		// a selective state keeps only the branch it reports
+		for (long seed = 0; seed < 10; seed++) {
+			RandomCircuit circuit = new RandomCircuit(50 + seed, NUM_QUBITS, 20, 2);
+			BaselineState expected = KernelChecks.baseline(circuit);
+			SimulatorSettings settings = new SimulatorSettings();
+			settings.setSeed(seed);
+			DensityMatrixState ds = new DensityMatrixState(NUM_QUBITS, settings);
+			ds.setSelective(true);
+			circuit.run(ds::applyUnitary);
+			double[][] realProjectors = {{1, 0, 0, 0}, {0, 0, 0, 1}};
+			double[][] imagProjectors = {new double[4], new double[4]};
+			int[] target = {(int) seed % NUM_QUBITS};
+			int outcome = ds.applyChannel(realProjectors, imagProjectors, target, new Control[0], true);
+			
+			BaselineState branch = expected.copy();
+			branch.mult(realProjectors[outcome], imagProjectors[outcome], target, new Control[0]);
+			double[][] rho = new double[2][1 << 2 * NUM_QUBITS];
+			addOuter(rho, branch, 1 / branch.probability());
+			assertSameDensity("selective measurement, seed " + seed, rho, ds);
+		}
+	}
+	
+	// the average over the branches a state vector draws, each weighted by the chance it is drawn
+	private static double[][] branchAverage(BaselineState state, double[][] realKraus, double[][] imagKraus, int[] targets, Control[] qcs) {
+		double[][] rho = new double[2][1 << 2 * NUM_QUBITS];
+		double left = 1;
+		for (int j = 0; j < realKraus.length; j++) {
+			BaselineState branch = state.copy();
+			branch.mult(realKraus[j], imagKraus[j], targets, qcs);
+			double p = branch.probability();
+			double drawn = Math.max(0, Math.min(p, left));
+			left -= drawn;
+			if (drawn > 0)
+				addOuter(rho, branch, drawn / p);
+		}
+		if (left > 0)
+			addOuter(rho, state, left);
+		return rho;
+	}
+	
+	private static void addOuter(double[][] rho, BaselineState state, double weight) {
+		int dim = 1 << NUM_QUBITS;
+		for (int r = 0; r < dim; r++) {
+			for (int c = 0; c < dim; c++) {
+				rho[0][r * dim + c] += weight * (state.getReal(r) * state.getReal(c) + state.getImag(r) * state.getImag(c));
+				rho[1][r * dim + c] += weight * (state.getImag(r) * state.getReal(c) - state.getReal(r) * state.getImag(c));
+			}
+		}
+	}
+	
+	private static void assertSameDensity(String what, double[][] expected, DensityMatrixState ds) {
+		int dim = 1 << NUM_QUBITS;
+		for (int r = 0; r < dim; r++) {
+			for (int c = 0; c < dim; c++) {
+				Checks.assertClose(what + ", real part of entry " + r + ", " + c, expected[0][r * dim + c], ds.getReal(r, c), Checks.TOLERANCE);
+				Checks.assertClose(what + ", imaginary part of entry " + r + ", " + c, expected[1][r * dim + c], ds.getImag(r, c), Checks.TOLERANCE);
+			}
+		}
+	}
+}
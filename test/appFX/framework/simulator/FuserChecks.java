@@ -0,0 +1,38 @@
+package appFX.framework.simulator;
+
+/**
+ * Checks that the runs a {@link GateFuser} multiplies together apply the same state as the
+ * {@link BaselineState} applying every gate, at several fusion widths, including gates wider than the width
+ * that are applied on their own.
+ *
+ * @author quantumresearch
+ *
+ */
+final class FuserChecks {
+	private static final int NUM_QUBITS = 6;
+	
+	private FuserChecks() {}
+	
+	static void run() {
+		for (int maxWidth = 2; maxWidth <= 4; maxWidth++) {
+			for (long seed = 0; seed < 20; seed++) {
+				RandomCircuit circuit = new RandomCircuit(seed, NUM_QUBITS, 30, 3);
+				BaselineState expected = KernelChecks.baseline(circuit);
+				StateMatrix sm = new StateMatrix(NUM_QUBITS);
+				GateFuser fuser = new GateFuser(maxWidth, NUM_QUBITS);
+				circuit.run((re, im, targets, qcs) -> fuser.add(re, im, targets, qcs, sm));
+				fuser.flush(sm);
+				String what = "width " + maxWidth + ", seed " + seed;
+				Checks.assertTrue("flushed, " + what, fuser.isEmpty());
+				Checks.assertSameState("fused circuit, " + what, expected, Checks.amplitudesOf(sm), Checks.TOLERANCE);
+				
+				// a flushed fuser starts a new run on the same state
+				RandomCircuit more = new RandomCircuit(seed + 1000, NUM_QUBITS, 10, 2);
+				more.run((re, im, targets, qcs) -> fuser.add(re, im, targets, qcs, sm));
+				fuser.flush(sm);
+				more.run(expected::mult);
+				Checks.assertSameState("second run, " + what, expected, Checks.amplitudesOf(sm), Checks.TOLERANCE);
+			}
+		}
+	}
+}
@@ -0,0 +1,223 @@
+package appFX.framework.simulator;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import appFX.framework.exportGates.Control;
+import appFX.framework.exportGates.GateManager.ExportException;
+
+/**
+ * Checks the backward pass of the {@link AdjointGradient} against central finite differences of the expectation,
+ * on random circuits of fixed gates and of rotations <code>exp(-i&theta;P/2)</code> about Pauli strings, with
+ * controls on some of them, and with one parameter shared by several rotations at different scales. <br>
+ * The five point stencil that projects with measurements fall back on is checked on rotations whose angles are
+ * scaled parameters, alone and around a measurement drawn from a fixed seed.
+ *
+ * @author quantumresearch
+ *
+ */
+final class GradientChecks {
+	private static final int NUM_QUBITS = 4;
+	private static final int NUM_PARAMETERS = 3;
+	private static final double STEP = 1e-5;
+	// the rounding of the finite differences grows as the step shrinks
+	private static final double DIFFERENCE_TOLERANCE = 1e-7;
+	private static final double[][][] PAULIS = {
+			{{0, 1, 1, 0}, new double[4]},
+			{new double[4], {0, -1, 1, 0}},
+			{{1, 0, 0, -1}, new double[4]},
+			{{1, 0, 0, 0, 0, -1, 0, 0, 0, 0, -1, 0, 0, 0, 0, 1}, new double[16]}};
+	private static final double[] SCALES = {1, 2, -0.5};
+	private static final Control[] NONE = new Control[0];
+	
+	private GradientChecks() {}
+	
+	static void run() {
+		for (long seed = 0; seed < 20; seed++) {
+			Random random = new Random(seed);
+			ArrayList<Rotation> circuit = new ArrayList<>();
+			RandomCircuit fixed = new RandomCircuit(seed, NUM_QUBITS, 8, 2);
+			for (int g = 0; g < fixed.size(); g++) {
+				circuit.add(new Rotation(fixed.get(g)));
+				// the first parameter is bound to the first two rotations, and maybe others
+				int parameter = g < 2 ? 0 : random.nextInt(NUM_PARAMETERS);
+				circuit.add(new Rotation(random, parameter));
+			}
+			double[] point = new double[NUM_PARAMETERS];
+			for (int k = 0; k < point.length; k++)
+				point[k] = 2 * Math.PI * random.nextDouble();
+			double[][] observable = RandomCircuit.unitary(random, 2);
+			LocalOperator o = new LocalOperator(hermitian(observable[0], 4, false), hermitian(observable[1], 4, true), 0, 2);
+			
+			StateMatrix psi = run(circuit, point);
+			StateMatrix lambda = o.apply(psi);
+			GateKernel[] inverses = new GateKernel[circuit.size()];
+			double[][][][] derivatives = new double[circuit.size()][][][];
+			for (int i = 0; i < circuit.size(); i++) {
+				Rotation r = circuit.get(i);
+				double[][] matrix = r.matrix(point);
+				int dim = 1 << r.targets.length;
+				inverses[i] = GateKernel.compile(adjoint(matrix[0], dim, false), adjoint(matrix[1], dim, true), r.targets, r.qcs, NUM_QUBITS);
+				if (r.pauli != null) {
+					derivatives[i] = new double[NUM_PARAMETERS][][];
+					derivatives[i][r.parameter] = r.derivative(point);
+				}
+			}
+			double[] gradient = AdjointGradient.backwardPass(psi, lambda, inverses, derivatives, NUM_PARAMETERS);
+			Checks.assertClose("backward pass undoes the circuit, seed " + seed, 1, psi.getAmplitudes().getReal(0), Checks.TOLERANCE);
+			
+			for (int k = 0; k < NUM_PARAMETERS; k++) {
+				double[] plus = point.clone();
+				double[] minus = point.clone();
+				plus[k] += STEP;
+				minus[k] -= STEP;
+				double difference = (o.expectation(run(circuit, plus)) - o.expectation(run(circuit, minus))) / (2 * STEP);
+				Checks.assertClose("derivative by parameter " + k + ", seed " + seed, difference, gradient[k], DIFFERENCE_TOLERANCE);
+			}
+		}
+		
+		stencil();
+	}
+	
+	// the stencil of the expectation is exact however the angle of a rotation scales with the parameter
+	private static void stencil() {
+		LocalOperator z = new LocalOperator(PAULIS[2][0], PAULIS[2][1], 0);
+		for (double scale : new double[] {2, 0.5, -3}) {
+			for (double theta = -2; theta < 2; theta += 0.7) {
+				double t = theta;
+				double derivative = stencil(offset -> {
+					StateMatrix sm = new StateMatrix(1);
+					rotateY(sm, scale * (t + offset), 0, NONE);
+					return z.expectation(sm);
+				});
+				Checks.assertClose("stencil of Ry(" + scale + " theta), theta " + t, -scale * Math.sin(scale * t), derivative, DIFFERENCE_TOLERANCE);
+			}
+		}
+		
+		// a measurement between the rotations keeps the outcome its seed draws, so the expectation of the one
+		// trajectory is smooth near the point
+		LocalOperator z1 = new LocalOperator(PAULIS[2][0], PAULIS[2][1], 1);
+		for (long seed = 0; seed < 20; seed++) {
+			double draw = new Random(seed).nextDouble();
+			double theta = 2 * Math.PI * new Random(seed + 100).nextDouble();
+			MeasuredExpectation expectation = offset -> {
+				double t = theta + offset;
+				StateMatrix sm = new StateMatrix(2);
+				rotateY(sm, 2 * t, 0, NONE);
+				rotateY(sm, t / 2, 1, NONE);
+				boolean one = draw >= sm.marginalProbabilities(0)[0];
+				sm.apply(GateKernel.compile(one ? new double[] {0, 0, 0, 1} : new double[] {1, 0, 0, 0}, new double[4], new int[] {0}, NONE, 2));
+				sm.normalize();
+				rotateY(sm, 3 * t, 1, new Control[] {new Control(0, true)});
+				return z1.expectation(sm);
+			};
+			double difference = (expectation.at(STEP) - expectation.at(-STEP)) / (2 * STEP);
+			Checks.assertClose("stencil around a measurement, seed " + seed, difference, stencil(expectation), DIFFERENCE_TOLERANCE);
+		}
+	}
+	
+	private static double stencil(MeasuredExpectation expectation) {
+		try {
+			return AdjointGradient.fivePointStencil(expectation::at);
+		} catch (ExportException e) {
+			throw new AssertionError(e.getMessage());
+		}
+	}
+	
+	private static void rotateY(StateMatrix sm, double angle, int target, Control[] qcs) {
+		double c = Math.cos(angle / 2);
+		double s = Math.sin(angle / 2);
+		sm.apply(GateKernel.compile(new double[] {c, -s, s, c}, new double[4], new int[] {target}, qcs, sm.getNumQubits()));
+	}
+	
+	private static StateMatrix run(ArrayList<Rotation> circuit, double[] point) {
+		StateMatrix sm = new StateMatrix(NUM_QUBITS);
+		for (Rotation r : circuit) {
+			double[][] matrix = r.matrix(point);
+			sm.apply(GateKernel.compile(matrix[0], matrix[1], r.targets, r.qcs, NUM_QUBITS));
+		}
+		return sm;
+	}
+	
+	// a component of the Hermitian part (M + M^dagger) / 2 of a matrix
+	private static double[] hermitian(double[] matrix, int dim, boolean imaginary) {
+		double[] adjoint = adjoint(matrix, dim, imaginary);
+		double[] sum = new double[matrix.length];
+		for (int i = 0; i < sum.length; i++)
+			sum[i] = (matrix[i] + adjoint[i]) / 2;
+		return sum;
+	}
+	
+	private static double[] adjoint(double[] matrix, int dim, boolean negate) {
+		double[] adjoint = new double[matrix.length];
+		for (int r = 0; r < dim; r++)
+			for (int c = 0; c < dim; c++)
+				adjoint[c * dim + r] = negate ? -matrix[r * dim + c] : matrix[r * dim + c];
+		return adjoint;
+	}
+	
+	// a fixed gate, or a rotation about a Pauli string by a scaled parameter
+	private static class Rotation {
+		private final int[] targets;
+		private final Control[] qcs;
+		private final double[][] fixed;
+		private final double[][] pauli;
+		private final int parameter;
+		private final double scale;
+		
+		private Rotation(RandomCircuit.Gate gate) {
+			this.targets = gate.targets;
+			this.qcs = gate.qcs;
+			this.fixed = new double[][] {gate.real, gate.imag};
+			this.pauli = null;
+			this.parameter = -1;
+			this.scale = 0;
+		}
+		
+		private Rotation(Random random, int parameter) {
+			int type = random.nextInt(PAULIS.length);
+			int first = random.nextInt(NUM_QUBITS);
+			int second = (first + 1 + random.nextInt(NUM_QUBITS - 1)) % NUM_QUBITS;
+			int control = first;
+			while (control == first || control == second)
+				control = random.nextInt(NUM_QUBITS);
+			this.targets = type == 3 ? new int[] {first, second} : new int[] {first};
+			this.qcs = random.nextInt(3) == 0 ? new Control[] {new Control(control, random.nextBoolean())} : new Control[0];
+			this.fixed = null;
+			this.pauli = PAULIS[type];
+			this.parameter = parameter;
+			this.scale = SCALES[random.nextInt(SCALES.length)];
+		}
+		
+		// cos(t/2) I - i sin(t/2) P
+		private double[][] matrix(double[] point) {
+			if (fixed != null)
+				return fixed;
+			double t = scale * point[parameter];
+			return combine(Math.cos(t / 2), Math.sin(t / 2));
+		}
+		
+		private double[][] derivative(double[] point) {
+			double t = scale * point[parameter];
+			return combine(-scale * Math.sin(t / 2) / 2, scale * Math.cos(t / 2) / 2);
+		}
+		
+		// a I - i b P
+		private double[][] combine(double a, double b) {
+			int dim = 1 << targets.length;
+			double[] re = new double[dim * dim];
+			double[] im = new double[dim * dim];
+			for (int e = 0; e < re.length; e++) {
+				re[e] = b * pauli[1][e];
+				im[e] = -b * pauli[0][e];
+			}
+			for (int d = 0; d < dim; d++)
+				re[d * dim + d] += a;
+			return new double[][] {re, im};
+		}
+	}
+	
+	private static interface MeasuredExpectation {
+		public double at(double offset);
+	}
+}
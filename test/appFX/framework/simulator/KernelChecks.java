@@ -0,0 +1,73 @@
+package appFX.framework.simulator;
+
+import appFX.framework.exportGates.Control;
+import mathLib.Complex;
+import mathLib.Matrix;
+import utils.customMaps.IntIndexMap;
+
+/**
+ * Checks the bit-insertion kernels a {@link StateMatrix} applies its gates with against the
+ * {@link BaselineState}, on one thread, on a pool, off the heap and through {@link StateMatrix#mult}.
+ *
+ * @author quantumresearch
+ *
+ */
+final class KernelChecks {
+	
+	private KernelChecks() {}
+	
+	static void run() {
+		for (long seed = 0; seed < 20; seed++) {
+			RandomCircuit circuit = new RandomCircuit(seed, 5, 40, 3);
+			BaselineState expected = baseline(circuit);
+			
+			StateMatrix serial = new StateMatrix(5, new SimulatorSettings());
+			circuit.run((re, im, targets, qcs) -> serial.apply(GateKernel.compile(re, im, targets, qcs, 5)));
+			Checks.assertSameState("serial kernels, seed " + seed, expected, Checks.amplitudesOf(serial), Checks.TOLERANCE);
+			
+			StateMatrix multiplied = new StateMatrix(5, new SimulatorSettings());
+			circuit.run((re, im, targets, qcs) -> multiplied.mult(matrixOf(re, im), new IntIndexMap(targets), qcs));
+			Checks.assertSameState("mult, seed " + seed, expected, Checks.amplitudesOf(multiplied), Checks.TOLERANCE);
+		}
+		
+		// enough qubits that a sweep is split into several tasks
+		SimulatorSettings parallel = new SimulatorSettings();
+		parallel.setParallelThreshold(1);
+		parallel.setParallelism(4);
+		SimulatorSettings offHeap = new SimulatorSettings();
+		offHeap.setOffHeap(true);
+		for (long seed = 0; seed < 3; seed++) {
+			RandomCircuit circuit = new RandomCircuit(100 + seed, 15, 12, 3);
+			BaselineState expected = baseline(circuit);
+			for (SimulatorSettings settings : new SimulatorSettings[] {parallel, offHeap}) {
+				StateMatrix sm = new StateMatrix(15, settings);
+				circuit.run((re, im, targets, qcs) -> sm.apply(GateKernel.compile(re, im, targets, qcs, 15)));
+				String what = (settings == parallel ? "parallel" : "off heap") + " kernels, seed " + seed;
+				Checks.assertSameState(what, expected, Checks.amplitudesOf(sm), Checks.TOLERANCE);
+			}
+		}
+		
+		// a control that is also a target is ignored, as it was by the baseline
+		BaselineState expected = new BaselineState(3);
+		StateMatrix sm = new StateMatrix(3);
+		double[][] u = RandomCircuit.unitary(new java.util.Random(7), 2);
+		Control[] qcs = {new Control(1, Control.CONTROL_FALSE), new Control(2, Control.CONTROL_FALSE)};
+		expected.mult(u[0], u[1], new int[] {0, 1}, qcs);
+		sm.apply(GateKernel.compile(u[0], u[1], new int[] {0, 1}, qcs, 3));
+		Checks.assertSameState("control on a target", expected, Checks.amplitudesOf(sm), Checks.TOLERANCE);
+	}
+	
+	static BaselineState baseline(RandomCircuit circuit) {
+		BaselineState expected = new BaselineState(circuit.getNumQubits());
+		circuit.run(expected::mult);
+		return expected;
+	}
+	
+	static Matrix<Complex> matrixOf(double[] re, double[] im) {
+		int dim = (int) Math.round(Math.sqrt(re.length));
+		Complex[] components = new Complex[re.length];
+		for (int i = 0; i < re.length; i++)
+			components[i] = new Complex(re[i], im[i]);
+		return new Matrix<Complex>(Complex.ZERO(), dim, dim, components);
+	}
+}
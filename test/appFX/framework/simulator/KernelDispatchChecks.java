@@ -0,0 +1,72 @@
+package appFX.framework.simulator;
+
+import java.util.Random;
+
+import appFX.framework.exportGates.Control;
+
+/**
+ * Checks that {@link GateKernel#compile} picks the kernel of each {@link GateKernel.Kind} for the matrices it is
+ * meant for, and that every kind, with and without controls, agrees with the {@link BaselineState}.
+ *
+ * @author quantumresearch
+ *
+ */
+final class KernelDispatchChecks {
+	private static final int NUM_QUBITS = 5;
+	
+	private KernelDispatchChecks() {}
+	
+	static void run() {
+		Random random = new Random(5);
+		double r = Math.sqrt(0.5);
+		double[][] hadamard = {{r, r, r, -r}, new double[4]};
+		double[][] swap = {{1, 0, 0, 0, 0, 0, 1, 0, 0, 1, 0, 0, 0, 0, 0, 1}, new double[16]};
+		
+		check(GateKernel.Kind.DIAGONAL, RandomCircuit.diagonal(random, 1), random);
+		check(GateKernel.Kind.DIAGONAL, RandomCircuit.diagonal(random, 3), random);
+		check(GateKernel.Kind.PERMUTATION, swap, random);
+		check(GateKernel.Kind.PERMUTATION, RandomCircuit.permutation(random, 2), random);
+		check(GateKernel.Kind.PERMUTATION, RandomCircuit.permutation(random, 3), random);
+		check(GateKernel.Kind.SINGLE_QUBIT, hadamard, random);
+		check(GateKernel.Kind.SINGLE_QUBIT, RandomCircuit.unitary(random, 1), random);
+		check(GateKernel.Kind.TWO_QUBIT, RandomCircuit.unitary(random, 2), random);
+		check(GateKernel.Kind.DENSE, RandomCircuit.unitary(random, 3), random);
+	}
+	
+	// applies the matrix to a random state on every choice of targets, with no control, one and two
+	private static void check(GateKernel.Kind kind, double[][] matrix, Random random) {
+		int numTargets = Integer.numberOfTrailingZeros((int) Math.round(Math.sqrt(matrix[0].length)));
+		RandomCircuit prefix = new RandomCircuit(random.nextLong(), NUM_QUBITS, 10, 2);
+		for (int trial = 0; trial < 12; trial++) {
+			int[] registers = shuffled(random);
+			int[] targets = new int[numTargets];
+			System.arraycopy(registers, 0, targets, 0, numTargets);
+			Control[] qcs = new Control[Math.min(trial % 3, NUM_QUBITS - numTargets)];
+			for (int i = 0; i < qcs.length; i++)
+				qcs[i] = new Control(registers[numTargets + i], random.nextBoolean());
+			
+			GateKernel kernel = GateKernel.compile(matrix[0], matrix[1], targets, qcs, NUM_QUBITS);
+			Checks.assertTrue(kind + " matrix compiled to a " + kernel.getKind() + " kernel", kernel.getKind() == kind);
+			
+			BaselineState expected = KernelChecks.baseline(prefix);
+			expected.mult(matrix[0], matrix[1], targets, qcs);
+			StateMatrix sm = new StateMatrix(NUM_QUBITS);
+			prefix.run((re, im, t, q) -> sm.apply(GateKernel.compile(re, im, t, q, NUM_QUBITS)));
+			sm.apply(kernel);
+			Checks.assertSameState(kind + " kernel, trial " + trial, expected, Checks.amplitudesOf(sm), Checks.TOLERANCE);
+		}
+	}
+	
+	private static int[] shuffled(Random random) {
+		int[] registers = new int[NUM_QUBITS];
+		for (int i = 0; i < NUM_QUBITS; i++)
+			registers[i] = i;
+		for (int i = NUM_QUBITS - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int swap = registers[i];
+			registers[i] = registers[j];
+			registers[j] = swap;
+		}
+		return registers;
+	}
+}
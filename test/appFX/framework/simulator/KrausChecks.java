@@ -0,0 +1,100 @@
+package appFX.framework.simulator;
+
+import java.util.Random;
+
+import appFX.framework.exportGates.Control;
+
+/**
+ * Checks the probabilities a {@link QuantumState} picks the operator of a measurement with, which come from one
+ * {@link GateKernel#targetDensity} sweep instead of a copy of the state for each operator, against the
+ * {@link BaselineState} with each operator applied to a copy.
+ *
+ * @author quantumresearch
+ *
+ */
+final class KrausChecks {
+	private static final int NUM_QUBITS = 5;
+	
+	private KrausChecks() {}
+	
+	static void run() {
+		Random random = new Random(10);
+		for (int trial = 0; trial < 30; trial++) {
+			RandomCircuit circuit = new RandomCircuit(trial, NUM_QUBITS, 15, 3);
+			BaselineState expected = KernelChecks.baseline(circuit);
+			StateMatrix sm = new StateMatrix(NUM_QUBITS);
+			circuit.run((re, im, targets, qcs) -> sm.apply(GateKernel.compile(re, im, targets, qcs, NUM_QUBITS)));
+			
+			int numTargets = 1 + trial % 2;
+			int[] targets = numTargets == 1 ? new int[] {trial % NUM_QUBITS} : new int[] {(trial + 3) % NUM_QUBITS, trial % NUM_QUBITS};
+			Control[] qcs = trial % 3 == 0 ? new Control[0] : new Control[] {new Control((trial + 1) % NUM_QUBITS, trial % 2 == 0)};
+			double[][][] kraus = krausOperators(random, numTargets, 1 + trial % 2);
+			int dim = 1 << numTargets;
+			
+			GateKernel first = GateKernel.compile(kraus[0][0], kraus[0][1], targets, qcs, NUM_QUBITS);
+			double[] density = sm.targetDensity(first);
+			double outside = 0;
+			if (!first.coversAllAmplitudes()) {
+				outside = sm.observableProbability();
+				for (int d = 0; d < dim; d++)
+					outside -= density[d * dim + d];
+			}
+			
+			double krausSum = 0;
+			double povmSum = 0;
+			for (double[][] k : kraus) {
+				BaselineState branch = expected.copy();
+				branch.mult(k[0], k[1], targets, qcs);
+				double krausProbability = outside + QuantumState.krausProbability(k[0], k[1], density, dim);
+				Checks.assertClose("Kraus probability, trial " + trial, branch.probability(), krausProbability, Checks.TOLERANCE);
+				krausSum += krausProbability - outside;
+				
+				// the POVM element of the operator is its adjoint times itself
+				double[][] element = adjointTimes(k, dim);
+				BaselineState applied = expected.copy();
+				applied.mult(element[0], element[1], targets, qcs);
+				double povmProbability = outside + QuantumState.povmProbability(element[0], element[1], density, dim);
+				Checks.assertClose("POVM probability, trial " + trial, expected.overlap(applied), povmProbability, Checks.TOLERANCE);
+				povmSum += povmProbability - outside;
+			}
+			Checks.assertClose("Kraus probabilities sum to one, trial " + trial, 1 - outside, krausSum, Checks.TOLERANCE);
+			Checks.assertClose("POVM probabilities sum to one, trial " + trial, 1 - outside, povmSum, Checks.TOLERANCE);
+		}
+	}
+	
+	// a complete set of operators, as the blocks of rows of the first columns of a random unitary
+	static double[][][] krausOperators(Random random, int numTargets, int ancillas) {
+		int dim = 1 << numTargets;
+		double[][] u = RandomCircuit.unitary(random, numTargets + ancillas);
+		int size = dim << ancillas;
+		double[][][] kraus = new double[1 << ancillas][2][dim * dim];
+		for (int j = 0; j < kraus.length; j++) {
+			for (int a = 0; a < dim; a++) {
+				for (int b = 0; b < dim; b++) {
+					kraus[j][0][a * dim + b] = u[0][(j * dim + a) * size + b];
+					kraus[j][1][a * dim + b] = u[1][(j * dim + a) * size + b];
+				}
+			}
+		}
+		return kraus;
+	}
+	
+	private static double[][] adjointTimes(double[][] k, int dim) {
+		double[] re = new double[dim * dim];
+		double[] im = new double[dim * dim];
+		for (int r = 0; r < dim; r++) {
+			for (int c = 0; c < dim; c++) {
+				for (int a = 0; a < dim; a++) {
+					// conj(K[a][r]) K[a][c]
+					double xr = k[0][a * dim + r];
+					double xi = -k[1][a * dim + r];
+					double yr = k[0][a * dim + c];
+					double yi = k[1][a * dim + c];
+					re[r * dim + c] += xr * yr - xi * yi;
+					im[r * dim + c] += xr * yi + xi * yr;
+				}
+			}
+		}
+		return new double[][] {re, im};
+	}
+}
@@ -0,0 +1,141 @@
+package appFX.framework.simulator;
+
+import java.util.Random;
+import java.util.function.LongFunction;
+
+import appFX.framework.exportGates.Control;
+
+/**
+ * Checks the {@link MatrixProductState} against the {@link BaselineState}. Without truncation every amplitude must
+ * match, and the bonds must not grow past the rank of the state, which they would if the Gram-Schmidt pass kept
+ * the partner of a singular vector that the complex to real embedding doubles. With a bond dimension cap, one
+ * truncated split must lose exactly the weight it reports.
+ *
+ * @author quantumresearch
+ *
+ */
+final class MatrixProductChecks {
+	private static final int NUM_QUBITS = 6;
+	// the singular value decompositions round more than the matrix products do
+	private static final double SVD_TOLERANCE = 1e-8;
+	private static final Control[] NONE = new Control[0];
+	
+	private MatrixProductChecks() {}
+	
+	static void run() {
+		for (long seed = 0; seed < 30; seed++) {
+			RandomCircuit circuit = new RandomCircuit(seed, NUM_QUBITS, 25, 3);
+			MatrixProductState mps = new MatrixProductState(NUM_QUBITS, new SimulatorSettings());
+			circuit.run(mps::applyUnitary);
+			Checks.assertSameState("matrix product state, seed " + seed, KernelChecks.baseline(circuit), amplitudesOf(mps), SVD_TOLERANCE);
+			for (int site = 0; site < NUM_QUBITS - 1; site++) {
+				int rank = 1 << Math.min(site + 1, NUM_QUBITS - 1 - site);
+				Checks.assertTrue("bond " + site + " is at most " + rank + ", seed " + seed, mps.getBondDimension(site) <= rank);
+			}
+			Checks.assertClose("no truncation, seed " + seed, 0, mps.getTruncationError(), Checks.TOLERANCE);
+		}
+		
+		productGates();
+		truncation();
+		measurement();
+	}
+	
+	// gates that are products of one qubit unitaries keep every bond at one, wherever their targets are on the chain
+	private static void productGates() {
+		Random random = new Random(13);
+		MatrixProductState mps = new MatrixProductState(NUM_QUBITS, new SimulatorSettings());
+		BaselineState expected = new BaselineState(NUM_QUBITS);
+		for (int g = 0; g < 30; g++) {
+			int a = random.nextInt(NUM_QUBITS);
+			int b = (a + 1 + random.nextInt(NUM_QUBITS - 1)) % NUM_QUBITS;
+			double[][] product = kronecker(RandomCircuit.unitary(random, 1), RandomCircuit.unitary(random, 1));
+			mps.applyUnitary(product[0], product[1], new int[] {a, b}, NONE);
+			expected.mult(product[0], product[1], new int[] {a, b}, NONE);
+			Checks.assertTrue("product gate " + g + " keeps the bonds at one", mps.getMaxBondDimension() == 1);
+		}
+		Checks.assertSameState("product state", expected, amplitudesOf(mps), SVD_TOLERANCE);
+	}
+	
+	// a gate on all four qubits of a chain capped at two only truncates the middle bond, once
+	private static void truncation() {
+		Random random = new Random(13);
+		for (int trial = 0; trial < 20; trial++) {
+			SimulatorSettings settings = new SimulatorSettings();
+			settings.setMaxBondDimension(2);
+			MatrixProductState mps = new MatrixProductState(4, settings);
+			BaselineState expected = new BaselineState(4);
+			double[][] u = RandomCircuit.unitary(random, 4);
+			int[] targets = {0, 1, 2, 3};
+			mps.applyUnitary(u[0], u[1], targets, NONE);
+			expected.mult(u[0], u[1], targets, NONE);
+			
+			double error = mps.getTruncationError();
+			Checks.assertTrue("a random state is truncated, trial " + trial, error > 1e-6);
+			Checks.assertTrue("bonds are capped, trial " + trial, mps.getMaxBondDimension() == 2);
+			double overlapReal = 0;
+			double overlapImag = 0;
+			double probability = 0;
+			for (long i = 0; i < 16; i++) {
+				double re = mps.getReal(i);
+				double im = mps.getImag(i);
+				overlapReal += expected.getReal(i) * re + expected.getImag(i) * im;
+				overlapImag += expected.getReal(i) * im - expected.getImag(i) * re;
+				probability += mps.probability(i);
+			}
+			Checks.assertClose("truncated state is normalized, trial " + trial, 1, probability, Checks.TOLERANCE);
+			double fidelity = overlapReal * overlapReal + overlapImag * overlapImag;
+			Checks.assertClose("fidelity is one minus the truncation error, trial " + trial, 1 - error, fidelity, SVD_TOLERANCE);
+		}
+	}
+	
+	// the state after a measurement is the baseline branch of the outcome, normalized
+	private static void measurement() {
+		Random random = new Random(13);
+		for (long seed = 0; seed < 30; seed++) {
+			RandomCircuit circuit = new RandomCircuit(seed, NUM_QUBITS, 15, 2);
+			BaselineState expected = KernelChecks.baseline(circuit);
+			SimulatorSettings settings = new SimulatorSettings();
+			settings.setSeed(seed);
+			MatrixProductState mps = new MatrixProductState(NUM_QUBITS, settings);
+			circuit.run(mps::applyUnitary);
+			
+			int numTargets = 1 + (int) (seed % 2);
+			int[] targets = numTargets == 1 ? new int[] {(int) (seed % NUM_QUBITS)} : new int[] {(int) ((seed + 2) % NUM_QUBITS), (int) (seed % NUM_QUBITS)};
+			double[][][] kraus = KrausChecks.krausOperators(random, numTargets, 1);
+			double[][] realMatrixes = new double[kraus.length][];
+			double[][] imagMatrixes = new double[kraus.length][];
+			for (int i = 0; i < kraus.length; i++) {
+				realMatrixes[i] = kraus[i][0];
+				imagMatrixes[i] = kraus[i][1];
+			}
+			int outcome = mps.measure(realMatrixes, imagMatrixes, targets, NONE, true);
+			Checks.assertTrue("an operator is chosen, seed " + seed, outcome < kraus.length);
+			
+			BaselineState branch = expected.copy();
+			branch.mult(realMatrixes[outcome], imagMatrixes[outcome], targets, NONE);
+			double p = branch.probability();
+			Checks.assertTrue("outcome " + outcome + " is possible, seed " + seed, p > 1e-6);
+			double scale = 1 / Math.sqrt(p);
+			branch.mult(new double[] {scale, 0, 0, scale}, new double[4], new int[] {0}, NONE);
+			Checks.assertSameState("measured state, seed " + seed, branch, amplitudesOf(mps), SVD_TOLERANCE);
+		}
+	}
+	
+	private static double[][] kronecker(double[][] a, double[][] b) {
+		double[] re = new double[16];
+		double[] im = new double[16];
+		for (int r = 0; r < 4; r++) {
+			for (int c = 0; c < 4; c++) {
+				int ia = (r >> 1) * 2 + (c >> 1);
+				int ib = (r & 1) * 2 + (c & 1);
+				re[r * 4 + c] = a[0][ia] * b[0][ib] - a[1][ia] * b[1][ib];
+				im[r * 4 + c] = a[0][ia] * b[1][ib] + a[1][ia] * b[0][ib];
+			}
+		}
+		return new double[][] {re, im};
+	}
+	
+	private static LongFunction<double[]> amplitudesOf(MatrixProductState mps) {
+		return i -> new double[] {mps.getReal(i), mps.getImag(i)};
+	}
+}
@@ -0,0 +1,177 @@
+package appFX.framework.simulator;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import appFX.framework.exportGates.Control;
+
+/**
+ * Checks the expectations and applications of {@link PauliSum}s and {@link LocalOperator}s, the decomposition of a
+ * local operator into Pauli strings, and the one pass expectations of an {@link ObservableBatch}, against the
+ * {@link BaselineState} multiplied by each matrix in full. The marginal probabilities and reduced density matrices
+ * of a {@link StateMatrix} are checked against the partial trace of the baseline summed out pair by pair.
+ *
+ * @author quantumresearch
+ *
+ */
+final class ObservableChecks {
+	private static final int NUM_QUBITS = 5;
+	private static final String PAULIS = "IXYZ";
+	private static final double[][][] MATRICES = {
+			{{1, 0, 0, 1}, new double[4]},
+			{{0, 1, 1, 0}, new double[4]},
+			{new double[4], {0, -1, 1, 0}},
+			{{1, 0, 0, -1}, new double[4]}};
+	private static final Control[] NONE = new Control[0];
+	// out of order, so the first register is not the most significant bit of the state
+	private static final int[][] REDUCED_REGISTERS = {{3, 0}, {1}, {4, 2, 0}, {0, 3, 1}};
+	
+	private ObservableChecks() {}
+	
+	static void run() {
+		Random random = new Random(22);
+		for (long seed = 0; seed < 30; seed++) {
+			RandomCircuit circuit = new RandomCircuit(seed, NUM_QUBITS, 15, 3);
+			BaselineState expected = KernelChecks.baseline(circuit);
+			StateMatrix sm = new StateMatrix(NUM_QUBITS);
+			circuit.run((re, im, targets, qcs) -> sm.apply(GateKernel.compile(re, im, targets, qcs, NUM_QUBITS)));
+			
+			PauliSum sum = randomSum(random, NUM_QUBITS, 4);
+			BaselineState summed = apply(sum, expected);
+			Checks.assertClose("Pauli sum expectation, seed " + seed, expected.overlap(summed), sum.expectation(sm), Checks.TOLERANCE);
+			Checks.assertSameState("Pauli sum applied, seed " + seed, summed, Checks.amplitudesOf(sum.apply(sm)), Checks.TOLERANCE);
+			
+			int[] targets = seed % 2 == 0 ? new int[] {(int) (seed % NUM_QUBITS)} : new int[] {(int) ((seed + 3) % NUM_QUBITS), (int) (seed % NUM_QUBITS)};
+			double[][] matrix = hermitian(random, 1 << targets.length);
+			LocalOperator local = new LocalOperator(matrix[0], matrix[1], targets);
+			BaselineState applied = expected.copy();
+			applied.mult(matrix[0], matrix[1], targets, NONE);
+			Checks.assertClose("local operator expectation, seed " + seed, expected.overlap(applied), local.expectation(sm), Checks.TOLERANCE);
+			Checks.assertSameState("local operator applied, seed " + seed, applied, Checks.amplitudesOf(local.apply(sm)), Checks.TOLERANCE);
+			
+			// the decomposition is the same operator
+			PauliSum decomposed = local.toPauliSum();
+			Checks.assertTrue("at most 4^k strings, seed " + seed, decomposed.size() <= 1 << (2 * targets.length));
+			Checks.assertSameState("decomposed local operator applied, seed " + seed, applied, Checks.amplitudesOf(decomposed.apply(sm)), Checks.TOLERANCE);
+			
+			double[] batch = new ObservableBatch().add(sum).add(local).add(decomposed).expectations(sm);
+			Checks.assertClose("batched Pauli sum, seed " + seed, expected.overlap(summed), batch[0], Checks.TOLERANCE);
+			Checks.assertClose("batched local operator, seed " + seed, expected.overlap(applied), batch[1], Checks.TOLERANCE);
+			Checks.assertClose("batched decomposition, seed " + seed, expected.overlap(applied), batch[2], Checks.TOLERANCE);
+			
+			int[] registers = REDUCED_REGISTERS[(int) (seed % REDUCED_REGISTERS.length)];
+			double[][] rho = partialTrace(expected, registers);
+			int dim = 1 << registers.length;
+			double[] reduced = sm.reducedDensityMatrix(registers);
+			double[] marginal = sm.marginalProbabilities(registers);
+			String what = Arrays.toString(registers) + ", seed " + seed;
+			for (int e = 0; e < dim * dim; e++) {
+				Checks.assertClose("reduced density matrix of " + what, rho[0][e], reduced[e], Checks.TOLERANCE);
+				Checks.assertClose("reduced density matrix of " + what, rho[1][e], reduced[dim * dim + e], Checks.TOLERANCE);
+			}
+			for (int v = 0; v < dim; v++)
+				Checks.assertClose("marginal probability of " + what, rho[0][v * dim + v], marginal[v], Checks.TOLERANCE);
+		}
+		
+		// a batch large enough to be split over a pool sums its ranges to the serial expectations
+		int numQubits = 16;
+		SimulatorSettings settings = new SimulatorSettings();
+		settings.setParallelThreshold(1);
+		settings.setParallelism(4);
+		StateMatrix sm = new StateMatrix(numQubits, settings);
+		new RandomCircuit(22, numQubits, 30, 2).run((re, im, targets, qcs) -> sm.apply(GateKernel.compile(re, im, targets, qcs, numQubits)));
+		ObservableBatch batch = new ObservableBatch();
+		PauliSum[] sums = new PauliSum[6];
+		for (int i = 0; i < sums.length; i++)
+			batch.add(sums[i] = randomSum(random, numQubits, 5));
+		double[] expectations = batch.expectations(sm);
+		for (int i = 0; i < sums.length; i++)
+			Checks.assertClose("batch split over a pool, sum " + i, sm.observableProbability(sums[i].apply(sm)), expectations[i], Checks.TOLERANCE);
+		
+		// a register given twice would have its Pauli matrices merged into one rather than multiplied
+		try {
+			new PauliSum().add(1, "XX", 0, 0);
+			throw new AssertionError("a register given twice is not refused");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+	
+	private static PauliSum randomSum(Random random, int numQubits, int numTerms) {
+		PauliSum sum = new PauliSum();
+		for (int t = 0; t < numTerms; t++) {
+			int length = 1 + random.nextInt(3);
+			StringBuilder paulis = new StringBuilder();
+			int[] registers = new int[length];
+			int first = random.nextInt(numQubits);
+			for (int i = 0; i < length; i++) {
+				paulis.append(PAULIS.charAt(random.nextInt(PAULIS.length())));
+				registers[i] = (first + i) % numQubits;
+			}
+			sum.add(random.nextGaussian(), paulis.toString(), registers);
+		}
+		return sum;
+	}
+	
+	// the sum of each string of a Pauli sum applied to a copy of a state, scaled by its coefficient
+	private static BaselineState apply(PauliSum sum, BaselineState state) {
+		BaselineState result = null;
+		for (int t = 0; t < sum.size(); t++) {
+			BaselineState term = state.copy();
+			PauliString string = sum.getString(t);
+			int[] registers = string.getRegisters();
+			for (int i = 0; i < registers.length; i++) {
+				double[][] matrix = MATRICES[PAULIS.indexOf(string.getPauli(i))];
+				term.mult(matrix[0], matrix[1], new int[] {registers[i]}, NONE);
+			}
+			double c = sum.getCoefficient(t);
+			term.mult(new double[] {c, 0, 0, c}, new double[4], new int[] {0}, NONE);
+			result = result == null ? term : result.plus(term);
+		}
+		return result;
+	}
+	
+	// the sum of a_i conj(a_j) over every pair of basis states that agree on all but the given registers
+	private static double[][] partialTrace(BaselineState state, int[] registers) {
+		int numQubits = state.getNumQubits();
+		int dim = 1 << registers.length;
+		long kept = 0;
+		for (int reg : registers)
+			kept |= 1L << (numQubits - 1 - reg);
+		double[] re = new double[dim * dim];
+		double[] im = new double[dim * dim];
+		for (long i = 0; i < 1L << numQubits; i++) {
+			for (long j = 0; j < 1L << numQubits; j++) {
+				if ((i & ~kept) != (j & ~kept))
+					continue;
+				int e = value(i, registers, numQubits) * dim + value(j, registers, numQubits);
+				re[e] += state.getReal(i) * state.getReal(j) + state.getImag(i) * state.getImag(j);
+				im[e] += state.getImag(i) * state.getReal(j) - state.getReal(i) * state.getImag(j);
+			}
+		}
+		return new double[][] {re, im};
+	}
+	
+	// the value of the registers in a basis state, the first register being the most significant bit
+	private static int value(long basisState, int[] registers, int numQubits) {
+		int value = 0;
+		for (int reg : registers)
+			value = value << 1 | (int) (basisState >>> (numQubits - 1 - reg) & 1);
+		return value;
+	}
+	
+	private static double[][] hermitian(Random random, int dim) {
+		double[] re = new double[dim * dim];
+		double[] im = new double[dim * dim];
+		for (int r = 0; r < dim; r++) {
+			for (int c = r; c < dim; c++) {
+				re[r * dim + c] = re[c * dim + r] = random.nextGaussian();
+				if (c != r) {
+					im[r * dim + c] = random.nextGaussian();
+					im[c * dim + r] = -im[r * dim + c];
+				}
+			}
+		}
+		return new double[][] {re, im};
+	}
+}
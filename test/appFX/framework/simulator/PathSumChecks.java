@@ -0,0 +1,77 @@
+package appFX.framework.simulator;
+
+import appFX.framework.exportGates.Control;
+import appFX.framework.exportGates.GateManager.ExportException;
+import mathLib.Complex;
+
+/**
+ * Checks every amplitude a {@link PathSumSimulator} sums over the paths of random circuits against the
+ * {@link BaselineState}, walked on one thread and forked on a pool, and looked up by index and by the string of
+ * register values.
+ *
+ * @author quantumresearch
+ *
+ */
+final class PathSumChecks {
+	private static final int NUM_QUBITS = 5;
+	
+	private PathSumChecks() {}
+	
+	static void run() {
+		for (long seed = 0; seed < 20; seed++) {
+			RandomCircuit circuit = new RandomCircuit(seed, NUM_QUBITS, 8, 3);
+			BaselineState expected = KernelChecks.baseline(circuit);
+			for (int parallelism : new int[] {1, 4}) {
+				SimulatorSettings settings = new SimulatorSettings();
+				settings.setParallelism(parallelism);
+				PathSumSimulator sum = new PathSumSimulator(NUM_QUBITS, settings);
+				circuit.run(sum::addGate);
+				sum.reset();
+				String what = "seed " + seed + ", parallelism " + parallelism;
+				Checks.assertSameState("path sum, " + what, expected, i -> amplitude(sum, i), Checks.TOLERANCE);
+				
+				for (long i = 0; i < 1L << NUM_QUBITS; i++) {
+					StringBuilder registers = new StringBuilder();
+					for (int reg = 0; reg < NUM_QUBITS; reg++)
+						registers.append((i >>> (NUM_QUBITS - 1 - reg) & 1) == 0 ? '0' : '1');
+					Complex byRegisters = amplitude(sum, registers.toString());
+					Checks.assertClose("amplitude of " + registers + ", " + what, expected.getReal(i), byRegisters.getReal(), Checks.TOLERANCE);
+					Checks.assertClose("amplitude of " + registers + ", " + what, expected.getImag(i), byRegisters.getImaginary(), Checks.TOLERANCE);
+				}
+			}
+		}
+		
+		// paths with a bit set that no gate touches end early, on zero
+		PathSumSimulator sum = new PathSumSimulator(NUM_QUBITS, new SimulatorSettings());
+		double r = Math.sqrt(0.5);
+		sum.addGate(new double[] {r, r, r, -r}, new double[4], new int[] {2}, new Control[0]);
+		Checks.assertClose("untouched register", 0, amplitude(sum, 0b01000)[0], Checks.TOLERANCE);
+		Checks.assertClose("touched register", r, amplitude(sum, 0b00100)[0], Checks.TOLERANCE);
+		
+		for (String registers : new String[] {"0000", "000000", "00201"}) {
+			try {
+				amplitude(sum, registers);
+				throw new AssertionError("\"" + registers + "\" is not refused");
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+	
+	private static double[] amplitude(PathSumSimulator sum, long basisState) {
+		try {
+			Complex amplitude = sum.amplitude(basisState);
+			return new double[] {amplitude.getReal(), amplitude.getImaginary()};
+		} catch (ExportException e) {
+			throw new AssertionError(e.getMessage());
+		}
+	}
+	
+	private static Complex amplitude(PathSumSimulator sum, String registers) {
+		try {
+			return sum.amplitude(registers);
+		} catch (ExportException e) {
+			throw new AssertionError(e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package appFX.framework.simulator;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import appFX.framework.exportGates.Control;
+
+/**
+ * A reproducible circuit of random gates on a few qubits: dense unitaries, diagonal phases and permutations with
+ * phases, on up to {@link #getMaxTargets()} targets and with quantum controls on some of them. <br>
+ * The same seed always gives the same gates, so a failed check can be run again.
+ *
+ * @author quantumresearch
+ *
+ */
+class RandomCircuit {
+	private final int numQubits;
+	private final int maxTargets;
+	private final ArrayList<Gate> gates = new ArrayList<>();
+	
+	/**
+	 * @param seed
+	 * @param numQubits
+	 * @param numGates
+	 * @param maxTargets the largest number of targets of a gate
+	 */
+	RandomCircuit(long seed, int numQubits, int numGates, int maxTargets) {
+		this.numQubits = numQubits;
+		this.maxTargets = Math.min(maxTargets, numQubits);
+		Random random = new Random(seed);
+		for (int g = 0; g < numGates; g++) {
+			int[] registers = shuffledRegisters(random, numQubits);
+			int[] targets = new int[1 + random.nextInt(this.maxTargets)];
+			System.arraycopy(registers, 0, targets, 0, targets.length);
+			Control[] qcs = new Control[0];
+			if (targets.length < numQubits && random.nextInt(3) == 0)
+				qcs = new Control[] {new Control(registers[targets.length], random.nextBoolean())};
+			
+			double[][] matrix;
+			switch (random.nextInt(4)) {
+			case 0:
+				matrix = diagonal(random, targets.length);
+				break;
+			case 1:
+				matrix = permutation(random, targets.length);
+				break;
+			default:
+				matrix = unitary(random, targets.length);
+				break;
+			}
+			gates.add(new Gate(matrix[0], matrix[1], targets, qcs));
+		}
+	}
+	
+	int getNumQubits() {
+		return numQubits;
+	}
+	
+	int getMaxTargets() {
+		return maxTargets;
+	}
+	
+	int size() {
+		return gates.size();
+	}
+	
+	Gate get(int gate) {
+		return gates.get(gate);
+	}
+	
+	void run(GateSink sink) {
+		for (Gate g : gates)
+			sink.apply(g.real, g.imag, g.targets, g.qcs);
+	}
+	
+	/**
+	 * @param random
+	 * @param numTargets
+	 * @return the real and imaginary components of a random unitary, made by orthonormalizing the columns of a
+	 * matrix of gaussian entries
+	 */
+	static double[][] unitary(Random random, int numTargets) {
+		int dim = 1 << numTargets;
+		double[] re = new double[dim * dim];
+		double[] im = new double[dim * dim];
+		for (int i = 0; i < re.length; i++) {
+			re[i] = random.nextGaussian();
+			im[i] = random.nextGaussian();
+		}
+		for (int c = 0; c < dim; c++) {
+			for (int p = 0; p < c; p++) {
+				double dr = 0;
+				double di = 0;
+				for (int r = 0; r < dim; r++) {
+					dr += re[r * dim + p] * re[r * dim + c] + im[r * dim + p] * im[r * dim + c];
+					di += re[r * dim + p] * im[r * dim + c] - im[r * dim + p] * re[r * dim + c];
+				}
+				for (int r = 0; r < dim; r++) {
+					re[r * dim + c] -= dr * re[r * dim + p] - di * im[r * dim + p];
+					im[r * dim + c] -= dr * im[r * dim + p] + di * re[r * dim + p];
+				}
+			}
+			double norm = 0;
+			for (int r = 0; r < dim; r++)
+				norm += re[r * dim + c] * re[r * dim + c] + im[r * dim + c] * im[r * dim + c];
+			norm = Math.sqrt(norm);
+			for (int r = 0; r < dim; r++) {
+				re[r * dim + c] /= norm;
+				im[r * dim + c] /= norm;
+			}
+		}
+		return new double[][] {re, im};
+	}
+	
+	static double[][] diagonal(Random random, int numTargets) {
+		int dim = 1 << numTargets;
+		double[] re = new double[dim * dim];
+		double[] im = new double[dim * dim];
+		for (int d = 0; d < dim; d++) {
+			double phase = 2 * Math.PI * random.nextDouble();
+			re[d * dim + d] = Math.cos(phase);
+			im[d * dim + d] = Math.sin(phase);
+		}
+		return new double[][] {re, im};
+	}
+	
+	static double[][] permutation(Random random, int numTargets) {
+		int dim = 1 << numTargets;
+		int[] sources = shuffledRegisters(random, dim);
+		double[] re = new double[dim * dim];
+		double[] im = new double[dim * dim];
+		for (int r = 0; r < dim; r++) {
+			// about half of the permutations carry phases, so cycles with and without them are both reached
+			double phase = sources[0] % 2 == 0 ? 0 : 2 * Math.PI * random.nextDouble();
+			re[r * dim + sources[r]] = Math.cos(phase);
+			im[r * dim + sources[r]] = Math.sin(phase);
+		}
+		return new double[][] {re, im};
+	}
+	
+	private static int[] shuffledRegisters(Random random, int size) {
+		int[] registers = new int[size];
+		for (int i = 0; i < size; i++)
+			registers[i] = i;
+		for (int i = size - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int swap = registers[i];
+			registers[i] = registers[j];
+			registers[j] = swap;
+		}
+		return registers;
+	}
+	
+	static interface GateSink {
+		public void apply(double[] realMatrix, double[] imagMatrix, int[] targets, Control[] qcs);
+	}
+	
+	static class Gate {
+		final double[] real;
+		final double[] imag;
+		final int[] targets;
+		final Control[] qcs;
+		
+		private Gate(double[] real, double[] imag, int[] targets, Control[] qcs) {
+			this.real = real;
+			this.imag = imag;
+			this.targets = targets;
+			this.qcs = qcs;
+		}
+	}
+}
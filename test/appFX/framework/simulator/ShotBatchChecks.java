@@ -0,0 +1,62 @@
+package appFX.framework.simulator;
+
+import java.util.SplittableRandom;
+
+import appFX.framework.exportGates.GateManager.ExportException;
+
+/**
+ * Checks that the counts of a seeded {@link ShotBatch} do not depend on how many threads run it or on how many
+ * shots each chunk holds, since every shot draws from a seed split off the master random in shot order.
+ *
+ * @author quantumresearch
+ *
+ */
+final class ShotBatchChecks {
+	private static final int NUM_QUBITS = 4;
+	private static final long SHOTS = 2000;
+	
+	private ShotBatchChecks() {}
+	
+	static void run() {
+		for (long seed = 0; seed < 5; seed++) {
+			RandomCircuit circuit = new RandomCircuit(seed, NUM_QUBITS, 15, 2);
+			StateMatrix sm = new StateMatrix(NUM_QUBITS);
+			circuit.run((re, im, targets, qcs) -> sm.apply(GateKernel.compile(re, im, targets, qcs, NUM_QUBITS)));
+			double[] probabilities = sm.marginalProbabilities(0, 1, 2, 3);
+			ShotBatch.Shot shot = shotSeed -> outcome(probabilities, new SplittableRandom(shotSeed).nextDouble());
+			
+			ShotCounts expected = run(shot, seed, 1, 1);
+			Checks.assertTrue("every shot is counted, seed " + seed, expected.getShots() == SHOTS);
+			for (int parallelism : new int[] {1, 4}) {
+				for (int chunkSize : new int[] {1, 7, ShotBatch.DEFAULT_CHUNK_SIZE, (int) SHOTS + 1}) {
+					ShotCounts counts = run(shot, seed, parallelism, chunkSize);
+					String what = "parallelism " + parallelism + ", chunk size " + chunkSize + ", seed " + seed;
+					Checks.assertTrue("same counts, " + what, expected.getCounts().equals(counts.getCounts()));
+				}
+			}
+		}
+	}
+	
+	private static ShotCounts run(ShotBatch.Shot shot, long seed, int parallelism, int chunkSize) {
+		SimulatorSettings settings = new SimulatorSettings();
+		settings.setParallelism(parallelism);
+		settings.setSeed(seed);
+		try {
+			return ShotBatch.run(SHOTS, chunkSize, settings.getPool(), settings.newRandom(), shot, null);
+		} catch (ExportException e) {
+			throw new AssertionError(e.getMessage());
+		}
+	}
+	
+	// the basis state the cumulative probabilities reach the draw at, as a bit string of the registers
+	private static String outcome(double[] probabilities, double draw) {
+		int value = 0;
+		double cumulative = probabilities[0];
+		while (value < probabilities.length - 1 && cumulative <= draw)
+			cumulative += probabilities[++value];
+		StringBuilder register = new StringBuilder();
+		for (int reg = 0; reg < NUM_QUBITS; reg++)
+			register.append((value >>> (NUM_QUBITS - 1 - reg) & 1) == 0 ? '0' : '1');
+		return register.toString();
+	}
+}
@@ -0,0 +1,108 @@
+package appFX.framework.simulator;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import appFX.framework.exportGates.Control;
+
+/**
+ * Checks that the shots a {@link ShotSampler} draws from one final state follow the probabilities of the
+ * {@link BaselineState}, and that measurements it cannot defer are refused.
+ *
+ * @author quantumresearch
+ *
+ */
+final class ShotSamplerChecks {
+	private static final int NUM_QUBITS = 4;
+	private static final long SHOTS = 200000;
+	
+	private ShotSamplerChecks() {}
+	
+	static void run() {
+		for (long seed = 0; seed < 5; seed++)
+			checkFrequencies(seed);
+		checkRefused();
+	}
+	
+	private static void checkFrequencies(long seed) {
+		RandomCircuit circuit = new RandomCircuit(seed, NUM_QUBITS, 20, 2);
+		BaselineState expected = KernelChecks.baseline(circuit);
+		StateMatrix sm = new StateMatrix(NUM_QUBITS);
+		circuit.run((re, im, targets, qcs) -> sm.apply(GateKernel.compile(re, im, targets, qcs, NUM_QUBITS)));
+		
+		// qubits 2 and 0 are measured together and qubit 1 on its own, qubit 3 is not measured
+		ShotSampler sampler = new ShotSampler(NUM_QUBITS);
+		int pair = sampler.record(projectors(2), new double[4][16], new int[] {2, 0}, new Control[0], false);
+		int single = sampler.record(projectors(1), new double[2][4], new int[] {1}, new Control[0], false);
+		ClassicalState register = new ClassicalState(4, true);
+		register.setSource(0, ShotSampler.source(pair, 1));
+		register.setSource(1, ShotSampler.source(pair, 0));
+		register.setSource(2, ShotSampler.source(single, 0));
+		register.set(3, true);
+		
+		ShotCounts counts = new ShotCounts();
+		sampler.sample(sm, register, SHOTS, new SplittableRandom(seed), counts);
+		Checks.assertTrue("shots drawn, seed " + seed, counts.getShots() == SHOTS);
+		
+		Map<String, Double> probabilities = new HashMap<>();
+		for (long i = 0; i < 1L << NUM_QUBITS; i++) {
+			String key = "" + bit(i, 2) + bit(i, 0) + bit(i, 1) + '1';
+			double p = expected.getReal(i) * expected.getReal(i) + expected.getImag(i) * expected.getImag(i);
+			probabilities.merge(key, p, Double::sum);
+		}
+		for (String key : counts.getCounts().keySet())
+			Checks.assertTrue("outcome " + key + " has a probability, seed " + seed, probabilities.containsKey(key));
+		for (Map.Entry<String, Double> entry : probabilities.entrySet()) {
+			double p = entry.getValue();
+			double frequency = counts.get(entry.getKey()) / (double) SHOTS;
+			// five standard deviations of the frequency
+			double tolerance = 5 * Math.sqrt(p * (1 - p) / SHOTS) + 1e-12;
+			Checks.assertClose("frequency of " + entry.getKey() + ", seed " + seed, p, frequency, tolerance);
+		}
+	}
+	
+	private static void checkRefused() {
+		ShotSampler sampler = new ShotSampler(NUM_QUBITS);
+		sampler.record(projectors(1), new double[2][4], new int[] {3}, new Control[0], false);
+		assertRefused("unitary after a measurement", () -> sampler.checkUnmeasured(new int[] {3}, new Control[0]));
+		assertRefused("control on a measured qubit", () -> sampler.checkUnmeasured(new int[] {0}, new Control[] {new Control(3, true)}));
+		sampler.checkUnmeasured(new int[] {0, 1}, new Control[] {new Control(2, false)});
+		
+		assertRefused("controlled measurement", () -> sampler.record(projectors(1), new double[2][4], new int[] {0},
+				new Control[] {new Control(1, true)}, false));
+		double r = Math.sqrt(0.5);
+		double[][] plusMinus = {{0.5, 0.5, 0.5, 0.5}, {0.5, -0.5, -0.5, 0.5}};
+		assertRefused("measurement outside the computational basis", () -> sampler.record(plusMinus, new double[2][4],
+				new int[] {0}, new Control[0], false));
+		double[][] scaled = {{r, 0, 0, 0}, {0, 0, 0, 1}};
+		assertRefused("measurement that is not a projection", () -> sampler.record(scaled, new double[2][4],
+				new int[] {0}, new Control[0], false));
+		
+		ClassicalState register = new ClassicalState(1, true);
+		register.setSource(0, ShotSampler.source(0, 0));
+		assertRefused("read of a deferred outcome", () -> register.get(0));
+	}
+	
+	private static void assertRefused(String what, Runnable action) {
+		try {
+			action.run();
+		} catch (ShotSampler.NotTerminalException e) {
+			return;
+		}
+		throw new AssertionError(what + " was not refused");
+	}
+	
+	// a projector onto each computational basis state of the targets
+	private static double[][] projectors(int numTargets) {
+		int dim = 1 << numTargets;
+		double[][] projectors = new double[dim][dim * dim];
+		for (int k = 0; k < dim; k++)
+			projectors[k][k * dim + k] = 1;
+		return projectors;
+	}
+	
+	private static char bit(long basisState, int reg) {
+		return (basisState >>> (NUM_QUBITS - 1 - reg) & 1) == 1 ? '1' : '0';
+	}
+}
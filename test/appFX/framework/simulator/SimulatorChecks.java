@@ -0,0 +1,46 @@
+package appFX.framework.simulator;
+
+/**
+ * Runs every simulator check and exits with a failure status if any of them fails. <br>
+ * The checks compare each backend with the {@link BaselineState} on small {@link RandomCircuit}s of fixed seeds,
+ * and derived quantities such as gradients with finite differences.
+ *
+ * @author quantumresearch
+ *
+ */
+public class SimulatorChecks {
+	
+	public static void main(String[] args) {
+		int failures = 0;
+		failures += run("gate kernels", KernelChecks::run);
+		failures += run("kernel dispatch", KernelDispatchChecks::run);
+		failures += run("gate fusion", FuserChecks::run);
+		failures += run("shot sampling", ShotSamplerChecks::run);
+		failures += run("shot batches", ShotBatchChecks::run);
+		failures += run("Kraus and POVM probabilities", KrausChecks::run);
+		failures += run("density matrix backend", DensityMatrixChecks::run);
+		failures += run("stabilizer tableau", StabilizerChecks::run);
+		failures += run("matrix product state", MatrixProductChecks::run);
+		failures += run("sparse backend", SparseChecks::run);
+		failures += run("adjoint gradient", GradientChecks::run);
+		failures += run("observables", ObservableChecks::run);
+		failures += run("path sums", PathSumChecks::run);
+		failures += run("clustered state", ClusteredChecks::run);
+		
+		System.out.println(failures == 0 ? "All checks passed" : failures + " checks failed");
+		if (failures != 0)
+			System.exit(1);
+	}
+	
+	private static int run(String name, Runnable check) {
+		try {
+			check.run();
+			System.out.println("ok      " + name);
+			return 0;
+		} catch (Throwable t) {
+			System.out.println("FAILED  " + name + ": " + t.getMessage());
+			t.printStackTrace(System.out);
+			return 1;
+		}
+	}
+}
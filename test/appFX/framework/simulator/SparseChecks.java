@@ -0,0 +1,115 @@
+package appFX.framework.simulator;
+
+import java.util.Random;
+import java.util.function.LongFunction;
+
+import appFX.framework.exportGates.Control;
+
+/**
+ * Checks the {@link SparseState} against the {@link BaselineState}: it must store exactly the basis states the
+ * baseline populates, drop amplitudes that cancel, and keep matching the baseline after it converts to a state
+ * vector once too many basis states are populated.
+ *
+ * @author quantumresearch
+ *
+ */
+final class SparseChecks {
+	private static final int NUM_QUBITS = 7;
+	private static final double R = Math.sqrt(0.5);
+	private static final double[][] HADAMARD = {{R, R, R, -R}, new double[4]};
+	private static final Control[] NONE = new Control[0];
+	
+	private SparseChecks() {}
+	
+	static void run() {
+		// reversible circuits with phases keep a single basis state populated
+		Random random = new Random(14);
+		for (int trial = 0; trial < 20; trial++) {
+			SparseState sparse = new SparseState(NUM_QUBITS, new SimulatorSettings());
+			BaselineState expected = new BaselineState(NUM_QUBITS);
+			for (int g = 0; g < 30; g++) {
+				RandomCircuit.Gate gate = new RandomCircuit(random.nextLong(), NUM_QUBITS, 1, 3).get(0);
+				double[][] matrix = random.nextBoolean() ? RandomCircuit.permutation(random, gate.targets.length) : RandomCircuit.diagonal(random, gate.targets.length);
+				sparse.applyUnitary(matrix[0], matrix[1], gate.targets, gate.qcs);
+				expected.mult(matrix[0], matrix[1], gate.targets, gate.qcs);
+			}
+			Checks.assertSameState("reversible circuit, trial " + trial, expected, amplitudesOf(sparse), Checks.TOLERANCE);
+			Checks.assertTrue("one basis state is stored, trial " + trial, sparse.getOccupancy() == 1 && !sparse.isDense());
+		}
+		
+		// amplitudes that cancel are dropped
+		SparseState sparse = new SparseState(NUM_QUBITS, new SimulatorSettings());
+		for (int reg = 0; reg < 3; reg++)
+			sparse.applyUnitary(HADAMARD[0], HADAMARD[1], new int[] {reg}, NONE);
+		Checks.assertTrue("three Hadamards populate eight basis states", sparse.getOccupancy() == 8);
+		for (int reg = 0; reg < 3; reg++)
+			sparse.applyUnitary(HADAMARD[0], HADAMARD[1], new int[] {reg}, NONE);
+		Checks.assertTrue("undoing them leaves one basis state", sparse.getOccupancy() == 1);
+		Checks.assertClose("undoing them returns to the ground state", 1, sparse.getReal(0), Checks.TOLERANCE);
+		
+		for (long seed = 0; seed < 30; seed++) {
+			RandomCircuit circuit = new RandomCircuit(seed, NUM_QUBITS, 20, 3);
+			SparseState state = new SparseState(NUM_QUBITS, new SimulatorSettings());
+			BaselineState expected = new BaselineState(NUM_QUBITS);
+			long maxOccupancy = (long) (SimulatorSettings.DEFAULT_SPARSE_OCCUPANCY_THRESHOLD * (1L << NUM_QUBITS));
+			boolean full = false;
+			for (int g = 0; g < circuit.size(); g++) {
+				RandomCircuit.Gate gate = circuit.get(g);
+				state.applyUnitary(gate.real, gate.imag, gate.targets, gate.qcs);
+				expected.mult(gate.real, gate.imag, gate.targets, gate.qcs);
+				
+				long populated = populated(expected);
+				full |= populated > maxOccupancy;
+				String what = "gate " + g + ", seed " + seed;
+				Checks.assertTrue("converts to a state vector once more than " + maxOccupancy + " basis states are populated, " + what, state.isDense() == full);
+				Checks.assertTrue("stores the populated basis states, " + what, state.getOccupancy() == (full ? 1L << NUM_QUBITS : populated));
+				Checks.assertSameState("sparse state, " + what, expected, amplitudesOf(state), Checks.TOLERANCE);
+			}
+		}
+		
+		measurement();
+	}
+	
+	// the state after a measurement is the baseline branch of the outcome, normalized
+	private static void measurement() {
+		Random random = new Random(14);
+		for (long seed = 0; seed < 30; seed++) {
+			SimulatorSettings settings = new SimulatorSettings();
+			settings.setSeed(seed);
+			settings.setSparseOccupancyThreshold(1);
+			RandomCircuit circuit = new RandomCircuit(seed, NUM_QUBITS, 6, 2);
+			SparseState sparse = new SparseState(NUM_QUBITS, settings);
+			circuit.run(sparse::applyUnitary);
+			BaselineState expected = KernelChecks.baseline(circuit);
+			
+			int[] targets = {(int) (seed % NUM_QUBITS)};
+			Control[] qcs = seed % 3 == 0 ? NONE : new Control[] {new Control((int) ((seed + 1) % NUM_QUBITS), seed % 2 == 0)};
+			double[][][] kraus = KrausChecks.krausOperators(random, 1, 1);
+			double[][] realMatrixes = new double[kraus.length][];
+			double[][] imagMatrixes = new double[kraus.length][];
+			for (int i = 0; i < kraus.length; i++) {
+				realMatrixes[i] = kraus[i][0];
+				imagMatrixes[i] = kraus[i][1];
+			}
+			int outcome = sparse.measure(realMatrixes, imagMatrixes, targets, qcs, true);
+			if (outcome < kraus.length) {
+				expected.mult(realMatrixes[outcome], imagMatrixes[outcome], targets, qcs);
+				double scale = 1 / Math.sqrt(expected.probability());
+				expected.mult(new double[] {scale, 0, 0, scale}, new double[4], new int[] {0}, NONE);
+			}
+			Checks.assertSameState("measured state, seed " + seed, expected, amplitudesOf(sparse), Checks.TOLERANCE);
+		}
+	}
+	
+	private static long populated(BaselineState state) {
+		long populated = 0;
+		for (long i = 0; i < 1L << state.getNumQubits(); i++)
+			if (Math.hypot(state.getReal(i), state.getImag(i)) > 1e-12)
+				populated++;
+		return populated;
+	}
+	
+	private static LongFunction<double[]> amplitudesOf(SparseState sparse) {
+		return i -> new double[] {sparse.getReal(i), sparse.getImag(i)};
+	}
+}
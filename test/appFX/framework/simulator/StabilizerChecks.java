@@ -0,0 +1,151 @@
+package appFX.framework.simulator;
+
+import java.util.Random;
+
+import appFX.framework.exportGates.Control;
+import appFX.framework.gateModels.PresetGateType;
+
+/**
+ * Checks the CHP tableau of a {@link StabilizerState} against the {@link BaselineState} running the same random
+ * Clifford circuits with mid-circuit measurements: every generator of the tableau must stabilize the baseline
+ * state, the generators must be independent, and every measurement outcome must be possible.
+ *
+ * @author quantumresearch
+ *
+ */
+final class StabilizerChecks {
+	private static final int NUM_QUBITS = 6;
+	private static final double R = Math.sqrt(0.5);
+	private static final double[][] HADAMARD = {{R, R, R, -R}, new double[4]};
+	private static final double[][] PHASE = {{1, 0, 0, 0}, {0, 0, 0, 1}};
+	private static final double[][] PAULI_X = {{0, 1, 1, 0}, new double[4]};
+	private static final double[][] PAULI_Y = {new double[4], {0, -1, 1, 0}};
+	private static final double[][] PAULI_Z = {{1, 0, 0, -1}, new double[4]};
+	private static final double[][] CNOT = {{1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 0, 1, 0, 0, 1, 0}, new double[16]};
+	private static final double[][] SWAP = {{1, 0, 0, 0, 0, 0, 1, 0, 0, 1, 0, 0, 0, 0, 0, 1}, new double[16]};
+	private static final Control[] NONE = new Control[0];
+	
+	private StabilizerChecks() {}
+	
+	static void run() {
+		Random random = new Random(12);
+		for (long seed = 0; seed < 50; seed++) {
+			SimulatorSettings settings = new SimulatorSettings();
+			settings.setSeed(seed);
+			StabilizerState ss = new StabilizerState(NUM_QUBITS, settings);
+			BaselineState expected = new BaselineState(NUM_QUBITS);
+			for (int g = 0; g < 40; g++) {
+				int a = random.nextInt(NUM_QUBITS);
+				int b = (a + 1 + random.nextInt(NUM_QUBITS - 1)) % NUM_QUBITS;
+				switch (random.nextInt(9)) {
+				case 0:
+					ss.hadamard(a);
+					expected.mult(HADAMARD[0], HADAMARD[1], new int[] {a}, NONE);
+					break;
+				case 1:
+					ss.phase(a);
+					expected.mult(PHASE[0], PHASE[1], new int[] {a}, NONE);
+					break;
+				case 2:
+					ss.cnot(a, b);
+					expected.mult(CNOT[0], CNOT[1], new int[] {a, b}, NONE);
+					break;
+				case 3:
+					ss.swap(a, b);
+					expected.mult(SWAP[0], SWAP[1], new int[] {a, b}, NONE);
+					break;
+				case 4:
+				case 5:
+				case 6: {
+					PresetGateType type = random.nextBoolean() ? PresetGateType.PAULI_X : random.nextBoolean() ? PresetGateType.PAULI_Y : PresetGateType.PAULI_Z;
+					double[][] matrix = type == PresetGateType.PAULI_X ? PAULI_X : type == PresetGateType.PAULI_Y ? PAULI_Y : PAULI_Z;
+					if (random.nextBoolean()) {
+						Control control = new Control(b, random.nextBoolean());
+						ss.controlledPauli(type, control, a);
+						expected.mult(matrix[0], matrix[1], new int[] {a}, new Control[] {control});
+					} else {
+						ss.pauli(type, a);
+						expected.mult(matrix[0], matrix[1], new int[] {a}, NONE);
+					}
+					break;
+				}
+				default: {
+					int outcome = ss.measure(a);
+					double[] projector = outcome == 0 ? new double[] {1, 0, 0, 0} : new double[] {0, 0, 0, 1};
+					expected.mult(projector, new double[4], new int[] {a}, NONE);
+					double p = expected.probability();
+					Checks.assertTrue("outcome " + outcome + " of qubit " + a + " is possible, seed " + seed, p > 1e-6);
+					expected = normalized(expected, p);
+					break;
+				}
+				}
+			}
+			
+			for (int i = 0; i < NUM_QUBITS; i++) {
+				String generator = ss.getStabilizer(i);
+				Checks.assertClose("expectation of " + generator + ", seed " + seed, 1, expectation(expected, generator), Checks.TOLERANCE);
+			}
+			Checks.assertTrue("generators are independent, seed " + seed, rank(ss) == NUM_QUBITS);
+		}
+		
+		// every qubit of a wide GHZ state measures the same
+		StabilizerState ghz = new StabilizerState(2000, new SimulatorSettings());
+		ghz.hadamard(0);
+		for (int i = 1; i < ghz.size(); i++)
+			ghz.cnot(i - 1, i);
+		int first = ghz.measure(0);
+		for (int i = 1; i < ghz.size(); i++)
+			Checks.assertTrue("qubit " + i + " of the GHZ state agrees", ghz.measure(i) == first);
+	}
+	
+	// the real part of <psi|P|psi> for a signed Pauli string such as -XZI
+	private static double expectation(BaselineState state, String generator) {
+		BaselineState applied = state.copy();
+		for (int q = 0; q < NUM_QUBITS; q++) {
+			char c = generator.charAt(q + 1);
+			double[][] matrix = c == 'X' ? PAULI_X : c == 'Y' ? PAULI_Y : c == 'Z' ? PAULI_Z : null;
+			if (matrix != null)
+				applied.mult(matrix[0], matrix[1], new int[] {q}, NONE);
+		}
+		return (generator.charAt(0) == '-' ? -1 : 1) * state.overlap(applied);
+	}
+	
+	private static BaselineState normalized(BaselineState state, double probability) {
+		double scale = 1 / Math.sqrt(probability);
+		BaselineState scaled = state.copy();
+		scaled.mult(new double[] {scale, 0, 0, scale}, new double[4], new int[] {0}, NONE);
+		return scaled;
+	}
+	
+	// the rank over GF(2) of the x and z bits of the generators
+	private static int rank(StabilizerState ss) {
+		long[] rows = new long[NUM_QUBITS];
+		for (int i = 0; i < NUM_QUBITS; i++) {
+			String generator = ss.getStabilizer(i);
+			for (int q = 0; q < NUM_QUBITS; q++) {
+				char c = generator.charAt(q + 1);
+				if (c == 'X' || c == 'Y')
+					rows[i] |= 1L << q;
+				if (c == 'Z' || c == 'Y')
+					rows[i] |= 1L << (NUM_QUBITS + q);
+			}
+		}
+		int rank = 0;
+		for (int bit = 0; bit < 2 * NUM_QUBITS && rank < NUM_QUBITS; bit++) {
+			int pivot = -1;
+			for (int i = rank; i < NUM_QUBITS; i++)
+				if ((rows[i] >>> bit & 1) != 0)
+					pivot = i;
+			if (pivot < 0)
+				continue;
+			long swap = rows[pivot];
+			rows[pivot] = rows[rank];
+			rows[rank] = swap;
+			for (int i = 0; i < NUM_QUBITS; i++)
+				if (i != rank && (rows[i] >>> bit & 1) != 0)
+					rows[i] ^= rows[rank];
+			rank++;
+		}
+		return rank;
+	}
+}